@@ -0,0 +1,325 @@
+package cz.metacentrum.perun.googlegroupconnector;
+
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executes all calls of G Suite API, so they are kept under configured quota and transient failures are retried.
+ * <p>
+ * Each {@link ApiQuota} has its own {@link RateLimiter} configured in queries per second
+ * by domain properties file. Missing or zero value means calls are not limited.
+ * <p>
+ * Failed calls are retried according to {@link RetryPolicy}. Each attempt waits for the rate limit again.
+ * <p>
+ * When "adaptive_concurrency_max" is set, number of calls of each quota in flight is limited
+ * by {@link ConcurrencyLimiter}, which adapts to observed latency and throttling.
+ * <p>
+ * Calls of entities created in the same run, which fail with 404, are retried until the entity is readable.
+ * <p>
+ * Retried write might fail with 409 (insert) or 404 (delete), when its previous attempt succeeded, but its response was lost.
+ * Such write is done, see {@link #executeWrite(ApiQuota, boolean, Call)} and {@link #executeDelete(ApiQuota, boolean, Call)}.
+ * The same applies to the first attempt of write sent again, e.g. when outstanding changes of journal are replayed.
+ */
+public class ApiCallExecutor {
+
+	private final static org.slf4j.Logger log = LoggerFactory.getLogger(ApiCallExecutor.class);
+
+	/**
+	 * Single call of G Suite API.
+	 *
+	 * @param <T> Type of result
+	 */
+	@FunctionalInterface
+	public interface Call<T> {
+		T execute() throws IOException;
+	}
+
+	private final Map<ApiQuota, RateLimiter> rateLimiters = new EnumMap<>(ApiQuota.class);
+	private final Map<ApiQuota, AtomicLong> throttledMillis = new EnumMap<>(ApiQuota.class);
+	private final Map<ApiQuota, AtomicLong> retries = new EnumMap<>(ApiQuota.class);
+	private final AtomicLong readinessMillis = new AtomicLong();
+	// writes might have been done before, e.g. replayed changes of interrupted job
+	private volatile boolean replaying = false;
+	private final RetryPolicy retryPolicy;
+	private final Map<ApiQuota, ConcurrencyLimiter> concurrencyLimiters = new EnumMap<>(ApiQuota.class);
+
+	/**
+	 * Create executor with limits from domain properties.
+	 *
+	 * @param properties Domain properties
+	 */
+	public ApiCallExecutor(Properties properties) {
+		this.retryPolicy = new RetryPolicy(properties);
+		int maxConcurrency = Integer.parseInt(properties.getProperty("adaptive_concurrency_max", "0"));
+		for (ApiQuota quota : ApiQuota.values()) {
+			double qps = Double.parseDouble(properties.getProperty(quota.getProperty(), "0"));
+			rateLimiters.put(quota, new RateLimiter(qps));
+			throttledMillis.put(quota, new AtomicLong());
+			retries.put(quota, new AtomicLong());
+			if (qps > 0) log.debug("Rate of {} calls limited to {} per second.", quota, qps);
+			if (maxConcurrency > 0) {
+				concurrencyLimiters.put(quota, new ConcurrencyLimiter(quota.name(), 1, maxConcurrency, Math.min(4, maxConcurrency)));
+			}
+		}
+	}
+
+	/**
+	 * Execute API call once rate limit allows it. Transient failures are retried.
+	 *
+	 * @param quota Quota the call counts against
+	 * @param requests Number of requests sent by the call (size of batch or 1)
+	 * @param call Call to execute
+	 * @return Result of the call
+	 * @throws IOException When API call fails or waiting is interrupted
+	 */
+	public <T> T execute(ApiQuota quota, int requests, Call<T> call) throws IOException {
+		return execute(quota, requests, false, call);
+	}
+
+	/**
+	 * Execute API call once rate limit allows it. Transient failures are retried.
+	 *
+	 * @param quota Quota the call counts against
+	 * @param requests Number of requests sent by the call (size of batch or 1)
+	 * @param created TRUE if call is for entity created in this run, so 404 is retried until it is readable
+	 * @param call Call to execute
+	 * @return Result of the call
+	 * @throws IOException When API call fails or waiting is interrupted
+	 */
+	public <T> T execute(ApiQuota quota, int requests, boolean created, Call<T> call) throws IOException {
+		return execute(quota, requests, created, Write.NONE, false, call);
+	}
+
+	/**
+	 * Execute write call, whose result is not needed, once rate limit allows it. Transient failures are retried.
+	 * When retried write fails with 409 (already exists), the write is considered done.
+	 *
+	 * @param quota Quota the call counts against
+	 * @param created TRUE if call is for entity created in this run, so 404 is retried until it is readable
+	 * @param call Call to execute
+	 * @throws IOException When API call fails or waiting is interrupted
+	 */
+	public void executeWrite(ApiQuota quota, boolean created, Call<?> call) throws IOException {
+		executeWrite(quota, created, false, call);
+	}
+
+	/**
+	 * Execute write call, whose result is not needed, once rate limit allows it. Transient failures are retried.
+	 * When retried or sent again write fails with 409 (already exists), the write is considered done.
+	 *
+	 * @param quota Quota the call counts against
+	 * @param created TRUE if call is for entity created in this run, so 404 is retried until it is readable
+	 * @param resent TRUE if the write was already sent before, e.g. it is retried from dead letter queue
+	 * @param call Call to execute
+	 * @throws IOException When API call fails or waiting is interrupted
+	 */
+	public void executeWrite(ApiQuota quota, boolean created, boolean resent, Call<?> call) throws IOException {
+		execute(quota, 1, created, Write.INSERT, resent, call);
+	}
+
+	/**
+	 * Execute delete call once rate limit allows it. Transient failures are retried.
+	 * When retried or sent again delete fails with 404 (not found), the delete is considered done.
+	 *
+	 * @param quota Quota the call counts against
+	 * @param resent TRUE if the delete was already sent before, e.g. it is retried from dead letter queue
+	 * @param call Call to execute
+	 * @throws IOException When API call fails or waiting is interrupted
+	 */
+	public void executeDelete(ApiQuota quota, boolean resent, Call<?> call) throws IOException {
+		execute(quota, 1, false, Write.DELETE, resent, call);
+	}
+
+	/**
+	 * Kind of call, which decides if failure of the call sent again means its change is already done.
+	 */
+	private enum Write {
+		NONE, INSERT, DELETE
+	}
+
+	private <T> T execute(ApiQuota quota, int requests, boolean created, Write write, boolean resent, Call<T> call) throws IOException {
+		int attempt = 0;
+		int readinessAttempt = 0;
+		while (true) {
+			try {
+				long waited = rateLimiters.get(quota).acquire(requests);
+				if (waited > 0) throttledMillis.get(quota).addAndGet(waited);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for rate limit of " + quota);
+			}
+			IOException failure;
+			ConcurrencyLimiter limiter = concurrencyLimiters.get(quota);
+			if (limiter == null) {
+				try {
+					return call.execute();
+				} catch (IOException ex) {
+					failure = ex;
+				}
+			} else {
+				try {
+					limiter.acquire();
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while waiting for concurrency limit of " + quota);
+				}
+				long start = System.nanoTime();
+				try {
+					T result = call.execute();
+					limiter.onSuccess(System.nanoTime() - start, requests);
+					return result;
+				} catch (IOException ex) {
+					failure = ex;
+					if (retryPolicy.isThrottled(ex)) {
+						limiter.onThrottled(ex.getMessage());
+					} else if (retryPolicy.isRetryable(ex)) {
+						limiter.onFailure(ex.getMessage());
+					}
+				} finally {
+					limiter.release();
+				}
+			}
+			if (write != Write.NONE && (attempt > 0 || resent || replaying) && retryPolicy.isAlreadyDone(failure, write == Write.DELETE)) {
+				log.info("Retried {} call found its change already done: {}", quota, failure.getMessage());
+				return null;
+			}
+			if (created && retryPolicy.isNotFound(failure)) {
+				if (!awaitReadiness(quota, ++readinessAttempt, failure.getMessage())) throw failure;
+				continue;
+			}
+			if (!retryPolicy.isRetryable(failure) || !awaitRetry(quota, ++attempt, retryPolicy.getRetryAfter(failure), failure.getMessage())) throw failure;
+		}
+	}
+
+	/**
+	 * Wait before next attempt of failed call, if it can be retried.
+	 *
+	 * @param quota Quota the call counts against
+	 * @param attempt Number of failed attempt (starting from 1)
+	 * @param retryAfter Delay requested by server in milliseconds or NULL
+	 * @param reason Reason of failure used in log
+	 * @return TRUE = call should be retried / FALSE = call must not be retried anymore
+	 * @throws InterruptedIOException When waiting is interrupted
+	 */
+	public boolean awaitRetry(ApiQuota quota, int attempt, Long retryAfter, String reason) throws InterruptedIOException {
+		Long delay = retryPolicy.nextDelay(attempt, retryAfter);
+		if (delay == null) return false;
+		retries.get(quota).incrementAndGet();
+		log.warn("Retrying {} call in {} ms (attempt {} failed): {}", quota, delay, attempt, reason);
+		try {
+			Thread.sleep(delay);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for retry of " + quota + " call");
+		}
+		return true;
+	}
+
+	/**
+	 * Wait before next attempt of call, which didn't find entity created in this run, if it can be retried.
+	 *
+	 * @param quota Quota the call counts against
+	 * @param attempt Number of attempt which didn't find the entity (starting from 1)
+	 * @param reason Reason of failure used in log
+	 * @return TRUE = call should be retried / FALSE = entity is not readable in time
+	 * @throws InterruptedIOException When waiting is interrupted
+	 */
+	public boolean awaitReadiness(ApiQuota quota, int attempt, String reason) throws InterruptedIOException {
+		Long delay = retryPolicy.nextReadinessDelay(attempt);
+		if (delay == null) return false;
+		readinessMillis.addAndGet(delay);
+		log.debug("Created entity is not readable yet, retrying {} call in {} ms: {}", quota, delay, reason);
+		try {
+			Thread.sleep(delay);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for created entity to be readable");
+		}
+		return true;
+	}
+
+	/**
+	 * Record request of batch throttled by G Suite, so concurrency limit of the quota is lowered.
+	 *
+	 * @param quota Quota the request counts against
+	 * @param reason Reason of throttling used in log
+	 */
+	public void onThrottled(ApiQuota quota, String reason) {
+		ConcurrencyLimiter limiter = concurrencyLimiters.get(quota);
+		if (limiter != null) limiter.onThrottled(reason);
+	}
+
+	/**
+	 * Return current concurrency limit of the quota.
+	 *
+	 * @param quota Quota
+	 * @return Max number of calls in flight or NULL if not limited
+	 */
+	public Integer getConcurrencyLimit(ApiQuota quota) {
+		ConcurrencyLimiter limiter = concurrencyLimiters.get(quota);
+		return (limiter != null) ? limiter.getLimit() : null;
+	}
+
+	/**
+	 * Set if writes are sent again, so 409 of insert and 404 of delete means the change was already done.
+	 *
+	 * @param replaying TRUE = writes might have been done before / FALSE = writes are sent for the first time
+	 */
+	public void setReplaying(boolean replaying) {
+		this.replaying = replaying;
+	}
+
+	/**
+	 * Return TRUE if writes are sent again, see {@link #setReplaying(boolean)}.
+	 *
+	 * @return TRUE = writes might have been done before / FALSE = writes are sent for the first time
+	 */
+	public boolean isReplaying() {
+		return replaying;
+	}
+
+	/**
+	 * Return policy deciding which failures are retried.
+	 *
+	 * @return retry policy
+	 */
+	public RetryPolicy getRetryPolicy() {
+		return retryPolicy;
+	}
+
+	/**
+	 * Return number of retried calls of the quota.
+	 *
+	 * @param quota Quota
+	 * @return Number of retries
+	 */
+	public long getRetries(ApiQuota quota) {
+		return retries.get(quota).get();
+	}
+
+	/**
+	 * Return total time callers waited for created entities to be readable.
+	 *
+	 * @return Time in milliseconds
+	 */
+	public long getReadinessMillis() {
+		return readinessMillis.get();
+	}
+
+	/**
+	 * Return total time callers waited for rate limit of the quota.
+	 *
+	 * @param quota Quota
+	 * @return Time in milliseconds
+	 */
+	public long getThrottledMillis(ApiQuota quota) {
+		return throttledMillis.get(quota).get();
+	}
+
+}
@@ -0,0 +1,39 @@
+package cz.metacentrum.perun.googlegroupconnector;
+
+/**
+ * Quota of G Suite API calls. Each quota has its own rate limit configured
+ * in queries per second by property of domain properties file.
+ */
+public enum ApiQuota {
+
+	/**
+	 * Listing of users, groups and members by Directory API.
+	 */
+	DIRECTORY_READ("directory_read_qps"),
+
+	/**
+	 * Changes of users, groups and members by Directory API.
+	 */
+	DIRECTORY_WRITE("directory_write_qps"),
+
+	/**
+	 * All calls of Drive API.
+	 */
+	DRIVE("drive_qps");
+
+	private final String property;
+
+	ApiQuota(String property) {
+		this.property = property;
+	}
+
+	/**
+	 * Return name of property with rate limit in queries per second.
+	 *
+	 * @return property name
+	 */
+	public String getProperty() {
+		return property;
+	}
+
+}
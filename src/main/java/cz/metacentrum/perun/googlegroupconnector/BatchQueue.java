@@ -0,0 +1,322 @@
+package cz.metacentrum.perun.googlegroupconnector;
+
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.services.json.AbstractGoogleJsonClient;
+import com.google.api.client.googleapis.services.json.AbstractGoogleJsonClientRequest;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpMethods;
+import cz.metacentrum.perun.googlegroupconnector.exceptions.GoogleGroupsIOException;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Collects write requests to G Suite and sends them as HTTP batch requests.
+ * <p>
+ * Requests are queued with description (used in error message) and callback called
+ * when request succeeds. When queue reaches configured size, it is submitted as a single
+ * multipart batch request to the {@link MutationExecutor}. Remaining requests are sent by {@link #flush()}.
+ * <p>
+ * Order of requests of the same entity is kept: batch is executed after previous mutations of all its entities
+ * and request of entity already present in the queue starts new batch, since requests of one batch
+ * are not executed in order. Requests of the batch which failed with transient error are sent again
+ * in a smaller batch, requests which already succeeded are never sent again. Request sent again, which fails
+ * with 409 (insert of existing entity) or 404 (delete of missing entity), succeeded before, but its response was lost.
+ * Replayed requests (see {@link ApiCallExecutor#setReplaying(boolean)}) are considered sent again. Requests of entities created
+ * in this run, which failed with 404, are sent again once the entity is expected to be readable.
+ * When executor continues on error, requests which still failed are stored to its {@link DeadLetterQueue}
+ * each on its own, so they can be retried later.
+ * <p>
+ * When batch size is 1, each request is submitted to the executor on its own.
+ */
+public class BatchQueue {
+
+	private final static org.slf4j.Logger log = LoggerFactory.getLogger(BatchQueue.class);
+
+	private final String name;
+	private final AbstractGoogleJsonClient client;
+	private final MutationExecutor executor;
+	private final ApiCallExecutor apiCalls;
+	private final ApiQuota quota;
+	private final int batchSize;
+
+	private List<Entry<?>> pending = new ArrayList<>();
+	private Set<String> pendingKeys = new HashSet<>();
+	private int batchCounter = 0;
+
+	/**
+	 * Create queue of requests for G Suite API client.
+	 *
+	 * @param name Name of the queue used in logs
+	 * @param client API client to send batches with
+	 * @param executor Executor to execute batches
+	 * @param apiCalls Executor of API calls
+	 * @param quota Quota requests count against
+	 * @param batchSize Number of requests in one batch
+	 * @param maxBatchSize Max number of requests in one batch supported by API
+	 */
+	public BatchQueue(String name, AbstractGoogleJsonClient client, MutationExecutor executor, ApiCallExecutor apiCalls, ApiQuota quota, int batchSize, int maxBatchSize) {
+		this.name = name;
+		this.client = client;
+		this.executor = executor;
+		this.apiCalls = apiCalls;
+		this.quota = quota;
+		this.batchSize = Math.max(1, Math.min(batchSize, maxBatchSize));
+	}
+
+	/**
+	 * Queue write request.
+	 *
+	 * @param entityKey Unique key of modified entity
+	 * @param request Request to execute
+	 * @param description Description of request used in error message, e.g. "inserting user x@domain"
+	 * @param onSuccess Called when request succeeds
+	 * @throws GoogleGroupsIOException When any previously executed request failed
+	 */
+	public <T> void queue(String entityKey, AbstractGoogleJsonClientRequest<T> request, String description, Runnable onSuccess) throws GoogleGroupsIOException {
+		queue(entityKey, request, description, false, onSuccess);
+	}
+
+	/**
+	 * Queue write request.
+	 *
+	 * @param entityKey Unique key of modified entity
+	 * @param request Request to execute
+	 * @param description Description of request used in error message, e.g. "inserting user x@domain"
+	 * @param created TRUE if request is for entity created in this run, which might not be readable yet
+	 * @param onSuccess Called when request succeeds
+	 * @throws GoogleGroupsIOException When any previously executed request failed
+	 */
+	public <T> void queue(String entityKey, AbstractGoogleJsonClientRequest<T> request, String description, boolean created, Runnable onSuccess) throws GoogleGroupsIOException {
+
+		if (batchSize == 1) {
+			executor.submit(entityKey, () -> {
+				try {
+					if (isDelete(request)) apiCalls.executeDelete(quota, false, request::execute);
+					else apiCalls.executeWrite(quota, created, request::execute);
+				} catch (IOException ex) {
+					throw new GoogleGroupsIOException("Something went wrong while " + description + " in Google Groups", ex);
+				}
+				onSuccess.run();
+			});
+			return;
+		}
+
+		List<Entry<?>> previous = null;
+		List<Entry<?>> batch = null;
+		synchronized (this) {
+			if (pendingKeys.contains(entityKey)) {
+				// entity can be changed only once in a batch
+				previous = takePending();
+			}
+			pending.add(new Entry<>(entityKey, request, description, created, onSuccess));
+			pendingKeys.add(entityKey);
+			if (pending.size() >= batchSize) {
+				batch = takePending();
+			}
+		}
+		if (previous != null) submit(previous);
+		if (batch != null) submit(batch);
+
+	}
+
+	/**
+	 * Send all queued requests and wait for them to be done.
+	 *
+	 * @throws GoogleGroupsIOException When any request failed
+	 */
+	public void flush() throws GoogleGroupsIOException {
+		List<Entry<?>> batch;
+		synchronized (this) {
+			batch = takePending();
+		}
+		if (!batch.isEmpty()) submit(batch);
+		executor.flush();
+	}
+
+	private static boolean isDelete(AbstractGoogleJsonClientRequest<?> request) {
+		return HttpMethods.DELETE.equals(request.getRequestMethod());
+	}
+
+	private List<Entry<?>> takePending() {
+		List<Entry<?>> batch = pending;
+		pending = new ArrayList<>();
+		pendingKeys = new HashSet<>();
+		return batch;
+	}
+
+	private void submit(List<Entry<?>> entries) throws GoogleGroupsIOException {
+
+		String batchKey;
+		synchronized (this) {
+			batchKey = "batch:" + name + ":" + (++batchCounter);
+		}
+
+		List<String> entityKeys = new ArrayList<>();
+		for (Entry<?> entry : entries) {
+			entityKeys.add(entry.entityKey);
+		}
+
+		executor.submit(batchKey, entityKeys, () -> {
+
+			// entries which failed (with failure set on them)
+			List<Entry<?>> failed = new ArrayList<>();
+			List<Entry<?>> remaining = entries;
+			try {
+				int attempt = 0;
+				int readinessAttempt = 0;
+				while (!remaining.isEmpty()) {
+
+					List<Entry<?>> current = remaining;
+					List<Entry<?>> attemptFailed = new ArrayList<>();
+					List<Entry<?>> retry = new ArrayList<>();
+					List<Entry<?>> notReadable = new ArrayList<>();
+					apiCalls.execute(quota, current.size(), () -> {
+						// whole batch might be sent again, send only requests which didn't succeed yet
+						attemptFailed.clear();
+						retry.clear();
+						notReadable.clear();
+						BatchRequest batch = client.batch(client.getRequestFactory().getInitializer());
+						for (Entry<?> entry : current) {
+							if (!entry.done) entry.queue(batch, attemptFailed, retry, notReadable);
+						}
+						if (batch.size() == 0) return null;
+						log.debug("Executing {} with {} requests.", batchKey, batch.size());
+						batch.execute();
+						return null;
+					});
+
+					failed.addAll(attemptFailed);
+					remaining = new ArrayList<>(retry);
+					remaining.addAll(notReadable);
+					if (!retry.isEmpty()) {
+						Long retryAfter = null;
+						for (Entry<?> entry : retry) {
+							if (entry.retryAfter != null) retryAfter = (retryAfter == null) ? entry.retryAfter : Math.max(retryAfter, entry.retryAfter);
+						}
+						if (!apiCalls.awaitRetry(quota, ++attempt, retryAfter, retry.size() + " requests of " + batchKey + " failed, e.g. " + retry.get(0).failure.getMessage())) {
+							failed.addAll(remaining);
+							break;
+						}
+					} else if (!notReadable.isEmpty()) {
+						if (!apiCalls.awaitReadiness(quota, ++readinessAttempt, notReadable.size() + " requests of " + batchKey + " failed, e.g. " + notReadable.get(0).failure.getMessage())) {
+							failed.addAll(notReadable);
+							break;
+						}
+					}
+
+				}
+			} catch (IOException ex) {
+				GoogleGroupsIOException failure = new GoogleGroupsIOException("Something went wrong while executing " + batchKey + " in Google Groups", ex);
+				if (executor.getDeadLetters() == null) throw failure;
+				for (Entry<?> entry : remaining) {
+					if (entry.done) continue;
+					entry.failure = failure;
+					failed.add(entry);
+				}
+			}
+
+			if (executor.getDeadLetters() != null) {
+				for (Entry<?> entry : failed) {
+					executor.getDeadLetters().add(entry.entityKey, entry.failure, entry::execute);
+				}
+				return;
+			}
+
+			if (!failed.isEmpty()) {
+				for (Entry<?> entry : failed) {
+					log.error("Request of {} failed: {}", batchKey, entry.failure.getMessage());
+				}
+				throw failed.get(0).failure;
+			}
+
+		});
+
+	}
+
+	/**
+	 * Single queued request.
+	 */
+	private class Entry<T> {
+
+		private final String entityKey;
+		private final AbstractGoogleJsonClientRequest<T> request;
+		private final String description;
+		private final boolean created;
+		private final Runnable onSuccess;
+		// last failure of the request
+		private GoogleGroupsIOException failure;
+		private Long retryAfter;
+		// request succeeded and callback was called
+		private volatile boolean done = false;
+		// request was already sent in a batch
+		private boolean sent = false;
+
+		Entry(String entityKey, AbstractGoogleJsonClientRequest<T> request, String description, boolean created, Runnable onSuccess) {
+			this.entityKey = entityKey;
+			this.request = request;
+			this.description = description;
+			this.created = created;
+			this.onSuccess = onSuccess;
+		}
+
+		/**
+		 * Execute request on its own, e.g. when it is retried from dead letter queue.
+		 */
+		void execute() throws GoogleGroupsIOException {
+			if (done) return;
+			try {
+				if (isDelete(request)) apiCalls.executeDelete(quota, sent, request::execute);
+				else apiCalls.executeWrite(quota, created, sent, request::execute);
+			} catch (IOException ex) {
+				throw new GoogleGroupsIOException("Something went wrong while " + description + " in Google Groups", ex);
+			}
+			succeeded();
+		}
+
+		void succeeded() {
+			done = true;
+			onSuccess.run();
+		}
+
+		void queue(BatchRequest batch, List<Entry<?>> failed, List<Entry<?>> retry, List<Entry<?>> notReadable) throws IOException {
+			boolean resent = sent || apiCalls.isReplaying();
+			sent = true;
+			request.queue(batch, new JsonBatchCallback<T>() {
+				@Override
+				public void onSuccess(T result, HttpHeaders responseHeaders) {
+					succeeded();
+				}
+
+				@Override
+				public void onFailure(GoogleJsonError e, HttpHeaders responseHeaders) {
+					if (resent && apiCalls.getRetryPolicy().isAlreadyDone(e, isDelete(request))) {
+						log.info("Request sent again was already done, {}: {} {}", description, e.getCode(), e.getMessage());
+						succeeded();
+						return;
+					}
+					failure = new GoogleGroupsIOException("Something went wrong while " + description + " in Google Groups: " + e.getCode() + " " + e.getMessage());
+					if (apiCalls.getRetryPolicy().isThrottled(e)) {
+						apiCalls.onThrottled(quota, e.getCode() + " " + e.getMessage());
+					}
+					if (created && apiCalls.getRetryPolicy().isNotFound(e)) {
+						notReadable.add(Entry.this);
+					} else if (apiCalls.getRetryPolicy().isRetryable(e)) {
+						retryAfter = apiCalls.getRetryPolicy().getRetryAfter(responseHeaders);
+						retry.add(Entry.this);
+					} else {
+						failed.add(Entry.this);
+					}
+				}
+			});
+		}
+
+	}
+
+}
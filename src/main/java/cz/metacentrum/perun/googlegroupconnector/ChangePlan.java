@@ -0,0 +1,335 @@
+package cz.metacentrum.perun.googlegroupconnector;
+
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.client.util.Key;
+import com.google.api.services.directory.model.Group;
+import com.google.api.services.directory.model.Member;
+import com.google.api.services.directory.model.User;
+import com.google.api.services.drive.model.Drive;
+import cz.metacentrum.perun.googlegroupconnector.exceptions.GoogleGroupsIOException;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Serialized plan of changes computed by reconciliation without performing them.
+ * <p>
+ * Plan is a file with one JSON object per line. The first line is a header with the domain and action,
+ * each following line is single change with the same data as the API call would get. Plan is written
+ * to temporary file and moved to its place once complete, so incomplete plan is never applied.
+ * <p>
+ * Created TeamDrive is stored with all its users, since ID of the drive, which permissions need,
+ * is known only once it is created.
+ */
+public class ChangePlan implements ChangeRecorder, AutoCloseable {
+
+	private final static org.slf4j.Logger log = LoggerFactory.getLogger(ChangePlan.class);
+
+	private static final JsonFactory JSON_FACTORY = GsonFactory.getDefaultInstance();
+
+	/**
+	 * Operations of the plan with the action (part of synchronization) they belong to.
+	 */
+	public enum Op {
+
+		PLAN(null),
+		INSERT_USER("users"), UPDATE_USER("users"), DELETE_USER("users"),
+		INSERT_GROUP("groups"), UPDATE_GROUP("groups"), DELETE_GROUP("groups"),
+		INSERT_MEMBER("groups"), DELETE_MEMBER("groups"),
+		CREATE_DRIVE("teamDrives"), DELETE_DRIVE("teamDrives"),
+		INSERT_PERMISSION("teamDrives"), DELETE_PERMISSION("teamDrives"),
+		// records of MutationJournal
+		JOURNAL(null), PLANNED(null), DONE(null), FINISHED(null);
+
+		private final String action;
+
+		Op(String action) {
+			this.action = action;
+		}
+
+		public String getAction() {
+			return action;
+		}
+
+	}
+
+	/**
+	 * Single line of the plan. Only fields used by the operation are set.
+	 */
+	public static class Change extends GenericJson {
+
+		@Key
+		private String op;
+		// key of changed entity (user, group, member or permission ID), domain for header
+		@Key
+		private String key;
+		// action of the plan, only for header
+		@Key
+		private String action;
+		@Key
+		private String created;
+		// hash of input files, only for journal header
+		@Key
+		private String input;
+		// sequence number of change in journal
+		@Key
+		private Long seq;
+		// number of times the journal was resumed, only for journal header
+		@Key
+		private Integer resumes;
+		@Key
+		private User user;
+		@Key
+		private Group group;
+		@Key
+		private Member member;
+		@Key
+		private Drive drive;
+		@Key
+		private List<String> users;
+
+		public Change() {
+		}
+
+		public Change(Op op, String key) {
+			this.op = op.name().toLowerCase();
+			this.key = key;
+		}
+
+		public Op getOp() {
+			return Op.valueOf(op.toUpperCase());
+		}
+
+		public String getKey() {
+			return key;
+		}
+
+		public String getAction() {
+			return action;
+		}
+
+		public void setAction(String action) {
+			this.action = action;
+		}
+
+		public String getCreated() {
+			return created;
+		}
+
+		public void setCreated(String created) {
+			this.created = created;
+		}
+
+		public String getInput() {
+			return input;
+		}
+
+		public void setInput(String input) {
+			this.input = input;
+		}
+
+		public Integer getResumes() {
+			return resumes;
+		}
+
+		public void setResumes(Integer resumes) {
+			this.resumes = resumes;
+		}
+
+		public Long getSeq() {
+			return seq;
+		}
+
+		public Change setSeq(Long seq) {
+			this.seq = seq;
+			return this;
+		}
+
+		public User getUser() {
+			return user;
+		}
+
+		public Change setUser(User user) {
+			this.user = user;
+			return this;
+		}
+
+		public Group getGroup() {
+			return group;
+		}
+
+		public Change setGroup(Group group) {
+			this.group = group;
+			return this;
+		}
+
+		public Member getMember() {
+			return member;
+		}
+
+		public Change setMember(Member member) {
+			this.member = member;
+			return this;
+		}
+
+		public Drive getDrive() {
+			return drive;
+		}
+
+		public Change setDrive(Drive drive) {
+			this.drive = drive;
+			return this;
+		}
+
+		public List<String> getUsers() {
+			return users;
+		}
+
+		public Change setUsers(List<String> users) {
+			this.users = users;
+			return this;
+		}
+
+	}
+
+	/**
+	 * Handles changes of read plan.
+	 */
+	@FunctionalInterface
+	public interface ChangeHandler {
+		void accept(Change change) throws GoogleGroupsIOException;
+	}
+
+	private final Path file;
+	private final Path tmp;
+	private final Writer writer;
+	private int size = 0;
+
+	private ChangePlan(Path file, Path tmp, Writer writer) {
+		this.file = file;
+		this.tmp = tmp;
+		this.writer = writer;
+	}
+
+	/**
+	 * Start writing of new plan.
+	 *
+	 * @param file Plan file
+	 * @param domainName Domain the plan is computed for
+	 * @param action Action the plan is computed for
+	 * @return Plan
+	 * @throws IOException When plan can't be written
+	 */
+	public static ChangePlan create(Path file, String domainName, String action) throws IOException {
+		Path parent = file.toAbsolutePath().getParent();
+		Path tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+		ChangePlan plan = new ChangePlan(file, tmp, Files.newBufferedWriter(tmp, StandardCharsets.UTF_8));
+		Change header = new Change(Op.PLAN, domainName);
+		header.setAction(action);
+		header.setCreated(Instant.now().toString());
+		plan.write(header);
+		return plan;
+	}
+
+	/**
+	 * Add change to the plan. Can be called by more threads.
+	 *
+	 * @param change Change
+	 * @throws GoogleGroupsIOException When plan can't be written
+	 */
+	@Override
+	public synchronized void add(Change change) throws GoogleGroupsIOException {
+		try {
+			write(change);
+			size++;
+		} catch (IOException ex) {
+			throw new GoogleGroupsIOException("Unable to write change to plan " + file, ex);
+		}
+	}
+
+	/**
+	 * Return number of changes in the plan.
+	 *
+	 * @return Number of changes
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Finish the plan and move it to its place.
+	 *
+	 * @throws IOException When plan can't be written
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		writer.close();
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		log.debug("Saved plan {} with {} changes.", file, size);
+	}
+
+	/**
+	 * Drop unfinished plan.
+	 */
+	public synchronized void discard() {
+		try {
+			writer.close();
+			Files.deleteIfExists(tmp);
+		} catch (IOException ex) {
+			log.warn("Unable to delete unfinished plan {}.", tmp, ex);
+		}
+	}
+
+	private void write(Change change) throws IOException {
+		writer.write(JSON_FACTORY.toString(change));
+		writer.write('\n');
+	}
+
+	/**
+	 * Read plan and pass its changes to the handler in order they were planned.
+	 *
+	 * @param file Plan file
+	 * @param domainName Domain the plan must be computed for
+	 * @param handler Handler of changes
+	 * @return Header of the plan
+	 * @throws IOException When plan can't be read or is not for the domain
+	 * @throws GoogleGroupsIOException When handler fails
+	 */
+	public static Change read(Path file, String domainName, ChangeHandler handler) throws IOException, GoogleGroupsIOException {
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line = reader.readLine();
+			Change header = (line != null) ? JSON_FACTORY.fromString(line, Change.class) : null;
+			if (header == null || header.op == null || header.getOp() != Op.PLAN) {
+				throw new IOException("File " + file + " is not a plan.");
+			}
+			if (!domainName.equals(header.getKey())) {
+				throw new IOException("Plan " + file + " was computed for domain " + header.getKey() + ", not " + domainName + ".");
+			}
+			long lineNumber = 1;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				if (line.isEmpty()) continue;
+				Change change;
+				try {
+					change = JSON_FACTORY.fromString(line, Change.class);
+					change.getOp();
+				} catch (IllegalArgumentException | NullPointerException ex) {
+					throw new IOException("Plan " + file + " contains invalid change on line " + lineNumber + ".", ex);
+				}
+				handler.accept(change);
+			}
+			return header;
+		}
+	}
+
+}
@@ -0,0 +1,21 @@
+package cz.metacentrum.perun.googlegroupconnector;
+
+import cz.metacentrum.perun.googlegroupconnector.exceptions.GoogleGroupsIOException;
+
+/**
+ * Records changes computed by reconciliation instead of performing them.
+ *
+ * @see ChangePlan
+ * @see MutationJournal
+ */
+public interface ChangeRecorder {
+
+	/**
+	 * Record change. Can be called by more threads.
+	 *
+	 * @param change Change
+	 * @throws GoogleGroupsIOException When change can't be recorded
+	 */
+	void add(ChangePlan.Change change) throws GoogleGroupsIOException;
+
+}
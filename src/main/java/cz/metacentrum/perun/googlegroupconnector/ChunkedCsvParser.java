@@ -0,0 +1,267 @@
+package cz.metacentrum.perun.googlegroupconnector;
+
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Parses large separated input files in parallel.
+ * <p>
+ * File is memory-mapped and split to chunks aligned to line ends. Chunks are parsed and mapped to entities
+ * in parallel, while entities are passed to the handler in the order of the file, so the result is same
+ * as when the file is read row by row. Only a bounded number of parsed chunks is kept in memory.
+ * When mapping of a row fails, rows before it are still handled and the failure is thrown afterwards.
+ * <p>
+ * Only files without quote and escape characters can be parsed this way, since then each line is
+ * exactly one row and fields are separated by each separator. Otherwise nothing is parsed
+ * and caller must use full CSV parser.
+ */
+public class ChunkedCsvParser {
+
+	private final static org.slf4j.Logger log = LoggerFactory.getLogger(ChunkedCsvParser.class);
+
+	// quote and escape characters of CSV parser
+	private static final byte QUOTE = '"';
+	private static final byte ESCAPE = '\\';
+	private static final int CHUNK_SIZE = 8 * 1024 * 1024;
+
+	/**
+	 * Maps single row of file to entity.
+	 *
+	 * @param <T> Type of entity
+	 */
+	@FunctionalInterface
+	public interface RowMapper<T> {
+
+		/**
+		 * Map row to entity. Must not depend on other rows, since rows are mapped in parallel.
+		 *
+		 * @param line Fields of the row
+		 * @param lineNumber Number of the line (starting from 1)
+		 * @return Entity or NULL if row is skipped
+		 */
+		T map(String[] line, long lineNumber);
+
+	}
+
+	/**
+	 * Handles entities in order of the file.
+	 *
+	 * @param <T> Type of entity
+	 * @param <E> Exception thrown by handler
+	 */
+	@FunctionalInterface
+	public interface RowHandler<T, E extends Exception> {
+		void accept(T row) throws E;
+	}
+
+	private final int parallelism;
+	private final char separator;
+	private final Charset charset;
+
+	/**
+	 * Create parser.
+	 *
+	 * @param parallelism Number of threads parsing chunks
+	 * @param separator Separator of fields
+	 * @param charset Charset of the file
+	 */
+	public ChunkedCsvParser(int parallelism, char separator, Charset charset) {
+		this.parallelism = Math.max(1, parallelism);
+		this.separator = separator;
+		this.charset = charset;
+	}
+
+	/**
+	 * Parse file and pass entities to the handler in order of the file.
+	 *
+	 * @param file File to parse
+	 * @param mapper Maps rows to entities (called in parallel)
+	 * @param handler Handles entities (called by calling thread)
+	 * @return Number of rows or -1 if file can't be parsed this way and nothing was parsed
+	 * @throws IOException When file can't be read
+	 * @throws E When handler fails
+	 * @throws RuntimeException When mapper fails, rows before the failed one are handled
+	 */
+	public <T, E extends Exception> long parse(Path file, RowMapper<T> mapper, RowHandler<T, E> handler) throws IOException, E {
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+
+			long size = channel.size();
+			int chunks = (int) Math.max(1, (size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+
+			// align chunks to line ends, count their lines and check they contain no quotes
+			// (sequential scan of bytes, threads are started only when file can be parsed in chunks)
+			long[] starts = new long[chunks + 1];
+			for (int i = 0; i < chunks; i++) {
+				starts[i] = lineStart(channel, size, (long) i * CHUNK_SIZE);
+			}
+			starts[chunks] = size;
+			long[] firstLines = new long[chunks + 1];
+			firstLines[0] = 1;
+			for (int i = 0; i < chunks; i++) {
+				if (starts[i + 1] - starts[i] > Integer.MAX_VALUE) return -1;
+				long lines = countLines(channel, starts[i], starts[i + 1]);
+				if (lines < 0) {
+					log.debug("File {} contains quotes or escapes, it can't be parsed in chunks.", file);
+					return -1;
+				}
+				firstLines[i + 1] = firstLines[i] + lines;
+			}
+			log.debug("Parsing file {} in {} chunks by {} threads.", file, chunks, parallelism);
+
+			AtomicInteger threadCounter = new AtomicInteger();
+			ExecutorService pool = Executors.newFixedThreadPool(parallelism, runnable -> {
+				Thread thread = new Thread(runnable, "parser-" + threadCounter.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+			try {
+				// parse chunks in parallel, handle them in order, keep only limited number of chunks in memory
+				Deque<Future<Chunk<T>>> window = new ArrayDeque<>();
+				int next = 0;
+				while (next < chunks || !window.isEmpty()) {
+					while (next < chunks && window.size() < parallelism * 2) {
+						long start = starts[next];
+						long end = starts[next + 1];
+						long firstLine = firstLines[next];
+						window.add(pool.submit(() -> parseChunk(channel, start, end, firstLine, mapper)));
+						next++;
+					}
+					Chunk<T> chunk = get(window.poll());
+					for (T row : chunk.rows) {
+						handler.accept(row);
+					}
+					// same as row by row parsing, rows after the failed one are not handled
+					if (chunk.failure != null) throw chunk.failure;
+				}
+				return firstLines[chunks] - 1;
+			} finally {
+				pool.shutdownNow();
+			}
+
+		}
+
+	}
+
+	/**
+	 * Return position of the first line starting at or after tentative position.
+	 */
+	private static long lineStart(FileChannel channel, long size, long tentativeStart) throws IOException {
+		if (tentativeStart == 0) return 0;
+		long position = tentativeStart - 1;
+		while (position < size) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(64 * 1024, size - position));
+			for (int i = 0; i < buffer.limit(); i++) {
+				if (buffer.get(i) == '\n') return position + i + 1;
+			}
+			position += buffer.limit();
+		}
+		return size;
+	}
+
+	/**
+	 * Return number of lines in range of file or -1 if it contains quote or escape character.
+	 */
+	private static long countLines(FileChannel channel, long start, long end) throws IOException {
+		if (start == end) return 0;
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+		long lines = 0;
+		int length = buffer.limit();
+		for (int i = 0; i < length; i++) {
+			byte b = buffer.get(i);
+			if (b == QUOTE || b == ESCAPE) return -1;
+			if (b == '\n' || (b == '\r' && (i + 1 == length || buffer.get(i + 1) != '\n'))) lines++;
+		}
+		byte last = buffer.get(length - 1);
+		// last line of file without line end
+		if (last != '\n' && last != '\r') lines++;
+		return lines;
+	}
+
+	/**
+	 * Parse lines in range of file and map them to entities. Parsing stops on the first row, which fails to be mapped.
+	 */
+	private <T> Chunk<T> parseChunk(FileChannel channel, long start, long end, long firstLine, RowMapper<T> mapper) throws IOException {
+		Chunk<T> result = new Chunk<>();
+		if (start == end) return result;
+		String text = charset.decode(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start)).toString();
+		long lineNumber = firstLine;
+		int lineStart = 0;
+		int length = text.length();
+		while (lineStart < length) {
+			int lineEnd = lineStart;
+			while (lineEnd < length && text.charAt(lineEnd) != '\n' && text.charAt(lineEnd) != '\r') {
+				lineEnd++;
+			}
+			try {
+				T row = mapper.map(split(text, lineStart, lineEnd), lineNumber++);
+				if (row != null) result.rows.add(row);
+			} catch (RuntimeException ex) {
+				result.failure = ex;
+				return result;
+			}
+			// skip line end ("\n", "\r" or "\r\n")
+			if (lineEnd < length && text.charAt(lineEnd) == '\r') {
+				lineEnd++;
+				if (lineEnd < length && text.charAt(lineEnd) == '\n') lineEnd++;
+			} else if (lineEnd < length) {
+				lineEnd++;
+			}
+			lineStart = lineEnd;
+		}
+		return result;
+	}
+
+	/**
+	 * Split line to fields by separator. Empty trailing fields are kept.
+	 */
+	private String[] split(String text, int start, int end) {
+		List<String> fields = new ArrayList<>();
+		int fieldStart = start;
+		for (int i = start; i < end; i++) {
+			if (text.charAt(i) == separator) {
+				fields.add(text.substring(fieldStart, i));
+				fieldStart = i + 1;
+			}
+		}
+		fields.add(text.substring(fieldStart, end));
+		return fields.toArray(new String[0]);
+	}
+
+	/**
+	 * Entities of parsed chunk and failure of the row, which stopped parsing of the chunk.
+	 */
+	private static class Chunk<T> {
+		private final List<T> rows = new ArrayList<>();
+		private RuntimeException failure;
+	}
+
+	private static <V> V get(Future<V> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while parsing file", ex);
+		} catch (ExecutionException ex) {
+			if (ex.getCause() instanceof IOException) throw (IOException) ex.getCause();
+			if (ex.getCause() instanceof RuntimeException) throw (RuntimeException) ex.getCause();
+			throw new IOException("Parsing of file failed", ex.getCause());
+		}
+	}
+
+}
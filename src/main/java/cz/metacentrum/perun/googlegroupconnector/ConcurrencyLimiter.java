@@ -0,0 +1,143 @@
+package cz.metacentrum.perun.googlegroupconnector;
+
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adaptive limit of API calls in flight (AIMD - additive increase, multiplicative decrease).
+ * <p>
+ * While calls succeed with healthy latency, limit grows by one each time the whole limit of calls completes.
+ * When call is throttled (429 or 403 rate limit), limit is cut in half. When latency grows well above the lowest
+ * observed latency or call fails with other error, limit is lowered slightly. Latency of whole call is compared
+ * and batch calls have their own lowest latency, since a batch takes much longer than a single request. Limit is lowered at most once
+ * per second, so a burst of failures of calls sent at once counts as a single signal.
+ * <p>
+ * Each change of the limit is logged with its reason.
+ */
+public class ConcurrencyLimiter {
+
+	private final static org.slf4j.Logger log = LoggerFactory.getLogger(ConcurrencyLimiter.class);
+
+	private static final double THROTTLED_DECREASE = 0.5;
+	private static final double DEGRADED_DECREASE = 0.9;
+	private static final long DECREASE_COOLDOWN_NANOS = TimeUnit.SECONDS.toNanos(1);
+	// latency is unhealthy when it is this many times the lowest observed latency
+	private static final double LATENCY_TOLERANCE = 2.0;
+	// ...and also higher than lowest latency by this margin
+	private static final long LATENCY_MARGIN_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private final String name;
+	private final int minLimit;
+	private final int maxLimit;
+	private double limit;
+	private int inFlight = 0;
+	// lowest latency of single requests and of batches
+	private double minLatency = Double.MAX_VALUE;
+	private double minBatchLatency = Double.MAX_VALUE;
+	private long lastDecrease = System.nanoTime() - DECREASE_COOLDOWN_NANOS;
+
+	/**
+	 * Create limiter.
+	 *
+	 * @param name Name of limited calls used in log
+	 * @param minLimit Lowest limit
+	 * @param maxLimit Highest limit
+	 * @param initialLimit Limit to start with
+	 */
+	public ConcurrencyLimiter(String name, int minLimit, int maxLimit, int initialLimit) {
+		this.name = name;
+		this.minLimit = Math.max(1, minLimit);
+		this.maxLimit = Math.max(this.minLimit, maxLimit);
+		this.limit = Math.max(this.minLimit, Math.min(this.maxLimit, initialLimit));
+	}
+
+	/**
+	 * Wait until number of calls in flight is below the limit and start the call.
+	 *
+	 * @throws InterruptedException When waiting is interrupted
+	 */
+	public synchronized void acquire() throws InterruptedException {
+		while (inFlight >= (int) limit) {
+			wait();
+		}
+		inFlight++;
+	}
+
+	/**
+	 * Finish the call. Must be called exactly once for each {@link #acquire()}.
+	 */
+	public synchronized void release() {
+		inFlight--;
+		notifyAll();
+	}
+
+	/**
+	 * Record successful call.
+	 *
+	 * @param latencyNanos Duration of the whole call
+	 * @param requests Number of requests sent by the call (size of batch or 1)
+	 */
+	public synchronized void onSuccess(long latencyNanos, int requests) {
+		double latency = latencyNanos;
+		// lowest latency follows the latency up very slowly, so it adapts to long-term changes
+		double lowest;
+		if (requests > 1) {
+			minBatchLatency = (latency < minBatchLatency) ? latency : minBatchLatency + (latency - minBatchLatency) / 1000;
+			lowest = minBatchLatency;
+		} else {
+			minLatency = (latency < minLatency) ? latency : minLatency + (latency - minLatency) / 1000;
+			lowest = minLatency;
+		}
+		if (latency > lowest * LATENCY_TOLERANCE && latency > lowest + LATENCY_MARGIN_NANOS) {
+			decrease(DEGRADED_DECREASE, ((requests > 1) ? "batch latency " : "latency ") + TimeUnit.NANOSECONDS.toMillis((long) latency) + " ms is over "
+					+ TimeUnit.NANOSECONDS.toMillis((long) (lowest * LATENCY_TOLERANCE)) + " ms");
+		} else if (limit < maxLimit) {
+			int previous = (int) limit;
+			limit = Math.min(maxLimit, limit + 1 / limit);
+			if ((int) limit > previous) {
+				log.info("Concurrency limit of {} calls raised to {}: healthy latency {} ms.", name, (int) limit, TimeUnit.NANOSECONDS.toMillis((long) latency));
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Record call throttled by G Suite.
+	 *
+	 * @param reason Reason of throttling used in log
+	 */
+	public synchronized void onThrottled(String reason) {
+		decrease(THROTTLED_DECREASE, "throttled, " + reason);
+	}
+
+	/**
+	 * Record call failed with other error.
+	 *
+	 * @param reason Reason of failure used in log
+	 */
+	public synchronized void onFailure(String reason) {
+		decrease(DEGRADED_DECREASE, "failed, " + reason);
+	}
+
+	/**
+	 * Return current limit.
+	 *
+	 * @return Max number of calls in flight
+	 */
+	public synchronized int getLimit() {
+		return (int) limit;
+	}
+
+	private void decrease(double factor, String reason) {
+		long now = System.nanoTime();
+		if (now - lastDecrease < DECREASE_COOLDOWN_NANOS) return;
+		lastDecrease = now;
+		int previous = (int) limit;
+		limit = Math.max(minLimit, limit * factor);
+		if ((int) limit != previous) {
+			log.info("Concurrency limit of {} calls cut to {}: {}", name, (int) limit, reason);
+		}
+	}
+
+}
@@ -0,0 +1,283 @@
+package cz.metacentrum.perun.googlegroupconnector;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Long-running connector, which accepts jobs over HTTP on loopback interface.
+ * <p>
+ * Connection to each domain (HTTP connections and access token) is kept between jobs, so subsequent
+ * propagations don't pay for JVM start, loading of the key, TLS handshakes and token exchange.
+ * Membership cache and drive state saved by the last job of the domain are kept in memory as well, see
+ * {@link GoogleGroupsConnectionImpl#getMembershipCache(Path)}. Users, groups and drives of the domain
+ * are still listed by each job, since they might have been changed outside of the connector.
+ * Connection is created again when properties file of the domain changes.
+ * <p>
+ * Job is submitted as POST /jobs with parameters "domain", "action" and "file" (same as arguments of CLI),
+ * either in query string or form encoded body. Files of "all" action are separated by comma. Response contains the same summary the CLI prints
+ * and its exit status in X-Exit-Status header. Optional parameter "plan" makes the job only write its changes to the plan file,
+ * which is later performed by action "apply" with the plan as "file". Jobs of the same domain are processed one by one,
+ * jobs of different domains in parallel. GET /health returns "OK".
+ * <p>
+ * Daemon is configured by /etc/perun/google_groups-daemon.properties. Each job must send shared secret
+ * read from "secret_file" (readable only by the user running the daemon) as "Authorization: Bearer" header.
+ * Input files and plans of jobs must be located in one of "job_dirs".
+ */
+public class ConnectorDaemon {
+
+	private final static org.slf4j.Logger log = LoggerFactory.getLogger(ConnectorDaemon.class);
+
+	public static final int DEFAULT_PORT = 8765;
+	public static final String CONFIG_FILE = "/etc/perun/google_groups-daemon.properties";
+
+	private static final Set<PosixFilePermission> OWNER_ONLY = EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE);
+
+	private final HttpServer server;
+	private final byte[] secret;
+	private final List<Path> jobDirs = new ArrayList<>();
+
+	// domain name -> connection of the last job and its lock
+	private final Map<String, DomainConnection> connections = new ConcurrentHashMap<>();
+
+	/**
+	 * Create daemon listening on loopback interface.
+	 *
+	 * @param port Port to listen on
+	 * @param properties Daemon properties, see {@link #loadProperties(String)}
+	 * @throws IOException When port can't be bound, secret can't be read or is readable by others
+	 */
+	public ConnectorDaemon(int port, Properties properties) throws IOException {
+		String secretFile = properties.getProperty("secret_file");
+		String dirs = properties.getProperty("job_dirs");
+		if (secretFile == null || secretFile.isEmpty() || dirs == null || dirs.isEmpty()) {
+			throw new IllegalArgumentException("Properties secret_file and job_dirs are required in " + CONFIG_FILE + ".");
+		}
+		this.secret = readSecret(Paths.get(secretFile));
+		for (String dir : dirs.split(",")) {
+			if (!dir.trim().isEmpty()) jobDirs.add(Paths.get(dir.trim()).toRealPath());
+		}
+		this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/jobs", this::handleJob);
+		server.createContext("/health", exchange -> respond(exchange, 200, "OK\n", null));
+		AtomicInteger counter = new AtomicInteger();
+		server.setExecutor(Executors.newCachedThreadPool(runnable -> new Thread(runnable, "daemon-" + counter.incrementAndGet())));
+	}
+
+	/**
+	 * Start accepting jobs. Daemon runs until JVM is stopped.
+	 */
+	public void start() {
+		server.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> server.stop(0)));
+		log.info("Daemon is listening on {}.", server.getAddress());
+	}
+
+	/**
+	 * Load daemon properties from file.
+	 *
+	 * @param configFile Path to properties file
+	 * @return Daemon properties
+	 * @throws IOException When file can't be read
+	 */
+	public static Properties loadProperties(String configFile) throws IOException {
+		Properties properties = new Properties();
+		try (InputStream input = Files.newInputStream(Paths.get(configFile))) {
+			properties.load(input);
+		}
+		return properties;
+	}
+
+	/**
+	 * Read shared secret from file, which must be owned by the user running the daemon and readable only by it.
+	 */
+	private static byte[] readSecret(Path secretFile) throws IOException {
+		Set<PosixFilePermission> permissions;
+		try {
+			permissions = Files.getPosixFilePermissions(secretFile);
+		} catch (UnsupportedOperationException ex) {
+			throw new IOException("Permissions of secret file " + secretFile + " can't be checked.", ex);
+		}
+		if (!OWNER_ONLY.containsAll(permissions) || !Files.getOwner(secretFile).getName().equals(System.getProperty("user.name"))) {
+			throw new IOException("Secret file " + secretFile + " must be owned by the user running the daemon and readable only by it.");
+		}
+		String value = Files.readString(secretFile, StandardCharsets.UTF_8).trim();
+		if (value.isEmpty()) throw new IOException("Secret file " + secretFile + " is empty.");
+		return value.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private void handleJob(HttpExchange exchange) throws IOException {
+
+		if (!"POST".equals(exchange.getRequestMethod())) {
+			respond(exchange, 405, "Use POST to submit a job.\n", null);
+			return;
+		}
+
+		if (!isAuthorized(exchange.getRequestHeaders().getFirst("Authorization"))) {
+			log.warn("Rejected job without valid secret from {}.", exchange.getRemoteAddress());
+			exchange.getRequestBody().readAllBytes();
+			respond(exchange, 401, "Valid secret is required.\n", null);
+			return;
+		}
+
+		Map<String, String> params = parseParams(exchange.getRequestURI().getRawQuery());
+		params.putAll(parseParams(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8)));
+		String domain = params.get("domain");
+		String action = params.get("action");
+		String file = params.get("file");
+		String plan = params.get("plan");
+		// domain is part of path to properties file
+		if (domain == null || !domain.matches("[A-Za-z0-9.-]+") || action == null || file == null || file.isEmpty()) {
+			respond(exchange, 400, "Parameters domain, action and file are required.\n", null);
+			return;
+		}
+		List<File> inputFiles = new ArrayList<>();
+		for (File inputFile : GoogleGroupsServiceImpl.getInputFiles(action, file)) {
+			inputFiles.add(resolve(inputFile.getPath()));
+		}
+		File planFile = (plan != null && !plan.isEmpty()) ? resolve(plan) : null;
+		if (inputFiles.contains(null) || (plan != null && !plan.isEmpty() && planFile == null)) {
+			respond(exchange, 403, "Files must be located in " + jobDirs + ".\n", null);
+			return;
+		}
+
+		log.info("Starting job {} of {} with {}.", action, domain, file);
+		long start = System.currentTimeMillis();
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		int status;
+		DomainConnection domainConnection = connections.computeIfAbsent(domain, DomainConnection::new);
+		MDC.put(MultiDomainRunner.MDC_DOMAIN, "[" + domain + "] ");
+		try (PrintStream out = new PrintStream(output, true, StandardCharsets.UTF_8)) {
+			// jobs of the same domain must not overlap
+			synchronized (domainConnection) {
+				GoogleGroupsConnectionImpl connection = null;
+				try {
+					connection = domainConnection.get();
+				} catch (Exception ex) {
+					out.println(ex.getClass().getSimpleName() + ": " + ex.getMessage());
+				}
+				status = (connection != null) ? GoogleGroupsServiceImpl.runJob(connection, action, inputFiles, planFile, out) : 1;
+			}
+		} finally {
+			MDC.remove(MultiDomainRunner.MDC_DOMAIN);
+		}
+		log.info("Job {} of {} ended with status {} in {} ms.", action, domain, status, System.currentTimeMillis() - start);
+		respond(exchange, 200, output.toString(StandardCharsets.UTF_8), status);
+
+	}
+
+	boolean isAuthorized(String header) {
+		if (header == null || !header.startsWith("Bearer ")) return false;
+		// constant time comparison, so the secret can't be guessed by timing
+		return MessageDigest.isEqual(secret, header.substring("Bearer ".length()).trim().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Resolve path of job file with symbolic links of its directory and return it only if it is located in job directories.
+	 *
+	 * @param path Path of input file or plan (which might not exist yet)
+	 * @return Resolved file or NULL if it is located elsewhere
+	 */
+	File resolve(String path) {
+		try {
+			Path absolute = Paths.get(path).toAbsolutePath().normalize();
+			if (absolute.getParent() == null || absolute.getFileName() == null) return null;
+			Path resolved = absolute.getParent().toRealPath().resolve(absolute.getFileName());
+			if (Files.isSymbolicLink(resolved)) resolved = resolved.toRealPath();
+			for (Path dir : jobDirs) {
+				if (resolved.startsWith(dir) && !resolved.equals(dir)) return resolved.toFile();
+			}
+		} catch (IOException | RuntimeException ex) {
+			log.debug("Unable to resolve job file {}: {}", path, ex.getMessage());
+		}
+		return null;
+	}
+
+	private static Map<String, String> parseParams(String encoded) {
+		Map<String, String> params = new HashMap<>();
+		if (encoded == null || encoded.isEmpty()) return params;
+		for (String pair : encoded.split("&")) {
+			int index = pair.indexOf('=');
+			if (index > 0) {
+				params.put(URLDecoder.decode(pair.substring(0, index), StandardCharsets.UTF_8),
+						URLDecoder.decode(pair.substring(index + 1), StandardCharsets.UTF_8));
+			}
+		}
+		return params;
+	}
+
+	private static void respond(HttpExchange exchange, int code, String body, Integer exitStatus) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+		if (exitStatus != null) exchange.getResponseHeaders().set("X-Exit-Status", String.valueOf(exitStatus));
+		exchange.sendResponseHeaders(code, bytes.length);
+		try (OutputStream os = exchange.getResponseBody()) {
+			os.write(bytes);
+		}
+	}
+
+	/**
+	 * Connection to single domain reused by its jobs.
+	 */
+	private static class DomainConnection {
+
+		private final String domainName;
+		private long propertiesModified;
+		private GoogleGroupsConnectionImpl connection;
+
+		DomainConnection(String domainName) {
+			this.domainName = domainName;
+		}
+
+		/**
+		 * Return connection to the domain, reuse connection of previous job if properties didn't change.
+		 */
+		GoogleGroupsConnectionImpl get() throws Exception {
+			String domainFile = GoogleGroupsServiceImpl.getDomainFile(domainName);
+			long modified = new File(domainFile).lastModified();
+			if (connection == null || modified != propertiesModified) {
+				log.info("Connecting to domain {}.", domainName);
+				if (connection != null) {
+					try {
+						connection.close();
+					} catch (IOException ex) {
+						log.warn("Closing of connection to domain {} failed.", domainName, ex);
+					}
+					connection = null;
+				}
+				connection = new GoogleGroupsConnectionImpl(domainFile);
+				propertiesModified = modified;
+			}
+			return connection;
+		}
+
+	}
+
+}
@@ -0,0 +1,79 @@
+package cz.metacentrum.perun.googlegroupconnector;
+
+import com.google.api.client.auth.oauth2.Credential;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds single Credential shared by all G Suite services, so private key is loaded
+ * and access token is obtained only once.
+ * <p>
+ * Access token is refreshed in background some time before it expires, so requests
+ * don't have to wait for the token refresh. If background refresh fails, it is retried
+ * and Credential still refreshes expired token on its own when request is sent.
+ */
+public class CredentialCache implements AutoCloseable {
+
+	private final static org.slf4j.Logger log = LoggerFactory.getLogger(CredentialCache.class);
+
+	// refresh token this long before it expires
+	private static final long REFRESH_MARGIN_SECONDS = 300;
+	// delay of next attempt when refresh fails
+	private static final long RETRY_DELAY_SECONDS = 30;
+
+	private final Credential credential;
+	private final ScheduledExecutorService scheduler;
+
+	/**
+	 * Create cache for credential and obtain its first access token.
+	 *
+	 * @param credential Credential to share
+	 */
+	public CredentialCache(Credential credential) {
+		this.credential = credential;
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "token-refresh");
+			thread.setDaemon(true);
+			return thread;
+		});
+		refresh();
+	}
+
+	/**
+	 * Return shared credential.
+	 *
+	 * @return Credential with valid access token
+	 */
+	public Credential getCredential() {
+		return credential;
+	}
+
+	@Override
+	public void close() {
+		scheduler.shutdownNow();
+	}
+
+	/**
+	 * Refresh access token and schedule next refresh before it expires.
+	 */
+	private void refresh() {
+		long delay = RETRY_DELAY_SECONDS;
+		try {
+			if (credential.refreshToken()) {
+				Long expiresIn = credential.getExpiresInSeconds();
+				log.debug("Access token refreshed, expires in {} seconds.", expiresIn);
+				if (expiresIn != null) delay = Math.max(RETRY_DELAY_SECONDS, expiresIn - REFRESH_MARGIN_SECONDS);
+			} else {
+				log.warn("Access token was not refreshed, next attempt in {} seconds.", delay);
+			}
+		} catch (IOException | RuntimeException ex) {
+			log.warn("Unable to refresh access token, next attempt in {} seconds.", delay, ex);
+		}
+		if (!scheduler.isShutdown()) scheduler.schedule(this::refresh, delay, TimeUnit.SECONDS);
+	}
+
+}
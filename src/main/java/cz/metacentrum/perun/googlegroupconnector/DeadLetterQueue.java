@@ -0,0 +1,106 @@
+package cz.metacentrum.perun.googlegroupconnector;
+
+import cz.metacentrum.perun.googlegroupconnector.exceptions.GoogleGroupsIOException;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects failed work, when connector is configured to continue on error.
+ * <p>
+ * Each failure is stored with key of the entity it belongs to and the work, which can be retried.
+ * Independent work continues and collected failures are retried once more at the end of the run.
+ * Failures which remain are reported and make the run end with non-zero exit code.
+ */
+public class DeadLetterQueue {
+
+	private final static org.slf4j.Logger log = LoggerFactory.getLogger(DeadLetterQueue.class);
+
+	private final List<Entry> entries = new ArrayList<>();
+
+	/**
+	 * Store failed work.
+	 *
+	 * @param entityKey Unique key of the entity
+	 * @param failure Failure of the work
+	 * @param retry Work to retry
+	 */
+	public synchronized void add(String entityKey, GoogleGroupsIOException failure, MutationExecutor.Mutation retry) {
+		log.error("Processing of {} failed, continuing with other work: {}", entityKey, describe(failure));
+		entries.add(new Entry(entityKey, failure, retry));
+	}
+
+	/**
+	 * Return TRUE if there are no failures.
+	 *
+	 * @return TRUE = no failures / FALSE = some work failed
+	 */
+	public synchronized boolean isEmpty() {
+		return entries.isEmpty();
+	}
+
+	/**
+	 * Return stored failures.
+	 *
+	 * @return Copy of stored failures in order they happened
+	 */
+	public synchronized List<Entry> getEntries() {
+		return new ArrayList<>(entries);
+	}
+
+	/**
+	 * Remove and return all stored failures.
+	 *
+	 * @return Stored failures in order they happened
+	 */
+	public synchronized List<Entry> drain() {
+		List<Entry> result = new ArrayList<>(entries);
+		entries.clear();
+		return result;
+	}
+
+	/**
+	 * Return failure message including its cause (first line only).
+	 *
+	 * @param failure Failure
+	 * @return Message
+	 */
+	public static String describe(Throwable failure) {
+		String message = failure.getMessage();
+		if (failure.getCause() != null && failure.getCause().getMessage() != null) {
+			message += ": " + failure.getCause().getMessage().lines().findFirst().orElse("");
+		}
+		return message;
+	}
+
+	/**
+	 * Single failed work.
+	 */
+	public static class Entry {
+
+		private final String entityKey;
+		private final GoogleGroupsIOException failure;
+		private final MutationExecutor.Mutation retry;
+
+		Entry(String entityKey, GoogleGroupsIOException failure, MutationExecutor.Mutation retry) {
+			this.entityKey = entityKey;
+			this.failure = failure;
+			this.retry = retry;
+		}
+
+		public String getEntityKey() {
+			return entityKey;
+		}
+
+		public GoogleGroupsIOException getFailure() {
+			return failure;
+		}
+
+		public MutationExecutor.Mutation getRetry() {
+			return retry;
+		}
+
+	}
+
+}
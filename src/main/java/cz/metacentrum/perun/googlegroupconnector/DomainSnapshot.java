@@ -0,0 +1,108 @@
+package cz.metacentrum.perun.googlegroupconnector;
+
+import com.google.api.services.directory.model.Group;
+import com.google.api.services.directory.model.User;
+import com.google.api.services.drive.model.Drive;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Users, groups and TeamDrives of the domain listed once and shared by reconciliation of all of them.
+ * <p>
+ * Snapshot also knows emails (including aliases) of users and groups, which exist in the domain,
+ * so members of groups can be checked without extra lookups. Emails of users and groups created
+ * during the run are added and emails of deleted ones are removed, when they are submitted.
+ */
+public class DomainSnapshot {
+
+	private final List<User> users;
+	private final List<Group> groups;
+	private final List<Drive> drives;
+	private final String driveStartPageToken;
+	private final Set<String> knownEmails = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Create snapshot of the domain.
+	 *
+	 * @param users Users of the domain
+	 * @param groups Groups of the domain
+	 * @param drives TeamDrives of the domain
+	 * @param driveStartPageToken Start page token of Drive changes taken before drives were listed or NULL
+	 */
+	public DomainSnapshot(List<User> users, List<Group> groups, List<Drive> drives, String driveStartPageToken) {
+		this.users = users;
+		this.groups = groups;
+		this.drives = drives;
+		this.driveStartPageToken = driveStartPageToken;
+		for (User user : users) {
+			addEmail(user.getPrimaryEmail());
+			if (user.getAliases() != null) user.getAliases().forEach(this::addEmail);
+		}
+		for (Group group : groups) {
+			addEmail(group.getEmail());
+			if (group.getAliases() != null) group.getAliases().forEach(this::addEmail);
+		}
+	}
+
+	public List<User> getUsers() {
+		return users;
+	}
+
+	public List<Group> getGroups() {
+		return groups;
+	}
+
+	public List<Drive> getDrives() {
+		return drives;
+	}
+
+	public String getDriveStartPageToken() {
+		return driveStartPageToken;
+	}
+
+	/**
+	 * Remember email of user or group created during the run.
+	 *
+	 * @param email Email of user or group
+	 */
+	public void addEmail(String email) {
+		if (email != null) knownEmails.add(UsersDiff.normalize(email));
+	}
+
+	/**
+	 * Forget emails (including aliases) of user deleted during the run.
+	 *
+	 * @param user Deleted user
+	 */
+	public void removeUser(User user) {
+		removeEmail(user.getPrimaryEmail());
+		if (user.getAliases() != null) user.getAliases().forEach(this::removeEmail);
+	}
+
+	/**
+	 * Forget emails (including aliases) of group deleted during the run.
+	 *
+	 * @param group Deleted group
+	 */
+	public void removeGroup(Group group) {
+		removeEmail(group.getEmail());
+		if (group.getAliases() != null) group.getAliases().forEach(this::removeEmail);
+	}
+
+	private void removeEmail(String email) {
+		if (email != null) knownEmails.remove(UsersDiff.normalize(email));
+	}
+
+	/**
+	 * Return TRUE if user or group with the email exists in the domain.
+	 *
+	 * @param email Email of user or group
+	 * @return TRUE = exists / FALSE = not known
+	 */
+	public boolean isKnownEmail(String email) {
+		return email != null && knownEmails.contains(UsersDiff.normalize(email));
+	}
+
+}
@@ -0,0 +1,180 @@
+package cz.metacentrum.perun.googlegroupconnector;
+
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent local state of shared drives used for incremental processing of drive permissions.
+ * <p>
+ * It stores start page token of Drive changes seen by the service account user at the beginning
+ * of the last run and for each drive ID hash of users from Perun, whose permissions were applied.
+ * When input hash is unchanged and there is no change of the drive since the stored token,
+ * listing of drive permissions can be skipped.
+ * <p>
+ * State is stored as properties file with "startPageToken=token" and "drive.ID=hash" entries.
+ */
+public class DriveState {
+
+	private final static org.slf4j.Logger log = LoggerFactory.getLogger(DriveState.class);
+
+	private static final String START_PAGE_TOKEN = "startPageToken";
+	private static final String DRIVE_PREFIX = "drive.";
+
+	private final Path file;
+	// modification time of the file when it was loaded or saved, NULL if it didn't exist
+	private FileTime fileModified;
+	// changed since it was loaded or saved
+	private volatile boolean unsaved = false;
+	private String startPageToken;
+	private final Map<String, String> drives = new ConcurrentHashMap<>();
+
+	private DriveState(Path file) {
+		this.file = file;
+	}
+
+	/**
+	 * Load state from file. Missing or unreadable file results in empty state.
+	 *
+	 * @param file Path to state file
+	 * @return Loaded state
+	 */
+	public static DriveState load(Path file) {
+		DriveState state = new DriveState(file);
+		// taken before reading, so file replaced meanwhile is loaded again next time
+		state.fileModified = getModifiedTime(file);
+		if (Files.exists(file)) {
+			try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+				Properties properties = new Properties();
+				properties.load(reader);
+				for (String key : properties.stringPropertyNames()) {
+					if (key.startsWith(DRIVE_PREFIX)) {
+						state.drives.put(key.substring(DRIVE_PREFIX.length()), properties.getProperty(key));
+					}
+				}
+				state.startPageToken = properties.getProperty(START_PAGE_TOKEN);
+				log.debug("Loaded drive state {} with {} drives.", file, state.drives.size());
+			} catch (IOException | IllegalArgumentException ex) {
+				log.warn("Drive state {} can't be read, all drives will be fully reconciled.", file, ex);
+				state.drives.clear();
+				state.startPageToken = null;
+			}
+		}
+		return state;
+	}
+
+	/**
+	 * Return start page token of Drive changes stored by the last run.
+	 *
+	 * @return Start page token or NULL if not known
+	 */
+	public String getStartPageToken() {
+		return startPageToken;
+	}
+
+	/**
+	 * Set start page token of Drive changes to be used by the next run.
+	 *
+	 * @param startPageToken Start page token
+	 */
+	public void setStartPageToken(String startPageToken) {
+		unsaved = true;
+		this.startPageToken = startPageToken;
+	}
+
+	/**
+	 * Return TRUE if users of drive from Perun are same as when permissions were last applied.
+	 *
+	 * @param driveId ID of drive
+	 * @param usersHash Hash of users from Perun
+	 * @return TRUE = users are unchanged / FALSE = permissions must be reconciled
+	 */
+	public boolean isUnchanged(String driveId, String usersHash) {
+		return Objects.equals(drives.get(driveId), usersHash);
+	}
+
+	/**
+	 * Store applied users of drive.
+	 *
+	 * @param driveId ID of drive
+	 * @param usersHash Hash of applied users from Perun
+	 */
+	public void put(String driveId, String usersHash) {
+		unsaved = true;
+		drives.put(driveId, usersHash);
+	}
+
+	/**
+	 * Remove drive from state, so it is reconciled next time.
+	 *
+	 * @param driveId ID of drive
+	 */
+	public void remove(String driveId) {
+		unsaved = true;
+		drives.remove(driveId);
+	}
+
+	/**
+	 * Forget all drives except passed ones, e.g. drives deleted outside of connector.
+	 *
+	 * @param driveIds IDs of drives to keep
+	 */
+	public void retainAll(Collection<String> driveIds) {
+		unsaved = true;
+		drives.keySet().retainAll(driveIds);
+	}
+
+	/**
+	 * Return TRUE if state has the same content as its file, i.e. it wasn't changed since it was loaded or saved
+	 * and the file wasn't replaced by anyone else. Such state can be used by next job without reading the file again.
+	 *
+	 * @param file Path to state file
+	 * @return TRUE = state is current / FALSE = state must be loaded again
+	 */
+	public boolean isCurrent(Path file) {
+		return this.file.equals(file) && !unsaved && Objects.equals(fileModified, getModifiedTime(file));
+	}
+
+	/**
+	 * Write state to its file. File is replaced atomically.
+	 *
+	 * @throws IOException When file can't be written
+	 */
+	public void save() throws IOException {
+		Properties properties = new Properties();
+		for (Map.Entry<String, String> entry : drives.entrySet()) {
+			properties.setProperty(DRIVE_PREFIX + entry.getKey(), entry.getValue());
+		}
+		if (startPageToken != null) properties.setProperty(START_PAGE_TOKEN, startPageToken);
+		Path parent = file.toAbsolutePath().getParent();
+		Path tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+		try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+			properties.store(writer, "Drive state of google-group-connector");
+		}
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		fileModified = getModifiedTime(file);
+		unsaved = false;
+		log.debug("Saved drive state {} with {} drives.", file, drives.size());
+	}
+
+	private static FileTime getModifiedTime(Path file) {
+		try {
+			return Files.getLastModifiedTime(file);
+		} catch (IOException ex) {
+			return null;
+		}
+	}
+
+}
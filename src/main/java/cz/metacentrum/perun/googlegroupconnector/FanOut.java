@@ -0,0 +1,170 @@
+package cz.metacentrum.perun.googlegroupconnector;
+
+import cz.metacentrum.perun.googlegroupconnector.exceptions.GoogleGroupsIOException;
+import org.slf4j.MDC;
+
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs independent reconciliation tasks (e.g. members of different groups) in parallel
+ * with configurable parallelism limit.
+ * <p>
+ * Each task is tagged by the entity it processes. The tag is put to the logging context
+ * as "entity", so log lines of parallel tasks can be told apart.
+ * <p>
+ * First failure is stored and thrown back to the caller by next call of
+ * {@link #submit(String, Task)} or {@link #awaitAll()}.
+ * <p>
+ * When parallelism is 1 (default), tasks are executed directly by the calling thread.
+ * <p>
+ * When {@link DeadLetterQueue} is passed, failed tasks are stored to it instead and other tasks continue.
+ */
+public class FanOut implements AutoCloseable {
+
+	/**
+	 * Logging context key with tag of processed entity.
+	 */
+	public static final String MDC_ENTITY = "entity";
+
+	/**
+	 * Single reconciliation task.
+	 */
+	@FunctionalInterface
+	public interface Task {
+		void run() throws GoogleGroupsIOException;
+	}
+
+	private final String name;
+	private final int parallelism;
+	private final ExecutorService pool;
+	private final Semaphore permits;
+	private final AtomicReference<GoogleGroupsIOException> failure = new AtomicReference<>();
+	private final DeadLetterQueue deadLetters;
+
+	/**
+	 * Create fan-out with specified parallelism.
+	 *
+	 * @param name Name of worker threads
+	 * @param parallelism Max number of tasks executed at once
+	 */
+	public FanOut(String name, int parallelism) {
+		this(name, parallelism, null);
+	}
+
+	/**
+	 * Create fan-out with specified parallelism, which continues on error.
+	 *
+	 * @param name Name of worker threads
+	 * @param parallelism Max number of tasks executed at once
+	 * @param deadLetters Queue to store failed tasks to or NULL to stop on first failure
+	 */
+	public FanOut(String name, int parallelism, DeadLetterQueue deadLetters) {
+		this.name = name;
+		this.deadLetters = deadLetters;
+		this.parallelism = Math.max(1, parallelism);
+		this.permits = new Semaphore(this.parallelism);
+		if (this.parallelism > 1) {
+			AtomicInteger counter = new AtomicInteger();
+			this.pool = Executors.newFixedThreadPool(this.parallelism, runnable -> {
+				Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+		} else {
+			this.pool = null;
+		}
+	}
+
+	/**
+	 * Submit task. Blocks while max number of tasks is running.
+	 *
+	 * @param tag Tag of processed entity used in logs
+	 * @param task Task to execute
+	 * @throws GoogleGroupsIOException When any previously submitted task failed
+	 */
+	public void submit(String tag, Task task) throws GoogleGroupsIOException {
+
+		checkFailure();
+
+		if (pool == null) {
+			MDC.put(MDC_ENTITY, "[" + tag + "] ");
+			try {
+				task.run();
+			} catch (GoogleGroupsIOException ex) {
+				if (deadLetters == null) throw ex;
+				deadLetters.add(name + ":" + tag, ex, task::run);
+			} finally {
+				MDC.remove(MDC_ENTITY);
+			}
+			return;
+		}
+
+		try {
+			permits.acquire();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new GoogleGroupsIOException("Interrupted while submitting task for " + tag, ex);
+		}
+
+		// keep log tags (e.g. domain) of the submitter
+		Map<String, String> context = MDC.getCopyOfContextMap();
+		pool.execute(() -> {
+			if (context != null) MDC.setContextMap(context);
+			MDC.put(MDC_ENTITY, "[" + tag + "] ");
+			try {
+				// skip remaining work once anything failed
+				if (failure.get() == null) task.run();
+			} catch (GoogleGroupsIOException ex) {
+				fail(tag, task, ex);
+			} catch (RuntimeException ex) {
+				fail(tag, task, new GoogleGroupsIOException("Unexpected failure while processing " + tag, ex));
+			} finally {
+				MDC.clear();
+				permits.release();
+			}
+		});
+
+	}
+
+	/**
+	 * Wait until all submitted tasks are done.
+	 *
+	 * @throws GoogleGroupsIOException When any submitted task failed
+	 */
+	public void awaitAll() throws GoogleGroupsIOException {
+		if (pool != null) {
+			try {
+				permits.acquire(parallelism);
+				permits.release(parallelism);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new GoogleGroupsIOException("Interrupted while waiting for tasks to be done", ex);
+			}
+		}
+		checkFailure();
+	}
+
+	@Override
+	public void close() {
+		if (pool != null) pool.shutdown();
+	}
+
+	private void fail(String tag, Task task, GoogleGroupsIOException ex) {
+		if (deadLetters != null) {
+			deadLetters.add(name + ":" + tag, ex, task::run);
+		} else {
+			failure.compareAndSet(null, ex);
+		}
+	}
+
+	private void checkFailure() throws GoogleGroupsIOException {
+		GoogleGroupsIOException ex = failure.get();
+		if (ex != null) throw ex;
+	}
+
+}
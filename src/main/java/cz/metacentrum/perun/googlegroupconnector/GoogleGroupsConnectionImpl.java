@@ -2,7 +2,6 @@ package cz.metacentrum.perun.googlegroupconnector;
 
 import com.google.api.client.auth.oauth2.Credential;
 import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
-import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
 import com.google.api.client.http.HttpTransport;
 import com.google.api.client.json.jackson2.JacksonFactory;
 import com.google.api.client.json.JsonFactory;
@@ -11,6 +10,7 @@ import com.google.api.client.json.JsonFactory;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Path;
 import java.security.GeneralSecurityException;
 import java.util.Arrays;
 import java.util.List;
@@ -35,28 +35,38 @@ import org.slf4j.LoggerFactory;
  */
 public class GoogleGroupsConnectionImpl implements GoogleGroupsConnection {
 
-	private static String PROPERTIES_PATH;
 	private static final String APPLICATION_NAME = "Google Groups Perun Service";
-	private static JsonFactory JSON_FACTORY;
-	private static HttpTransport HTTP_TRANSPORT;
-	private static String SERVICE_ACCOUNT_EMAIL;
+
+	// each connection is isolated, so more domains can be connected at once
+	private final String propertiesPath;
+	private JsonFactory jsonFactory;
+	private HttpTransport httpTransport;
+	private HttpTransportProvider httpTransportProvider;
+	private String serviceAccountEmail;
 
 	// email of the User that Application will work behalf on.
-	protected static String USER_EMAIL;
+	private String userEmail;
 
 	// scopes required by the application
-	private static List<String> SCOPES;
+	private List<String> scopes;
 
 	//Generated at https://console.developers.google.com/project according to
 	// https://developers.google.com/identity/protocols/OAuth2ServiceAccount#creatinganaccount
-	private static String SERVICE_ACCOUNT_PKCS12_FILE_PATH;
+	private String serviceAccountPkcs12FilePath;
+
+	// credential shared by all services, key is loaded and token obtained only once
+	private CredentialCache credentialCache;
+
+	// local state of the last job, reused by next job of long-running connection
+	private MembershipCache membershipCache;
+	private DriveState driveState;
 
 	private final static org.slf4j.Logger log = LoggerFactory.getLogger(GoogleGroupsConnectionImpl.class);
 
 	private Properties prop = new Properties();
 
 	public GoogleGroupsConnectionImpl(String domainFile) throws IOException, GeneralSecurityException {
-		GoogleGroupsConnectionImpl.PROPERTIES_PATH = domainFile;
+		this.propertiesPath = domainFile;
 		loadProperties();
 	}
 
@@ -68,12 +78,12 @@ public class GoogleGroupsConnectionImpl implements GoogleGroupsConnection {
 	 */
 	@Override
 	public Directory getDirectoryService() {
-		return new Directory.Builder(HTTP_TRANSPORT, JSON_FACTORY, authorize()).setApplicationName(APPLICATION_NAME).build();
+		return new Directory.Builder(httpTransport, jsonFactory, httpTransportProvider.initializer(authorize())).setApplicationName(APPLICATION_NAME).build();
 	}
 
 	@Override
 	public Drive getDriveService() {
-		return new Drive.Builder(HTTP_TRANSPORT, JSON_FACTORY, authorize()).setApplicationName(APPLICATION_NAME).build();
+		return new Drive.Builder(httpTransport, jsonFactory, httpTransportProvider.initializer(authorize())).setApplicationName(APPLICATION_NAME).build();
 	}
 
 	/**
@@ -82,7 +92,16 @@ public class GoogleGroupsConnectionImpl implements GoogleGroupsConnection {
 	 * @return DOMAIN_NAME name of the domain in Google Groups
 	 */
 	public String getDomainName() {
-		return USER_EMAIL.substring(USER_EMAIL.indexOf("@") + 1);
+		return userEmail.substring(userEmail.indexOf("@") + 1);
+	}
+
+	/**
+	 * Returns email of the user, which application works behalf on.
+	 *
+	 * @return email of the user
+	 */
+	public String getUserEmail() {
+		return userEmail;
 	}
 
 	@Override
@@ -91,32 +110,81 @@ public class GoogleGroupsConnectionImpl implements GoogleGroupsConnection {
 	}
 
 	/**
-	 * Loads properties and sets static class variables.
+	 * Returns usage of HTTP connection pool.
+	 *
+	 * @return pool usage or NULL if HTTP transport is not pooled
+	 */
+	public String getTransportStats() {
+		return httpTransportProvider.getPoolStats();
+	}
+
+	/**
+	 * Returns membership cache stored in the file. Cache of previous job is reused without reading the file,
+	 * if it was saved by that job and the file wasn't changed since.
+	 *
+	 * @param file Path to cache file
+	 * @return membership cache
+	 */
+	public synchronized MembershipCache getMembershipCache(Path file) {
+		if (membershipCache == null || !membershipCache.isCurrent(file)) {
+			membershipCache = MembershipCache.load(file);
+		}
+		return membershipCache;
+	}
+
+	/**
+	 * Returns drive state stored in the file. State of previous job is reused without reading the file,
+	 * if it was saved by that job and the file wasn't changed since.
+	 *
+	 * @param file Path to state file
+	 * @return drive state
+	 */
+	public synchronized DriveState getDriveState(Path file) {
+		if (driveState == null || !driveState.isCurrent(file)) {
+			driveState = DriveState.load(file);
+		}
+		return driveState;
+	}
+
+	/**
+	 * Close HTTP transport and drop shared Credential, e.g. when connection is replaced by long-running daemon.
+	 *
+	 * @throws IOException When transport can't be closed
+	 */
+	public void close() throws IOException {
+		resetCredential();
+		httpTransportProvider.close();
+	}
+
+	/**
+	 * Loads properties and sets connection variables.
 	 */
 	private void loadProperties() throws IOException, GeneralSecurityException {
 
 		InputStream input = null;
 
 		try {
-			input = new FileInputStream(PROPERTIES_PATH);
+			input = new FileInputStream(propertiesPath);
 
 			// load a properties file
 			prop.load(input);
 
-			// store values from properties file in static variables
-			GoogleGroupsConnectionImpl.SERVICE_ACCOUNT_EMAIL = prop.getProperty("service_account_email");
-			GoogleGroupsConnectionImpl.USER_EMAIL = prop.getProperty("user_email");
-			GoogleGroupsConnectionImpl.SERVICE_ACCOUNT_PKCS12_FILE_PATH = prop.getProperty("service_account_pkcs12_file_path");
-			GoogleGroupsConnectionImpl.JSON_FACTORY = JacksonFactory.getDefaultInstance();
-			GoogleGroupsConnectionImpl.HTTP_TRANSPORT = GoogleNetHttpTransport.newTrustedTransport();
-			GoogleGroupsConnectionImpl.SCOPES = Arrays.asList(prop.getProperty("scopes").split(","));
+			// store values from properties file in connection variables
+			this.serviceAccountEmail = prop.getProperty("service_account_email");
+			this.userEmail = prop.getProperty("user_email");
+			this.serviceAccountPkcs12FilePath = prop.getProperty("service_account_pkcs12_file_path");
+			this.jsonFactory = JacksonFactory.getDefaultInstance();
+			this.httpTransportProvider = HttpTransportProvider.create(prop);
+			this.httpTransport = httpTransportProvider.getTransport();
+			this.scopes = Arrays.asList(prop.getProperty("scopes").split(","));
+			resetCredential();
 
 		} catch (IOException ex) {
 			String msg = "Problem with I/O operation while reading google_groups.properties file.";
 			log.error(msg, ex);
 			throw new IOException(msg);
 		} catch (GeneralSecurityException ex) {
-			String msg = "Problem with general security while getting newTrustedTransport() for HttpTransport class.";
+			String msg = "Problem with general security while creating HttpTransport.";
 			log.error(msg, ex);
 			throw new GeneralSecurityException(msg);
 		} finally {
@@ -124,27 +192,30 @@ public class GoogleGroupsConnectionImpl implements GoogleGroupsConnection {
 				try {
 					input.close();
 				} catch (IOException ex) {
-					log.error("Problem with I/O operation while closing file '" + PROPERTIES_PATH + "'.", ex);
+					log.error("Problem with I/O operation while closing file '" + propertiesPath + "'.", ex);
 				}
 			}
 		}
 	}
 
 	/**
-	 * Creates Credential object.
+	 * Returns Credential object shared by all services. It is created on first call.
 	 *
 	 * @return an authorized Credential object.
 	 */
-	private static Credential authorize() {
+	private synchronized Credential authorize() {
+		if (credentialCache != null) return credentialCache.getCredential();
 		try {
-			return new GoogleCredential.Builder()
-					.setTransport(HTTP_TRANSPORT)
-					.setJsonFactory(JSON_FACTORY)
-					.setServiceAccountId(SERVICE_ACCOUNT_EMAIL)
-					.setServiceAccountScopes(SCOPES)
-					.setServiceAccountUser(USER_EMAIL)
-					.setServiceAccountPrivateKeyFromP12File(new java.io.File(SERVICE_ACCOUNT_PKCS12_FILE_PATH))
+			Credential credential = new GoogleCredential.Builder()
+					.setTransport(httpTransport)
+					.setJsonFactory(jsonFactory)
+					.setServiceAccountId(serviceAccountEmail)
+					.setServiceAccountScopes(scopes)
+					.setServiceAccountUser(userEmail)
+					.setServiceAccountPrivateKeyFromP12File(new java.io.File(serviceAccountPkcs12FilePath))
 					.build();
+			credentialCache = new CredentialCache(credential);
+			return credential;
 		} catch (IOException ex) {
 			log.error("Problem with I/O operation while building GoogleCredential object in authorize() method.", ex);
 		} catch (GeneralSecurityException ex) {
@@ -153,6 +224,16 @@ public class GoogleGroupsConnectionImpl implements GoogleGroupsConnection {
 		return null;
 	}
 
+	/**
+	 * Drop shared Credential, e.g. when properties are reloaded.
+	 */
+	private synchronized void resetCredential() {
+		if (credentialCache != null) {
+			credentialCache.close();
+			credentialCache = null;
+		}
+	}
+
 
 	/**
 	 * Creates an authorized Credential object.
@@ -2,9 +2,10 @@ package cz.metacentrum.perun.googlegroupconnector;
 
 import com.google.api.services.directory.model.Group;
 import com.google.api.services.directory.model.User;
-import com.google.api.services.drive.model.TeamDrive;
+import com.google.api.services.drive.model.Drive;
 import cz.metacentrum.perun.googlegroupconnector.exceptions.GoogleGroupsIOException;
 import java.io.File;
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 
@@ -46,7 +47,7 @@ public interface GoogleGroupsService {
 	 * @param teamDriveFile CSV input file
 	 * @return Pair of TeamDrive and List of Users(team members)
 	 */
-	Map<TeamDrive, List<User>> parseTeamDrivesFile(File teamDriveFile);
+	Map<Drive, List<User>> parseTeamDrivesFile(File teamDriveFile);
 
 	/**
 	 * Propagates changes in users from Perun to G Suite domain.
@@ -64,7 +65,19 @@ public interface GoogleGroupsService {
 	 * @throws GoogleGroupsIOException when IOException is thrown while
 	 * inserting/getting/deleting objects into/from G Suite.
 	 */
-	void processGroups(List<Group> groups) throws GoogleGroupsIOException, InterruptedException;
+	void processGroups(List<Group> groups) throws GoogleGroupsIOException;
+
+	/**
+	 * Propagates changes in groups from Perun to G Suite domain while groups file is read.
+	 * Groups of the domain are fetched first, then each row of groups file is processed
+	 * as soon as it is read, so the file is never kept in memory.
+	 *
+	 * @param groupsFile CSV input file in the same format as for {@link #parseGroupsFile(File)}
+	 * @throws GoogleGroupsIOException when IOException is thrown while
+	 * inserting/getting/deleting objects into/from G Suite.
+	 * @throws IOException when groups file can't be read
+	 */
+	void processGroupsStream(File groupsFile) throws GoogleGroupsIOException, IOException;
 
 	/**
 	 * Propagates changes in groups membership from Perun to G Suite domain.
@@ -76,15 +89,28 @@ public interface GoogleGroupsService {
 	 */
 	boolean processGroupMembers(Group group) throws GoogleGroupsIOException;
 
+	/**
+	 * Compare members of group from Perun with members of group in G Suite domain.
+	 * No changes are made in G Suite.
+	 *
+	 * @param group Group to compare members for
+	 * @throws GoogleGroupsIOException when IOException is thrown while
+	 * getting objects from G Suite.
+	 * @return Members to be added to / removed from group in G Suite domain
+	 */
+	MembersDiff diffGroupMembers(Group group) throws GoogleGroupsIOException;
+
 
 	/**
-	 * Propagates changes in team drives from Perun to G Suite domain.
+	 * Propagates changes in team drives (shared drives) from Perun to G Suite domain.
+	 * When drive state file is configured, permissions are listed only for drives with changed
+	 * users in Perun or with changes in G Suite since the last run.
 	 *
 	 * @param driveWithMembers List of team drives and users from Perun
 	 * @throws GoogleGroupsIOException when IOException is thrown while
 	 *                                 inserting/getting/deleting objects into/from G Suite.
 	 */
-	void processTeamDrives(Map<TeamDrive, List<User>> driveWithMembers) throws GoogleGroupsIOException, InterruptedException;
+	void processTeamDrives(Map<Drive, List<User>> driveWithMembers) throws GoogleGroupsIOException;
 
 	/**
 	 * Propagates changes in TeamDrive Permissions for its users from Perun to G Suite domain.
@@ -95,6 +121,6 @@ public interface GoogleGroupsService {
 	 * @throws GoogleGroupsIOException when IOException is thrown while
 	 *                                 creating/deleting permissions into/from G Suite.
 	 */
-	void processTeamDrivePermissions(TeamDrive teamDrive, List<User> users) throws GoogleGroupsIOException;
+	void processTeamDrivePermissions(Drive teamDrive, List<User> users) throws GoogleGroupsIOException;
 
 }
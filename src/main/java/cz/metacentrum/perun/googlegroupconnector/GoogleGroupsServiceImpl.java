@@ -1,7 +1,8 @@
 package cz.metacentrum.perun.googlegroupconnector;
 
+import com.google.api.client.googleapis.services.AbstractGoogleClientRequest;
+import com.google.api.client.http.HttpResponse;
 import com.google.api.services.directory.model.UserName;
-import com.google.api.services.drive.Drive;
 import com.google.api.services.drive.model.Permission;
 import com.google.api.services.drive.model.PermissionList;
 import com.opencsv.CSVParserBuilder;
@@ -15,21 +16,36 @@ import com.google.api.services.directory.model.Member;
 import com.google.api.services.directory.model.Members;
 import com.google.api.services.directory.model.User;
 import com.google.api.services.directory.model.Users;
-import com.google.api.services.drive.model.TeamDriveList;
-import com.google.api.services.drive.model.TeamDrive;
+import com.google.api.services.drive.model.Change;
+import com.google.api.services.drive.model.ChangeList;
+import com.google.api.services.drive.model.Drive;
+import com.google.api.services.drive.model.DriveList;
 import com.opencsv.CSVReader;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.security.GeneralSecurityException;
 import java.security.SecureRandom;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang3.RandomStringUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
 
 /**
  * GoogleGroupsServiceImpl is an implementation of GoogleGroupsService interface.
@@ -44,26 +60,55 @@ import org.slf4j.LoggerFactory;
 public class GoogleGroupsServiceImpl implements GoogleGroupsService {
 
 	private final static org.slf4j.Logger log = LoggerFactory.getLogger(GoogleGroupsServiceImpl.class);
-	private static Directory service;
-	private static Drive driveService;
+	private Directory service;
+	private com.google.api.services.drive.Drive driveService;
+	private String userEmail;
 	private String domainName;
 	private Properties properties;
 	private final Map<String, List<String>> groupsMembers = new HashMap<>();
-
-	private static int usersInserted = 0;
-	private static int usersUpdated = 0;
-	private static int usersSuspended = 0;
-	private static int usersDeleted = 0;
-	private static int groupsInserted = 0;
-	private static int groupsUpdated = 0;
-	private static int groupsDeleted = 0;
-	private static int groupsUpdatedMembers = 0;
-	private static int teamDrivesInserted = 0;
-	private static int teamDrivesDeleted = 0;
-	private static int teamDriveUsersAdded = 0;
-	private static int teamDriveUsersDeleted = 0;
-
-	private static boolean dryRun = false;
+	private MutationExecutor mutations = new MutationExecutor(1);
+	private BatchQueue directoryBatch;
+	private BatchQueue driveBatch;
+	private FanOut groupsFanOut = new FanOut("groups", 1);
+	private FanOut drivesFanOut = new FanOut("drives", 1);
+	private MembershipCache membershipCache;
+	private DriveState driveState;
+	private boolean forceFullReconcile = false;
+	// TeamDrives missing in input file are deleted, explicit opt-in since it deletes their content
+	private boolean deleteMissingTeamDrives = false;
+	private final ListingStats listingStats = new ListingStats();
+	private ApiCallExecutor apiCalls = new ApiCallExecutor(new Properties());
+	private DeadLetterQueue deadLetters;
+	private DomainSnapshot snapshot;
+	private ChangeRecorder plan;
+	// changes are planned to journal and applied later by the same job, caches are saved as if they were applied
+	private boolean journaled = false;
+	// drives created by applied changes, confirmed only once their permissions are done
+	private final List<Map.Entry<Drive, Runnable>> createdDrives = Collections.synchronizedList(new ArrayList<>());
+	// drives of the domain by name, when resumed job might have created planned drives already
+	private Map<String, Drive> existingDrives;
+	// keys of groups and drives created in this run, which might not be readable yet
+	private final Set<String> createdEntities = ConcurrentHashMap.newKeySet();
+
+	private final AtomicInteger usersInserted = new AtomicInteger();
+	private final AtomicInteger usersUpdated = new AtomicInteger();
+	private final AtomicInteger usersSuspended = new AtomicInteger();
+	private final AtomicInteger usersDeleted = new AtomicInteger();
+	private final AtomicInteger groupsInserted = new AtomicInteger();
+	private final AtomicInteger groupsUpdated = new AtomicInteger();
+	private final AtomicInteger groupsDeleted = new AtomicInteger();
+	private final AtomicInteger groupsUpdatedMembers = new AtomicInteger();
+	private final AtomicInteger groupsCachedMembers = new AtomicInteger();
+	private final AtomicInteger groupMembersAdded = new AtomicInteger();
+	private final AtomicInteger groupMembersRemoved = new AtomicInteger();
+	private final AtomicInteger groupMembersSkipped = new AtomicInteger();
+	private final AtomicInteger teamDrivesInserted = new AtomicInteger();
+	private final AtomicInteger teamDrivesDeleted = new AtomicInteger();
+	private final AtomicInteger teamDrivesCached = new AtomicInteger();
+	private final AtomicInteger teamDriveUsersAdded = new AtomicInteger();
+	private final AtomicInteger teamDriveUsersDeleted = new AtomicInteger();
+
+	private boolean dryRun = false;
 
 
 	/**
@@ -77,6 +122,20 @@ public class GoogleGroupsServiceImpl implements GoogleGroupsService {
 	 * [1] action: "users", "groups", "teamDrives"
 	 * [2] path to CSV file with data
 	 *
+	 * Action "all" takes paths to users, groups and teamDrives files as [2], [3] and [4].
+	 *
+	 * When action is "plan", changes of action [2] are only computed and written to plan file [3],
+	 * input files follow as [4] and more. Action "apply" performs changes of plan file [2].
+	 *
+	 * When first argument is "daemon", connector is started as long-running {@link ConnectorDaemon}
+	 * listening on loopback port passed as second argument.
+	 *
+	 * When first argument is "journal", status of {@link MutationJournal} passed as third argument is printed
+	 * ("status") or the journal is compacted first ("compact").
+	 *
+	 * When first argument is "multi", each following argument is a job "DOMAIN:ACTION:FILE"
+	 * and jobs of different domains are performed concurrently by {@link MultiDomainRunner}.
+	 *
 	 * @param args [0] domain name, [1] action [2] path to CSV file with data
 	 * @throws IOException When reading of input file fails
 	 * @throws GeneralSecurityException When connector is unable to access G Suite API
@@ -84,175 +143,843 @@ public class GoogleGroupsServiceImpl implements GoogleGroupsService {
 	 */
 	public static void main(String[] args) throws IOException, GeneralSecurityException, GoogleGroupsIOException {
 
+		GoogleGroupsConnectionImpl connection;
+		String action;
+		List<File> inputFiles = new ArrayList<>();
+		File planFile = null;
+
 		try {
 
-			String domainFile = "/etc/perun/google_groups-";
-			String action = null;
-			String inputFilePath = null;
+			if (args.length > 0 && "daemon".equals(args[0])) {
+				int port = (args.length > 1) ? Integer.parseInt(args[1]) : ConnectorDaemon.DEFAULT_PORT;
+				new ConnectorDaemon(port, ConnectorDaemon.loadProperties(ConnectorDaemon.CONFIG_FILE)).start();
+				return;
+			}
+
+			if (args.length > 0 && "journal".equals(args[0])) {
+				if (args.length != 3 || !("status".equals(args[1]) || "compact".equals(args[1]))) {
+					throw new IllegalArgumentException("Usage: journal status|compact JOURNAL_FILE");
+				}
+				Path journalFile = Paths.get(args[2]);
+				printJournalStatus(journalFile, "compact".equals(args[1]) ? MutationJournal.compact(journalFile) : MutationJournal.read(journalFile), System.out);
+				return;
+			}
 
-			if (args.length > 2) {
-				domainFile = domainFile + args[0] + ".properties";
+			if (args.length > 0 && "multi".equals(args[0])) {
+				if (args.length < 2) throw new IllegalArgumentException("No jobs to perform.");
+				List<MultiDomainRunner.Job> jobs = new ArrayList<>();
+				for (int i = 1; i < args.length; i++) {
+					jobs.add(MultiDomainRunner.Job.parse(args[i]));
+				}
+				int status = new MultiDomainRunner(jobs).run(System.out);
+				if (status != 0) System.exit(status);
+				return;
+			}
+
+			String domainFile;
+			int firstFile = 2;
+
+			if (args.length > 4 && "plan".equals(args[1])) {
+				domainFile = getDomainFile(args[0]);
+				action = args[2];
+				planFile = new File(args[3]);
+				firstFile = 4;
+			} else if (args.length > 2) {
+				domainFile = getDomainFile(args[0]);
 				action = args[1];
-				inputFilePath = args[2];
 			} else {
 				throw new IllegalArgumentException("Wrong number of input arguments (less than 3).");
 			}
 
-			if (inputFilePath == null || inputFilePath.isEmpty()) {
-				log.error("Input file path is empty.");
-				throw new IllegalArgumentException("File path can't be empty.");
+			for (int i = firstFile; i < args.length; i++) {
+				if (args[i] == null || args[i].isEmpty()) {
+					log.error("Input file path is empty.");
+					throw new IllegalArgumentException("File path can't be empty.");
+				}
+				inputFiles.add(new File(args[i]));
 			}
 
-			File inputFile = new File(inputFilePath);
+			connection = new GoogleGroupsConnectionImpl(domainFile);
 
-			GoogleGroupsConnectionImpl connection = new GoogleGroupsConnectionImpl(domainFile);
-			service = connection.getDirectoryService();
-			driveService = connection.getDriveService();
+		} catch (Throwable ex) {
+			// make sure java ends with non-zero exit code on fail.
+			System.out.println(ex.getClass().getSimpleName() + ": " + ex.getMessage());
+			System.exit(1);
+			return;
+		}
 
-			GoogleGroupsServiceImpl session = new GoogleGroupsServiceImpl();
-			session.domainName = connection.getDomainName();
-			session.properties = connection.getProperties();
-			dryRun = Boolean.parseBoolean(session.properties.getProperty("dry_run", "false"));
+		int status = runJob(connection, action, inputFiles, planFile, System.out);
+		if (status != 0) System.exit(status);
 
-			if (dryRun) System.out.println("========== DRY RUN ==========\n* Only READ operations with Google API are done.\n* WRITE operations are not actually called, but only logged.\n=============================");
+	}
 
-			switch (action) {
-				case "users":
-					List<User> users = session.parseUserFile(inputFile);
-					log.info("Users file parsed...");
-					if (users == null || users.isEmpty()) {
-						log.warn("Processing of users skipped.");
-					} else {
-						session.processUsers(users);
-						log.info("Processing of users done.");
-					}
-					System.out.println("Users inserted: "+usersInserted);
-					System.out.println("Users updated: "+usersUpdated);
-					System.out.println("Users suspended: "+usersSuspended);
-					System.out.println("Users deleted: "+usersDeleted);
-					return;
-				case "groups":
-					List<Group> groups = session.parseGroupsFile(inputFile);
-					log.info("Groups file parsed...");
-					if (groups == null || groups.isEmpty()) {
-						log.warn("Processing of groups skipped.");
+	/**
+	 * Return path to properties file of the domain.
+	 *
+	 * @param domainName Name of the domain
+	 * @return Path to properties file
+	 */
+	static String getDomainFile(String domainName) {
+		return "/etc/perun/google_groups-" + domainName + ".properties";
+	}
+
+	/**
+	 * Return input files of the action passed as single value, paths of "all" action are separated by comma.
+	 *
+	 * @param action Action
+	 * @param paths Path to input file or comma separated paths for "all" action
+	 * @return Input files
+	 */
+	static List<File> getInputFiles(String action, String paths) {
+		List<File> files = new ArrayList<>();
+		for (String path : "all".equals(action) ? paths.split(",") : new String[] { paths }) {
+			files.add(new File(path));
+		}
+		return files;
+	}
+
+	/**
+	 * Perform single action with input file on the domain and print summary to the output.
+	 * Connection (HTTP transport and credential) can be reused by subsequent jobs.
+	 *
+	 * @param connection Connection to the domain
+	 * @param action Action: "users", "groups", "teamDrives" or "all"
+	 * @param inputFiles CSV file with data (users, groups and teamDrives files for "all")
+	 * @param out Output for summary of the job
+	 * @return Exit status: 0 = success, 1 = failure, 2 = some changes failed (continue_on_error)
+	 */
+	static int runJob(GoogleGroupsConnectionImpl connection, String action, List<File> inputFiles, PrintStream out) {
+		return runJob(connection, action, inputFiles, null, out);
+	}
+
+	/**
+	 * Perform single action with input file on the domain and print summary to the output.
+	 * When plan file is passed, changes are only computed and written to the plan (see {@link ChangePlan}).
+	 * Action "apply" performs changes of the plan passed as input file.
+	 *
+	 * @param connection Connection to the domain
+	 * @param action Action: "users", "groups", "teamDrives", "all" or "apply"
+	 * @param inputFiles CSV file with data (users, groups and teamDrives files for "all", plan file for "apply")
+	 * @param planFile File to write plan of changes to or NULL to perform them
+	 * @param out Output for summary of the job
+	 * @return Exit status: 0 = success, 1 = failure, 2 = some changes failed (continue_on_error)
+	 */
+	static int runJob(GoogleGroupsConnectionImpl connection, String action, List<File> inputFiles, File planFile, PrintStream out) {
+
+		GoogleGroupsServiceImpl session = new GoogleGroupsServiceImpl();
+		ChangePlan changePlan = null;
+		MutationJournal journal = null;
+
+		try {
+
+			session.init(connection);
+			String journalFile = session.properties.getProperty("journal_file");
+
+			if (planFile != null) {
+				if ("apply".equals(action)) throw new IllegalArgumentException("Plan can't be computed for action apply.");
+				// plan is computed by the same code as dry run, but changes are written to the plan
+				changePlan = ChangePlan.create(planFile.toPath(), session.domainName, action);
+				session.dryRun = true;
+				session.plan = changePlan;
+			} else if (session.dryRun) {
+				out.println("========== DRY RUN ==========\n* Only READ operations with Google API are done.\n* WRITE operations are not actually called, but only logged.\n=============================");
+			} else if (journalFile != null && !journalFile.isEmpty()) {
+				journal = MutationJournal.open(Paths.get(journalFile), session.domainName, action, MutationJournal.hashInput(action, inputFiles));
+			}
+
+			if (journal != null) {
+				session.performJournaled(connection, journal, action, inputFiles, out);
+			} else {
+				session.perform(action, inputFiles, out);
+			}
+
+			if (changePlan != null) {
+				changePlan.close();
+				out.println("Planned changes: " + changePlan.size());
+				out.println("Plan saved to: " + planFile);
+				changePlan = null;
+			}
+
+			session.printListingStats(out);
+			String transportStats = connection.getTransportStats();
+			if (transportStats != null) out.println("HTTP connections: " + transportStats);
+
+			if (session.deadLetters != null && !session.deadLetters.isEmpty()) {
+				// some changes were not applied, report them and end with non-zero exit code
+				List<DeadLetterQueue.Entry> failed = session.deadLetters.getEntries();
+				out.println("Failed operations: " + failed.size());
+				for (DeadLetterQueue.Entry entry : failed) {
+					out.println("Failed " + entry.getEntityKey() + ": " + DeadLetterQueue.describe(entry.getFailure()));
+				}
+				return 2;
+			}
+			return 0;
+
+		} catch (Throwable ex) {
+			// make sure java ends with non-zero exit code on fail.
+			out.println(ex.getClass().getSimpleName() + ": " + ex.getMessage());
+			return 1;
+		} finally {
+			// incomplete plan must not be applied
+			if (changePlan != null) changePlan.discard();
+			if (journal != null) {
+				try {
+					journal.close();
+				} catch (IOException ex) {
+					log.error("Unable to close journal.", ex);
+				}
+			}
+			session.closeExecutors();
+		}
+
+	}
+
+	/**
+	 * Print status of the journal.
+	 *
+	 * @param file Journal file
+	 * @param status Content of the journal
+	 * @param out Output
+	 */
+	static void printJournalStatus(Path file, MutationJournal.Status status, PrintStream out) {
+		ChangePlan.Change header = status.getHeader();
+		String state = status.isFinished() ? "finished" : (status.isPlanned() ? "interrupted (can be resumed)" : "interrupted while planning");
+		out.println("Journal: " + file);
+		out.println("Domain: " + header.getKey() + ", action: " + header.getAction() + ", created: " + header.getCreated());
+		out.println("State: " + state);
+		if (header.getResumes() != null) out.println("Resumed: " + header.getResumes() + " times (max " + MutationJournal.MAX_RESUMES + ")");
+		out.println("Done changes: " + status.getDone());
+		out.println("Outstanding changes: " + status.getOutstanding().size());
+		for (Map.Entry<ChangePlan.Op, Integer> count : status.countOutstanding().entrySet()) {
+			out.println("  " + count.getKey().name().toLowerCase() + ": " + count.getValue());
+		}
+	}
+
+	/**
+	 * Set up session of single job with the connection and properties of the domain.
+	 *
+	 * @param connection Connection to the domain
+	 * @throws IOException When cache files can't be read
+	 */
+	private void init(GoogleGroupsConnectionImpl connection) throws IOException {
+		service = connection.getDirectoryService();
+		driveService = connection.getDriveService();
+		userEmail = connection.getUserEmail();
+		domainName = connection.getDomainName();
+		properties = connection.getProperties();
+		dryRun = Boolean.parseBoolean(properties.getProperty("dry_run", "false"));
+		apiCalls = new ApiCallExecutor(properties);
+		if (Boolean.parseBoolean(properties.getProperty("continue_on_error", "false"))) {
+			deadLetters = new DeadLetterQueue();
+		}
+		// adaptive limit of writes in flight must not be capped by smaller pool of writers
+		int maxConcurrentWrites = Math.max(Integer.parseInt(properties.getProperty("max_concurrent_writes", "1")),
+				Integer.parseInt(properties.getProperty("adaptive_concurrency_max", "0")));
+		mutations = new MutationExecutor(maxConcurrentWrites, deadLetters);
+		int batchSize = Integer.parseInt(properties.getProperty("batch_size", "1"));
+		directoryBatch = new BatchQueue("directory", service, mutations, apiCalls, ApiQuota.DIRECTORY_WRITE, batchSize, 1000);
+		driveBatch = new BatchQueue("drive", driveService, mutations, apiCalls, ApiQuota.DRIVE, batchSize, 100);
+		groupsFanOut = new FanOut("groups", Integer.parseInt(properties.getProperty("group_parallelism", "1")), deadLetters);
+		drivesFanOut = new FanOut("drives", Integer.parseInt(properties.getProperty("drive_parallelism", "1")), deadLetters);
+		String membershipCacheFile = properties.getProperty("membership_cache_file");
+		if (membershipCacheFile != null && !membershipCacheFile.isEmpty()) {
+			membershipCache = connection.getMembershipCache(Paths.get(membershipCacheFile));
+		}
+		String driveStateFile = properties.getProperty("drive_state_file");
+		if (driveStateFile != null && !driveStateFile.isEmpty()) {
+			driveState = connection.getDriveState(Paths.get(driveStateFile));
+		}
+		forceFullReconcile = Boolean.parseBoolean(properties.getProperty("force_full_reconcile", "false"));
+		deleteMissingTeamDrives = Boolean.parseBoolean(properties.getProperty("delete_missing_teamdrives", "false"));
+		if (Boolean.parseBoolean(properties.getProperty("allow_delete_teamdrive", "false")) && !deleteMissingTeamDrives) {
+			log.warn("Property allow_delete_teamdrive was never applied and is ignored, set delete_missing_teamdrives=true to delete TeamDrives missing in input file.");
+		}
+	}
+
+	/**
+	 * Stop threads of the session, they must not outlive the job in daemon mode.
+	 */
+	private void closeExecutors() {
+		mutations.close();
+		groupsFanOut.close();
+		drivesFanOut.close();
+	}
+
+	/**
+	 * Perform the action and print its summary.
+	 *
+	 * @param action Action: "users", "groups", "teamDrives", "all" or "apply"
+	 * @param inputFiles Input files of the action
+	 * @param out Output for summary of the action
+	 * @throws GoogleGroupsIOException When API call fails
+	 * @throws IOException When input file can't be read
+	 */
+	private void perform(String action, List<File> inputFiles, PrintStream out) throws GoogleGroupsIOException, IOException {
+		switch (action) {
+			case "users":
+				syncUsers(inputFiles.get(0));
+				printUsersSummary(out);
+				break;
+			case "groups":
+				syncGroups(inputFiles.get(0));
+				printGroupsSummary(out);
+				break;
+			case "teamDrives":
+				syncTeamDrives(inputFiles.get(0));
+				printTeamDrivesSummary(out);
+				break;
+			case "all":
+				if (inputFiles.size() < 3) {
+					throw new IllegalArgumentException("Action all needs users, groups and teamDrives files.");
+				}
+				// list the whole domain at once and reuse it by all parts
+				snapshot = fetchSnapshot();
+				syncUsers(inputFiles.get(0));
+				syncGroups(inputFiles.get(1));
+				syncTeamDrives(inputFiles.get(2));
+				printUsersSummary(out);
+				printGroupsSummary(out);
+				printTeamDrivesSummary(out);
+				break;
+			case "apply":
+				applyPlan(inputFiles.get(0), out);
+				break;
+
+			default:
+				log.error("Invalid action: {}. Please use: \"users\", \"groups\", \"teamDrives\", \"all\" or \"apply\" as action.", action);
+				throw new IllegalArgumentException("Invalid action: " + action + ". Please use: \"users\", \"groups\", \"teamDrives\", \"all\" or \"apply\" as action.");
+		}
+	}
+
+	/**
+	 * Perform the action through the journal. All changes are planned to the journal first by separate session
+	 * and then applied, so interrupted job started again with the same input performs only outstanding changes.
+	 *
+	 * @param connection Connection to the domain
+	 * @param journal Opened journal of the job
+	 * @param action Action: "users", "groups", "teamDrives", "all" or "apply"
+	 * @param inputFiles Input files of the action
+	 * @param out Output for summary of the action
+	 * @throws GoogleGroupsIOException When API call fails
+	 * @throws IOException When input file or journal can't be read or written
+	 */
+	private void performJournaled(GoogleGroupsConnectionImpl connection, MutationJournal journal, String action, List<File> inputFiles, PrintStream out) throws GoogleGroupsIOException, IOException {
+
+		List<DeadLetterQueue.Entry> planningFailures = new ArrayList<>();
+		if (journal.isResumed()) {
+			out.println("Resuming interrupted job, outstanding changes: " + journal.getStatus().getOutstanding().size());
+		} else {
+			GoogleGroupsServiceImpl planning = new GoogleGroupsServiceImpl();
+			try {
+				planning.init(connection);
+				planning.dryRun = true;
+				planning.journaled = true;
+				planning.plan = journal;
+				// summary of planning is replaced by summary of applied changes
+				planning.perform(action, inputFiles, new PrintStream(OutputStream.nullOutputStream()));
+				planning.printListingStats(out);
+				if (planning.deadLetters != null) planningFailures.addAll(planning.deadLetters.getEntries());
+			} finally {
+				planning.closeExecutors();
+			}
+			journal.planned();
+		}
+
+		applyJournal(journal, out);
+		// entities which failed to be planned are only reported, next run will plan them again
+		for (DeadLetterQueue.Entry entry : planningFailures) {
+			deadLetters.add(entry.getEntityKey(), entry.getFailure(), entry.getRetry());
+		}
+		if (!journal.finish()) log.warn("Job was not finished, {} changes are outstanding.", journal.getStatus().getOutstanding().size());
+
+	}
+
+	/**
+	 * Parse users file and synchronize users of the domain.
+	 *
+	 * @param inputFile Users file
+	 * @throws GoogleGroupsIOException When API call fails
+	 */
+	private void syncUsers(File inputFile) throws GoogleGroupsIOException {
+		List<User> users = parseUserFile(inputFile);
+		log.info("Users file parsed...");
+		if (users == null || users.isEmpty()) {
+			log.warn("Processing of users skipped.");
+		} else {
+			processUsers(users);
+			log.info("Processing of users done.");
+		}
+	}
+
+	/**
+	 * Parse (or stream) groups file and synchronize groups of the domain.
+	 *
+	 * @param inputFile Groups file
+	 * @throws GoogleGroupsIOException When API call fails
+	 * @throws IOException When groups file can't be read in streaming mode
+	 */
+	private void syncGroups(File inputFile) throws GoogleGroupsIOException, IOException {
+		if (Boolean.parseBoolean(properties.getProperty("streaming_input", "false"))) {
+			processGroupsStream(inputFile);
+			log.info("Processing of groups done.");
+		} else {
+			List<Group> groups = parseGroupsFile(inputFile);
+			log.info("Groups file parsed...");
+			if (groups == null || groups.isEmpty()) {
+				log.warn("Processing of groups skipped.");
+			} else {
+				processGroups(groups);
+				log.info("Processing of groups done.");
+			}
+		}
+	}
+
+	/**
+	 * Parse TeamDrives file and synchronize TeamDrives of the domain.
+	 *
+	 * @param inputFile TeamDrives file
+	 * @throws GoogleGroupsIOException When API call fails
+	 */
+	private void syncTeamDrives(File inputFile) throws GoogleGroupsIOException {
+		Map<Drive, List<User>> drivesWithMembers = parseTeamDrivesFile(inputFile);
+		log.info("Team drives file parsed...");
+		if (drivesWithMembers == null || drivesWithMembers.isEmpty()) {
+			log.warn("Processing of team drives skipped.");
+		} else {
+			processTeamDrives(drivesWithMembers);
+			log.info("Processing of team drives done.");
+		}
+	}
+
+	/**
+	 * Apply changes of the plan computed by previous run without listing the domain again.
+	 * Changes are passed to the same parallel and batched executors as during synchronization.
+	 * Only parts present in the plan are summarized.
+	 *
+	 * @param planFile Plan file
+	 * @param out Output for summary of the plan
+	 * @throws GoogleGroupsIOException When API call fails
+	 * @throws IOException When plan can't be read
+	 */
+	private void applyPlan(File planFile, PrintStream out) throws GoogleGroupsIOException, IOException {
+
+		Set<String> insertedGroups = new HashSet<>();
+		Set<String> parts = new LinkedHashSet<>();
+		int[] changes = { 0 };
+
+		ChangePlan.Change header = ChangePlan.read(planFile.toPath(), domainName, change -> {
+			applyChange(change, insertedGroups, parts, () -> {});
+			changes[0]++;
+		});
+		log.info("Plan {} computed at {} for action {} read, {} changes submitted.", planFile, header.getCreated(), header.getAction(), changes[0]);
+
+		finishApply();
+		confirmCreatedDrives();
+		out.println("Plan changes: " + changes[0]);
+		printApplySummary(parts, out);
+
+	}
+
+	/**
+	 * Apply outstanding changes of the journal and confirm each of them once it is done.
+	 *
+	 * @param journal Journal with planned changes
+	 * @param out Output for summary of the changes
+	 * @throws GoogleGroupsIOException When API call fails
+	 */
+	private void applyJournal(MutationJournal journal, PrintStream out) throws GoogleGroupsIOException {
+
+		Set<String> insertedGroups = new HashSet<>();
+		Set<String> parts = new LinkedHashSet<>();
+		List<ChangePlan.Change> outstanding = journal.getStatus().getOutstanding();
+
+		// outstanding changes might have been done before the job was interrupted, only their confirmation is missing
+		apiCalls.setReplaying(journal.isResumed());
+		if (journal.isResumed() && outstanding.stream().anyMatch(change -> change.getOp() == ChangePlan.Op.CREATE_DRIVE)) {
+			// planned drives might have been created before the job was interrupted
+			existingDrives = new HashMap<>();
+			for (Drive drive : getTeamDrives().toList()) {
+				existingDrives.put(drive.getName(), drive);
+			}
+		}
+
+		for (ChangePlan.Change change : outstanding) {
+			long seq = change.getSeq();
+			applyChange(change, insertedGroups, parts, () -> journal.done(seq));
+		}
+		log.info("Outstanding changes of journal submitted: {}.", outstanding.size());
+
+		finishApply();
+		confirmCreatedDrives();
+		out.println("Journal changes: " + outstanding.size());
+		printApplySummary(parts, out);
+
+	}
+
+	/**
+	 * Submit single planned change to the executors. Changes must be submitted in planned order.
+	 *
+	 * @param change Planned change
+	 * @param insertedGroups Groups inserted by previous changes, whose members must wait for them
+	 * @param parts Parts (actions) of previous changes
+	 * @param onDone Called when change is done
+	 * @throws GoogleGroupsIOException When API call fails
+	 */
+	private void applyChange(ChangePlan.Change change, Set<String> insertedGroups, Set<String> parts, Runnable onDone) throws GoogleGroupsIOException {
+
+		String part = change.getOp().getAction();
+		if (!parts.isEmpty() && !parts.contains(part)) {
+			// next part might depend on previous one (e.g. members on users), finish it first
+			finishApply();
+		}
+		if (part != null) parts.add(part);
+
+		switch (change.getOp()) {
+			case INSERT_USER:
+				User user = change.getUser();
+				insertUser(user, () -> {
+					log.info("User created: {}", user.getPrimaryEmail());
+					usersInserted.incrementAndGet();
+					onDone.run();
+				});
+				break;
+			case UPDATE_USER:
+				User updatedUser = change.getUser();
+				updateUser(change.getKey(), updatedUser, () -> {
+					if (Boolean.TRUE.equals(updatedUser.getSuspended())) {
+						log.info("User suspended: {}", change.getKey());
+						usersSuspended.incrementAndGet();
 					} else {
-						session.processGroups(groups);
-						log.info("Processing of groups done.");
+						log.info("User updated: {}", change.getKey());
+						usersUpdated.incrementAndGet();
 					}
-					System.out.println("Groups inserted: "+groupsInserted);
-					System.out.println("Groups updated: "+groupsUpdated);
-					System.out.println("Groups with updated members: "+groupsUpdatedMembers);
-					System.out.println("Groups deleted: "+groupsDeleted);
-					return;
-
-				case "teamDrives":
-					Map<TeamDrive, List<User>> drivesWithMembers = session.parseTeamDrivesFile(inputFile);
-					log.info("Team drives file parsed...");
-					if (drivesWithMembers == null || drivesWithMembers.isEmpty()) {
-						log.warn("Processing of team drives skipped.");
+					onDone.run();
+				});
+				break;
+			case DELETE_USER:
+				deleteUser(change.getKey(), () -> {
+					log.info("User deleted: {}", change.getKey());
+					usersDeleted.incrementAndGet();
+					onDone.run();
+				});
+				break;
+			case INSERT_GROUP:
+				insertGroup(change.getGroup(), () -> {
+					log.info("Group created: {}", change.getKey());
+					groupsInserted.incrementAndGet();
+					onDone.run();
+				});
+				insertedGroups.add(change.getKey());
+				break;
+			case UPDATE_GROUP:
+				updateGroup(change.getKey(), change.getGroup(), () -> {
+					log.info("Group updated: {}", change.getKey());
+					groupsUpdated.incrementAndGet();
+					onDone.run();
+				});
+				break;
+			case DELETE_GROUP:
+				deleteGroup(change.getKey(), () -> {
+					log.info("Group deleted: {}", change.getKey());
+					groupsDeleted.incrementAndGet();
+					onDone.run();
+				});
+				break;
+			case INSERT_MEMBER:
+				String groupName = change.getGroup().getEmail();
+				// members can be inserted only after the group itself
+				if (insertedGroups.remove(groupName)) mutations.await("group:" + groupName);
+				insertMember(groupName, change.getMember(), () -> {
+					groupMembersAdded.incrementAndGet();
+					onDone.run();
+				});
+				break;
+			case DELETE_MEMBER:
+				deleteMember(change.getGroup().getEmail(), change.getKey(), () -> {
+					groupMembersRemoved.incrementAndGet();
+					onDone.run();
+				});
+				break;
+			case CREATE_DRIVE:
+				List<User> users = new ArrayList<>();
+				for (String email : change.getUsers()) {
+					users.add(new User().setPrimaryEmail(email));
+				}
+				// drive is done only once its permissions are, see confirmCreatedDrives()
+				drivesFanOut.submit(change.getKey(), () -> {
+					Drive existing = (existingDrives != null) ? existingDrives.get(change.getKey()) : null;
+					if (existing != null) {
+						log.info("TeamDrive {} already exists, reconciling its permissions.", existing.getName());
+						reconcileTeamDrivePermissions(existing, users);
+						createdDrives.add(new AbstractMap.SimpleEntry<>(existing, onDone));
 					} else {
-						session.processTeamDrives(drivesWithMembers);
-						log.info("Processing of team drives done.");
+						Drive drive = change.getDrive();
+						createTeamDrive(drive, users);
+						createdDrives.add(new AbstractMap.SimpleEntry<>(drive, onDone));
 					}
-					System.out.println("Team drives inserted: " + teamDrivesInserted);
-					System.out.println("Team drives deleted: " + teamDrivesDeleted);
-					System.out.println("Team drive permissions added: " + teamDriveUsersAdded);
-					System.out.println("Team drive permissions deleted: " + teamDriveUsersDeleted);
-					return;
+				});
+				break;
+			case DELETE_DRIVE:
+				deleteTeamDrive(change.getDrive());
+				teamDrivesDeleted.incrementAndGet();
+				onDone.run();
+				break;
+			case INSERT_PERMISSION:
+				insertPermission(change.getDrive(), change.getUser(), () -> {
+					teamDriveUsersAdded.incrementAndGet();
+					onDone.run();
+				});
+				break;
+			case DELETE_PERMISSION:
+				deletePermission(change.getDrive(), new Permission().setId(change.getKey()), () -> {
+					teamDriveUsersDeleted.incrementAndGet();
+					onDone.run();
+				});
+				break;
+			default:
+				throw new GoogleGroupsIOException("Unexpected change " + change.getOp() + " of " + change.getKey() + ".");
+		}
+
+	}
 
+	/**
+	 * Wait for all submitted changes to be done.
+	 *
+	 * @throws GoogleGroupsIOException When API call fails
+	 */
+	private void finishApply() throws GoogleGroupsIOException {
+		drivesFanOut.awaitAll();
+		directoryBatch.flush();
+		driveBatch.flush();
+		retryDeadLetters();
+	}
 
-				default:
-					log.error("Invalid action: {}. Please use: \"users\" or \"groups\" as action.", action);
-					throw new IllegalArgumentException("Invalid action: " + action + ". Please use: \"users\" or \"groups\" as action.");
+	/**
+	 * Confirm drives created by applied changes, whose permissions were all done.
+	 * Must be called once all submitted changes are done.
+	 */
+	private void confirmCreatedDrives() {
+		Set<String> failedKeys = new HashSet<>();
+		if (deadLetters != null) {
+			for (DeadLetterQueue.Entry entry : deadLetters.getEntries()) {
+				failedKeys.add(entry.getEntityKey());
+			}
+		}
+		synchronized (createdDrives) {
+			for (Map.Entry<Drive, Runnable> created : createdDrives) {
+				String prefix = "permission:" + created.getKey().getId() + "/";
+				if (failedKeys.stream().anyMatch(key -> key.startsWith(prefix))) {
+					log.warn("Some permissions of TeamDrive {} failed, it stays outstanding.", created.getKey().getName());
+				} else {
+					created.getValue().run();
+				}
 			}
+			createdDrives.clear();
+		}
+	}
 
-		} catch (Throwable ex) {
-			// make sure java ends with non-zero exit code on fail.
-			System.out.println(ex.getClass().getSimpleName() + ": " + ex.getMessage());
-			System.exit(1);
+	private void printApplySummary(Set<String> parts, PrintStream out) {
+		if (parts.contains("users")) printUsersSummary(out);
+		if (parts.contains("groups")) printGroupsSummary(out);
+		if (parts.contains("teamDrives")) printTeamDrivesSummary(out);
+	}
+
+	private void printUsersSummary(PrintStream out) {
+		out.println("Users inserted: "+usersInserted.get());
+		out.println("Users updated: "+usersUpdated.get());
+		out.println("Users suspended: "+usersSuspended.get());
+		out.println("Users deleted: "+usersDeleted.get());
+	}
+
+	private void printGroupsSummary(PrintStream out) {
+		out.println("Groups inserted: "+groupsInserted.get());
+		out.println("Groups updated: "+groupsUpdated.get());
+		out.println("Groups with updated members: "+groupsUpdatedMembers.get());
+		out.println("Groups with unchanged members (cached): "+groupsCachedMembers.get());
+		out.println("Group members added: "+groupMembersAdded.get());
+		out.println("Group members removed: "+groupMembersRemoved.get());
+		if (groupMembersSkipped.get() > 0) out.println("Group members skipped (not in domain): "+groupMembersSkipped.get());
+		out.println("Groups deleted: "+groupsDeleted.get());
+	}
+
+	private void printTeamDrivesSummary(PrintStream out) {
+		out.println("Team drives inserted: " + teamDrivesInserted.get());
+		out.println("Team drives deleted: " + teamDrivesDeleted.get());
+		out.println("Team drives with unchanged permissions (cached): " + teamDrivesCached.get());
+		out.println("Team drive permissions added: " + teamDriveUsersAdded.get());
+		out.println("Team drive permissions deleted: " + teamDriveUsersDeleted.get());
+	}
+
+	/**
+	 * List users, groups and TeamDrives of the domain concurrently.
+	 * Start page token of Drive changes is taken before drives are listed, so concurrent changes are seen next time.
+	 *
+	 * @return Snapshot of the domain
+	 * @throws GoogleGroupsIOException When API call fails
+	 */
+	private DomainSnapshot fetchSnapshot() throws GoogleGroupsIOException {
+
+		ExecutorService pool = Executors.newFixedThreadPool(3, runnable -> {
+			Thread thread = new Thread(runnable, "snapshot");
+			thread.setDaemon(true);
+			return thread;
+		});
+		Map<String, String> context = MDC.getCopyOfContextMap();
+		try {
+			CompletableFuture<List<User>> users = listAsync(pool, context, () -> getDomainUsers(domainName, Projection.SNAPSHOT_USERS).toList());
+			CompletableFuture<List<Group>> groups = listAsync(pool, context, () -> getDomainGroups(domainName, Projection.SNAPSHOT_GROUPS).toList());
+			CompletableFuture<Map.Entry<String, List<Drive>>> drives = listAsync(pool, context, () -> {
+				String startPageToken = (driveState != null) ? getStartPageToken() : null;
+				return new AbstractMap.SimpleEntry<>(startPageToken, getTeamDrives().toList());
+			});
+			DomainSnapshot result = new DomainSnapshot(users.join(), groups.join(), drives.join().getValue(), drives.join().getKey());
+			log.info("Domain snapshot fetched - users: {}, groups: {}, team drives: {}.", result.getUsers().size(), result.getGroups().size(), result.getDrives().size());
+			return result;
+		} catch (CompletionException ex) {
+			if (ex.getCause() instanceof GoogleGroupsIOException) throw (GoogleGroupsIOException) ex.getCause();
+			throw new GoogleGroupsIOException("Something went wrong while listing domain " + domainName, ex.getCause());
+		} finally {
+			pool.shutdown();
+		}
+
+	}
+
+	/**
+	 * Listing of the domain, which can fail with API error.
+	 */
+	@FunctionalInterface
+	private interface Listing<T> {
+		T list() throws GoogleGroupsIOException;
+	}
+
+	private static <T> CompletableFuture<T> listAsync(ExecutorService pool, Map<String, String> context, Listing<T> listing) {
+		return CompletableFuture.supplyAsync(() -> {
+			if (context != null) MDC.setContextMap(context);
+			try {
+				return listing.list();
+			} catch (GoogleGroupsIOException ex) {
+				throw new CompletionException(ex);
+			} finally {
+				MDC.clear();
+			}
+		}, pool);
+	}
+
+	/**
+	 * Retry failed work collected in dead letter queue once more.
+	 * Work which fails again stays in the queue and is reported at the end of the run.
+	 *
+	 * @throws GoogleGroupsIOException When retried work can't be submitted
+	 */
+	private void retryDeadLetters() throws GoogleGroupsIOException {
+		if (deadLetters == null || deadLetters.isEmpty()) return;
+		List<DeadLetterQueue.Entry> entries = deadLetters.drain();
+		log.info("Retrying {} failed operations.", entries.size());
+		for (DeadLetterQueue.Entry entry : entries) {
+			try {
+				entry.getRetry().execute();
+			} catch (GoogleGroupsIOException ex) {
+				deadLetters.add(entry.getEntityKey(), ex, entry.getRetry());
+			}
 		}
+		// retried tasks might have queued new changes
+		directoryBatch.flush();
+		driveBatch.flush();
+		log.info("Retry done, {} failed operations remain.", deadLetters.getEntries().size());
+	}
 
+	/**
+	 * Print number of pages and bytes fetched by list calls, time spent waiting for rate limits and number of retries to the summary output.
+	 *
+	 * @param out Output for summary of the job
+	 */
+	private void printListingStats(PrintStream out) {
+		for (Projection projection : Projection.values()) {
+			if (listingStats.getPages(projection) > 0) {
+				out.println("Listed " + projection.name().toLowerCase() + ": " + listingStats.getPages(projection) +
+						" pages, " + listingStats.getBytes(projection) + " bytes");
+			}
+		}
+		for (ApiQuota quota : ApiQuota.values()) {
+			if (apiCalls.getThrottledMillis(quota) > 0) {
+				out.println("Rate limited " + quota.name().toLowerCase() + ": " + apiCalls.getThrottledMillis(quota) + " ms");
+			}
+			if (apiCalls.getRetries(quota) > 0) {
+				out.println("Retried " + quota.name().toLowerCase() + ": " + apiCalls.getRetries(quota) + " calls");
+			}
+			if (apiCalls.getConcurrencyLimit(quota) != null) {
+				out.println("Concurrency limit " + quota.name().toLowerCase() + ": " + apiCalls.getConcurrencyLimit(quota));
+			}
+		}
+		if (apiCalls.getReadinessMillis() > 0) {
+			out.println("Waited for created entities to be readable: " + apiCalls.getReadinessMillis() + " ms");
+		}
 	}
 
 	@Override
 	public List<User> parseUserFile(File usersFile) {
 
 		List<User> result = new ArrayList<>();
-		FileReader fileReader = null;
 		try {
 
-			fileReader = new FileReader(usersFile);
-			CSVReader reader = createCSVReader(fileReader);
+			long rows = readRows(usersFile, (line, lineNumber) -> {
 
-			List<String[]> lines = reader.readAll();
-			if (lines != null && !lines.isEmpty()) {
-
-				for (String[] line : lines) {
-
-					if (line.length < 4) {
-						log.error("Users file contains row with less than 4 columns: {}", (Object) line);
-						throw new IllegalArgumentException("Users file contains row with less than 4 columns:" + line[0]);
-					}
+				if (line.length < 4) {
+					log.error("Users file contains row with less than 4 columns on line {}: {}", lineNumber, (Object) line);
+					throw new IllegalArgumentException("Users file contains row with less than 4 columns on line " + lineNumber + ":" + line[0]);
+				}
 
-					User user = new User();
-					// primary user identifier
-					user.setPrimaryEmail(line[0]);
+				User user = new User();
+				// primary user identifier
+				user.setPrimaryEmail(line[0]);
 
-					// skip group outside own domain !!
-					if (!Objects.equals(user.getPrimaryEmail().substring(user.getPrimaryEmail().indexOf("@")+1), domainName)) {
-						log.warn("User: {} is not from your domain: {}. Skip it.", user, domainName);
-						continue;
-					}
+				// skip group outside own domain !!
+				if (!Objects.equals(user.getPrimaryEmail().substring(user.getPrimaryEmail().indexOf("@")+1), domainName)) {
+					log.warn("User: {} is not from your domain: {}. Skip it.", user, domainName);
+					return null;
+				}
 
-					UserName name = new UserName();
-					String fullName = "";
-					// set given name
+				UserName name = new UserName();
+				String fullName = "";
+				// set given name
+				if (line[1] != null && !line[1].isEmpty()) {
+					name.setGivenName(line[1]);
+					fullName += line[1];
+				}
+				// set family name
+				if (line[2] != null && !line[2].isEmpty()) {
+					name.setFamilyName(line[2]);
+					// correctly set full name
 					if (line[1] != null && !line[1].isEmpty()) {
-						name.setGivenName(line[1]);
-						fullName += line[1];
-					}
-					// set family name
-					if (line[2] != null && !line[2].isEmpty()) {
-						name.setFamilyName(line[2]);
-						// correctly set full name
-						if (line[1] != null && !line[1].isEmpty()) {
-							fullName += " " + line[2];
-						} else {
-							fullName += line[2];
-						}
+						fullName += " " + line[2];
+					} else {
+						fullName += line[2];
 					}
-					if (!fullName.isEmpty()) name.setFullName(fullName);
+				}
+				if (!fullName.isEmpty()) name.setFullName(fullName);
 
-					// set name to user
-					user.setName(name);
+				// set name to user
+				user.setName(name);
 
-					// set status
-					user.setSuspended(("suspended".equals(line[3])));
+				// set status
+				user.setSuspended(("suspended".equals(line[3])));
 
-					// add user to list
-					result.add(user);
-				}
+				return user;
 
-				return result;
+			}, result::add);
 
-			} else {
+			if (rows == 0) {
 				log.error("Users file contains no rows.");
 				throw new IllegalArgumentException("Users file contains no rows.");
 			}
+			return result;
 
 		} catch (FileNotFoundException ex) {
 			log.error("Users file {} was not found: {}", usersFile.getAbsolutePath(), ex);
 		} catch (IOException ex) {
 			log.error("Problem with I/O operation while reading lines of file {} by FileReader.readNext() or getting file: {}", usersFile.getAbsolutePath(), ex);
 		} catch (CsvException ex) {
-			log.error("Users file {} is invalid CSV. ", usersFile.getAbsolutePath(), ex);
-		} finally {
-			try {
-				if (fileReader != null) fileReader.close();
-			} catch (IOException ex) {
-				log.error("Problem with I/O operation while closing file {} : {}", usersFile.getAbsolutePath(), ex);
-			}
+			log.error("Users file {} is invalid CSV on line {}. ", usersFile.getAbsolutePath(), ex.getLineNumber(), ex);
 		}
 
 		return null;
@@ -263,443 +990,588 @@ public class GoogleGroupsServiceImpl implements GoogleGroupsService {
 	public List<Group> parseGroupsFile(File groupsFile) {
 
 		List<Group> result = new ArrayList<>();
-		FileReader fileReader = null;
 		try {
 
-			fileReader = new FileReader(groupsFile);
-
-			CSVReader reader = createCSVReader(fileReader);
-
-			List<String[]> lines = reader.readAll();
-			if (lines != null && !lines.isEmpty()) {
-
-				for (String[] line : lines) {
-
-					if (line.length < 3) {
-						log.error("Groups file contains row with less than 3 columns: {}", (Object) line);
-						throw new IllegalArgumentException("Groups file contains row with less than 3 columns:" + line[0]);
-					}
+			long rows = readGroups(groupsFile, (group, members) -> {
+				result.add(group);
+				groupsMembers.putIfAbsent(group.getEmail(), members);
+			});
 
-					Group group = new Group();
-					group.setEmail(line[0].toLowerCase()); // since Google is case insensitive
-					if (line[1] != null && !line[1].isEmpty()) {
-						group.setName(line[1]);
-					}
-
-					// skip group outside own domain !!
-					if (!Objects.equals(group.getEmail().substring(group.getEmail().indexOf("@")+1), domainName)) {
-						log.warn("Group: {} is not from your domain: {}. Skip it.", group, domainName);
-						continue;
-					}
-
-					result.add(group);
-
-					if (line[2] != null && !line[2].isEmpty()) {
-						groupsMembers.putIfAbsent(group.getEmail(), Arrays.asList(line[2].split(",")));
-					} else {
-						groupsMembers.putIfAbsent(group.getEmail(), new ArrayList<>());
-					}
-
-				}
-
-				return result;
-
-			} else {
+			if (rows == 0) {
 				log.error("Groups file contains no rows.");
 				throw new IllegalArgumentException("Groups file contains no rows.");
 			}
+			return result;
 
 		} catch (FileNotFoundException ex) {
 			log.error("Groups  file {} was not found: {}", groupsFile.getAbsolutePath(), ex);
 		} catch (IOException ex) {
 			log.error("Problem with I/O operation while reading lines of file {} by FileReader.readNext() or getting file: {}", groupsFile.getAbsolutePath(), ex);
 		} catch (CsvException ex) {
-			log.error("Groups file {} is invalid CSV. ", groupsFile.getAbsolutePath(), ex);
-		} finally {
-			try {
-				if (fileReader != null) fileReader.close();
-			} catch (IOException ex) {
-				log.error("Problem with I/O operation while closing file {} : {}", groupsFile.getAbsolutePath(), ex);
-			}
+			log.error("Groups file {} is invalid CSV on line {}. ", groupsFile.getAbsolutePath(), ex.getLineNumber(), ex);
 		}
 
 		return null;
 
 	}
 
-	@Override
-	public Map<TeamDrive, List<User>> parseTeamDrivesFile(File teamDriveFile) {
+	/**
+	 * Read groups file row by row and pass each group from own domain to the handler.
+	 * Rows are not kept in memory.
+	 *
+	 * @param groupsFile CSV input file
+	 * @param handler Handler of groups
+	 * @return Number of read rows
+	 * @throws IOException When file can't be read
+	 * @throws CsvException When file is invalid CSV
+	 * @throws E When handler fails
+	 */
+	private <E extends Exception> long readGroups(File groupsFile, GroupHandler<E> handler) throws IOException, CsvException, E {
 
-		Map<TeamDrive, List<User>> result = new HashMap<>();
-		FileReader fileReader = null;
+		return readRows(groupsFile, (line, lineNumber) -> {
 
-		try {
+			if (line.length < 3) {
+				log.error("Groups file contains row with less than 3 columns on line {}: {}", lineNumber, (Object) line);
+				throw new IllegalArgumentException("Groups file contains row with less than 3 columns on line " + lineNumber + ":" + line[0]);
+			}
 
-			fileReader = new FileReader(teamDriveFile);
+			Group group = new Group();
+			group.setEmail(line[0].toLowerCase()); // since Google is case insensitive
+			if (line[1] != null && !line[1].isEmpty()) {
+				group.setName(line[1]);
+			}
 
-			CSVReader reader = createCSVReader(fileReader);
+			// skip group outside own domain !!
+			if (!Objects.equals(group.getEmail().substring(group.getEmail().indexOf("@")+1), domainName)) {
+				log.warn("Group: {} is not from your domain: {}. Skip it.", group, domainName);
+				return null;
+			}
 
-			List<String[]> lines = reader.readAll();
-			if (lines != null && !lines.isEmpty()) {
+			if (line[2] != null && !line[2].isEmpty()) {
+				return new AbstractMap.SimpleEntry<Group, List<String>>(group, Arrays.asList(line[2].split(",")));
+			} else {
+				return new AbstractMap.SimpleEntry<Group, List<String>>(group, new ArrayList<>());
+			}
 
-				for (String[] line : lines) {
+		}, row -> handler.accept(row.getKey(), row.getValue()));
 
-					if (line.length < 2) {
-						log.error("TeamDrive file contains row with less than 2 columns: {}", (Object) line);
-						throw new IllegalArgumentException("TeamDrive file contains row with less than 3 columns:" + line[0]);
-					}
+	}
 
-					TeamDrive teamDriveResult = new TeamDrive();
-					List<User> userListResult = new ArrayList<>();
+	@Override
+	public Map<Drive, List<User>> parseTeamDrivesFile(File teamDriveFile) {
 
-					teamDriveResult.setName(line[0]);
+		Map<Drive, List<User>> result = new HashMap<>();
 
-					if (line[1] != null && !line[1].isEmpty()) {
-						String[] membersEmail = line[1].split(",");
-						for (String userMail : membersEmail) {
-							userMail = userMail.replaceAll("\\s+", "");
-							User user = new User();
-							user.setPrimaryEmail(userMail);
-							userListResult.add(user);
-						}
-					}
+		try {
+
+			long rows = readRows(teamDriveFile, (line, lineNumber) -> {
 
-					result.put(teamDriveResult, userListResult);
+				if (line.length < 2) {
+					log.error("TeamDrive file contains row with less than 2 columns on line {}: {}", lineNumber, (Object) line);
+					throw new IllegalArgumentException("TeamDrive file contains row with less than 2 columns on line " + lineNumber + ":" + line[0]);
 				}
 
-				return result;
-			} else {
+				Drive teamDriveResult = new Drive();
+				List<User> userListResult = new ArrayList<>();
+
+				teamDriveResult.setName(line[0]);
+
+				if (line[1] != null && !line[1].isEmpty()) {
+					String[] membersEmail = line[1].split(",");
+					for (String userMail : membersEmail) {
+						userMail = userMail.replaceAll("\\s+", "");
+						User user = new User();
+						user.setPrimaryEmail(userMail);
+						userListResult.add(user);
+					}
+				}
+
+				return new AbstractMap.SimpleEntry<>(teamDriveResult, userListResult);
+
+			}, row -> result.put(row.getKey(), row.getValue()));
+
+			if (rows == 0) {
 				log.error("Team drive file contains no rows.");
 				throw new IllegalArgumentException("Team drive file contains no rows.");
 			}
+			return result;
+
 		} catch (IOException ex) {
 			log.error("Problem with I/O operation while reading lines of file {} by FileReader.readNext() or getting file: {}", teamDriveFile.getAbsolutePath(), ex);
 		} catch (CsvException ex) {
-			log.error("TeamDrive file {} is invalid CSV. ", teamDriveFile.getAbsolutePath(), ex);
-		} finally {
-			try {
-				if (fileReader != null) fileReader.close();
-			} catch (IOException ex) {
-				log.error("Problem with I/O operation while closing file {} : {}", teamDriveFile.getAbsolutePath(), ex);
-			}
+			log.error("TeamDrive file {} is invalid CSV on line {}. ", teamDriveFile.getAbsolutePath(), ex.getLineNumber(), ex);
 		}
+
 		return null;
+
 	}
 
-	@Override
-	public void processUsers(List<User> users) throws GoogleGroupsIOException {
+	/**
+	 * Read CSV file row by row, map each row to entity and pass entities to the handler in order of the file.
+	 * Rows are not kept in memory.
+	 * <p>
+	 * When "parsing_threads" is more than 1, file is parsed in chunks by {@link ChunkedCsvParser}, unless
+	 * it contains quotes or escapes, which only full CSV parser can handle.
+	 *
+	 * @param file CSV input file
+	 * @param mapper Maps row to entity or NULL if row is skipped
+	 * @param handler Handler of entities
+	 * @return Number of read rows
+	 * @throws IOException When file can't be read
+	 * @throws CsvException When file is invalid CSV
+	 * @throws E When handler fails
+	 */
+	private <T, E extends Exception> long readRows(File file, ChunkedCsvParser.RowMapper<T> mapper, ChunkedCsvParser.RowHandler<T, E> handler) throws IOException, CsvException, E {
+
+		int parsingThreads = Integer.parseInt(properties.getProperty("parsing_threads", "1"));
+		if (parsingThreads > 1) {
+			// same charset as FileReader
+			long rows = new ChunkedCsvParser(parsingThreads, ';', Charset.defaultCharset()).parse(file.toPath(), mapper, handler);
+			if (rows >= 0) return rows;
+			log.info("File {} contains quotes or escapes, it is parsed by single thread.", file.getAbsolutePath());
+		}
 
-		Users du = getDomainUsers(domainName);
-		if (du != null && !du.isEmpty() && du.getUsers() != null && !du.getUsers().isEmpty()) {
+		long rows = 0;
+		try (FileReader fileReader = new FileReader(file)) {
+			CSVReader reader = createCSVReader(fileReader);
+			// row might span more lines, report the first one
+			long lineNumber = reader.getLinesRead() + 1;
+			String[] line;
+			while ((line = reader.readNext()) != null) {
+				rows++;
+				T row = mapper.map(line, lineNumber);
+				if (row != null) handler.accept(row);
+				lineNumber = reader.getLinesRead() + 1;
+			}
+		}
+		return rows;
 
-			// domain is not empty, compare state
-			List<User> domainUsers = new ArrayList<>(du.getUsers());
+	}
 
-			for (User user : users) {
-				User domainUser = null;
-				for (User userInDomain : domainUsers) {
-					if (Objects.equals(userInDomain.getPrimaryEmail(), user.getPrimaryEmail())) {
-						domainUser = userInDomain;
-						break;
-					}
-				}
+	/**
+	 * Handler of single group from groups file.
+	 */
+	@FunctionalInterface
+	private interface GroupHandler<E extends Exception> {
+		void accept(Group group, List<String> members) throws E;
+	}
 
-				if (domainUser == null) {
+	@Override
+	public void processUsers(List<User> users) throws GoogleGroupsIOException {
 
-					// create new user
-					if (!user.getSuspended()) {
-						insertUser(user);
-						log.info("User created: {}", user.getPrimaryEmail());
-						usersInserted++;
-					} else {
-						log.warn("User not created - is in suspended state: {}", user.getPrimaryEmail());
-					}
+		UsersDiff diff = new UsersDiff(users, Boolean.parseBoolean(properties.getProperty("allow_delete", "false")));
 
-				} else {
+		// compare state while domain users are fetched
+		Paginator<User> domainUsers = getDomainUsers(domainName);
+		while (domainUsers.hasNext()) {
+			diff.addDomainUser(domainUsers.next());
+		}
 
-					// already in domain - update name and status if changed
-					if (!Objects.equals(user.getName().getFamilyName(), domainUser.getName().getFamilyName()) ||
-							!Objects.equals(user.getName().getGivenName(), domainUser.getName().getGivenName()) ||
-							!Objects.equals(user.getSuspended(), domainUser.getSuspended())) {
+		// create new users
+		for (User user : diff.getToInsert()) {
+			if (snapshot != null) snapshot.addEmail(user.getPrimaryEmail());
+			insertUser(user, () -> {
+				log.info("User created: {}", user.getPrimaryEmail());
+				usersInserted.incrementAndGet();
+			});
+		}
+		for (User user : diff.getSkippedSuspended()) {
+			log.warn("User not created - is in suspended state: {}", user.getPrimaryEmail());
+		}
 
-						updateUser(user.getPrimaryEmail(), user);
-						log.info("User updated: {}", user.getPrimaryEmail());
-						usersUpdated++;
-						if (user.getSuspended()) usersSuspended++;
+		// already in domain - update name and status if changed
+		for (User user : diff.getToUpdate()) {
+			updateUser(user.getPrimaryEmail(), user, () -> {
+				log.info("User updated: {}", user.getPrimaryEmail());
+				usersUpdated.incrementAndGet();
+				if (user.getSuspended()) usersSuspended.incrementAndGet();
+			});
+		}
+		for (User user : diff.getUnchanged()) {
+			log.info("User skipped: {}", user.getPrimaryEmail());
+		}
 
-					} else {
-						log.info("User skipped: {}", user.getPrimaryEmail());
-					}
+		// users missing in Perun - deletion of domain users is disabled
+		for (User userInDomain : diff.getToSuspend()) {
+			userInDomain.setSuspended(true);
+			// output only field
+			userInDomain.setAliases(null);
+			updateUser(userInDomain.getPrimaryEmail(), userInDomain, () -> {
+				log.info("User suspended: {}", userInDomain.getPrimaryEmail());
+				usersSuspended.incrementAndGet();
+			});
+		}
 
-				}
+		// users missing in Perun - deleting domain users is allowed
+		for (User userInDomain : diff.getToDelete()) {
+			// deleted user can't be member of groups anymore
+			if (snapshot != null) snapshot.removeUser(userInDomain);
+			deleteUser(userInDomain.getPrimaryEmail(), () -> {
+				log.info("User deleted: {}", userInDomain.getPrimaryEmail());
+				usersDeleted.incrementAndGet();
+			});
+		}
 
-			}
+		// wait for all changes to be done
+		directoryBatch.flush();
+		retryDeadLetters();
 
-			// check users for removal
-			for (User userInDomain : domainUsers) {
-				boolean isInPerun = false;
-				for (User user : users) {
-					if (Objects.equals(userInDomain.getPrimaryEmail(), user.getPrimaryEmail())) {
-						isInPerun = true;
-						break;
-					}
-				}
+	}
 
-				if (!isInPerun) {
+	@Override
+	public void processGroups(List<Group> groups) throws GoogleGroupsIOException {
+
+		// index Perun groups by email, first occurrence wins
+		Map<String, Group> perunGroups = new LinkedHashMap<>();
+		for (Group group : groups) {
+			perunGroups.putIfAbsent(UsersDiff.normalize(group.getEmail()), group);
+			// groups might be members of each other
+			if (snapshot != null) snapshot.addEmail(group.getEmail());
+		}
+		Set<String> domainGroupEmails = new HashSet<>();
 
-					if (Boolean.getBoolean(properties.getProperty("allow_delete", "false"))) {
-						// deleting domain users is allowed
-						deleteUser(userInDomain.getPrimaryEmail());
-						log.info("User deleted: {}", userInDomain.getPrimaryEmail());
-						usersDeleted++;
-					} else {
-						// deletion of domain users is disabled - suspend instead
-						if (!userInDomain.getSuspended()) {
-							userInDomain.setSuspended(true);
-							updateUser(userInDomain.getPrimaryEmail(), userInDomain);
-							log.info("User suspended: {}", userInDomain.getPrimaryEmail());
-							usersSuspended++;
-						}
-					}
+		// compare state while domain groups are fetched
+		Paginator<Group> domainGroups = getDomainGroups(domainName);
+		while (domainGroups.hasNext()) {
 
-				}
+			Group domainGroup = domainGroups.next();
+			String key = UsersDiff.normalize(domainGroup.getEmail());
+			if (!domainGroupEmails.add(key)) continue;
 
+			Group group = perunGroups.get(key);
+			if (group == null) {
+				// not in Perun - delete group
+				removeGroup(domainGroup);
+			} else {
+				// already in domain - update group
+				reconcileGroup(group, getPerunMembers(group), domainGroup);
 			}
 
-		} else {
-
-			// domain is empty, add all Perun users
-			for (User user : users) {
-				if (!user.getSuspended()) {
-					insertUser(user);
-					log.info("User created: {}", user.getPrimaryEmail());
-					usersInserted++;
-				} else {
-					log.warn("User not created - is in suspended state: {}", user.getPrimaryEmail());
-				}
-			}
+		}
 
+		for (Map.Entry<String, Group> entry : perunGroups.entrySet()) {
+			if (domainGroupEmails.contains(entry.getKey())) continue;
+			// not in domain - create group
+			createGroup(entry.getValue(), getPerunMembers(entry.getValue()));
 		}
 
+		finishGroups();
+
 	}
 
 	@Override
-	public void processGroups(List<Group> groups) throws GoogleGroupsIOException, InterruptedException {
+	public void processGroupsStream(File groupsFile) throws GoogleGroupsIOException, IOException {
+
+		// index domain groups first, so groups file doesn't have to be kept in memory
+		Map<String, Group> domainGroups = new LinkedHashMap<>();
+		Paginator<Group> domainGroupsPaginator = getDomainGroups(domainName);
+		while (domainGroupsPaginator.hasNext()) {
+			Group domainGroup = domainGroupsPaginator.next();
+			domainGroups.putIfAbsent(UsersDiff.normalize(domainGroup.getEmail()), domainGroup);
+		}
+		Set<String> perunGroupEmails = new HashSet<>();
 
-		Groups dg = getDomainGroups(domainName);
-		if (dg != null && !dg.isEmpty() && dg.getGroups() != null && !dg.getGroups().isEmpty()) {
+		// process groups as they are read, first occurrence wins
+		long rows;
+		try {
+			rows = readGroups(groupsFile, (group, members) -> {
+				String key = UsersDiff.normalize(group.getEmail());
+				if (!perunGroupEmails.add(key)) return;
+				Group domainGroup = domainGroups.remove(key);
+				if (domainGroup != null) {
+					// already in domain - update group
+					reconcileGroup(group, members, domainGroup);
+				} else {
+					// not in domain - create group
+					createGroup(group, members);
+				}
+			});
+		} catch (CsvException ex) {
+			throw new IllegalArgumentException("Groups file " + groupsFile.getAbsolutePath() + " is invalid CSV on line " + ex.getLineNumber() + ".", ex);
+		}
+		if (rows == 0) {
+			log.error("Groups file contains no rows.");
+			throw new IllegalArgumentException("Groups file contains no rows.");
+		}
+		log.info("Groups file processed...");
 
-			// domain is not empty, compare state
-			List<Group> domainGroups = new ArrayList<>(dg.getGroups());
+		if (perunGroupEmails.isEmpty()) {
+			// same as empty groups list, never delete all groups
+			log.warn("Groups file contains no group from your domain: {}, deleting of groups skipped.", domainName);
+		} else {
+			// not in Perun - delete remaining groups
+			for (Group domainGroup : domainGroups.values()) {
+				removeGroup(domainGroup);
+			}
+		}
 
-			for (Group group : groups) {
-				Group domainGroup = null;
-				for (Group groupInDomain : domainGroups) {
-					if (Objects.equals(groupInDomain.getEmail(), group.getEmail())) {
-						domainGroup = groupInDomain;
-						break;
-					}
-				}
+		finishGroups();
 
-				if (domainGroup == null) {
+	}
 
-					// not in domain - create group
-					insertGroup(group);
-					log.info("Group created: {}", group.getEmail());
-					groupsInserted++;
+	/**
+	 * Delete group missing in Perun from G Suite domain.
+	 *
+	 * @param domainGroup Group from domain
+	 * @throws GoogleGroupsIOException When API call fails.
+	 */
+	private void removeGroup(Group domainGroup) throws GoogleGroupsIOException {
+		deleteGroup(domainGroup.getEmail());
+		if (snapshot != null) snapshot.removeGroup(domainGroup);
+		if (membershipCache != null) membershipCache.remove(UsersDiff.normalize(domainGroup.getEmail()));
+		log.info("Group deleted: {}", domainGroup.getEmail());
+		groupsDeleted.incrementAndGet();
+	}
 
-					// FIXME - We must wait before asking for members of newly created groups
-					Thread.sleep(2000);
-					// handle group members
-					processGroupMembers(group);
+	/**
+	 * Update name and members of group existing in G Suite domain.
+	 *
+	 * @param group Group from Perun
+	 * @param members Member identifiers from Perun
+	 * @param domainGroup Group from domain
+	 * @throws GoogleGroupsIOException When API call fails.
+	 */
+	private void reconcileGroup(Group group, List<String> members, Group domainGroup) throws GoogleGroupsIOException {
 
-				} else {
+		String key = UsersDiff.normalize(group.getEmail());
 
-					// already in domain - update group name
+		// normalize group names - empty strings to nulls
+		if (domainGroup.getName() != null && domainGroup.getName().isEmpty()) {
+			domainGroup.setName(null);
+		}
+		if (group.getName() != null && group.getName().isEmpty()) {
+			group.setName(null);
+		}
 
-					// normalize group names - empty strings to nulls
-					if (domainGroup.getName() != null && domainGroup.getName().isEmpty()) {
-						domainGroup.setName(null);
-					}
-					if (group.getName() != null && group.getName().isEmpty()) {
-						group.setName(null);
-					}
+		boolean nameChanged = !Objects.equals(domainGroup.getName(), group.getName());
+		if (nameChanged) {
 
-					if (!Objects.equals(domainGroup.getName(), group.getName())) {
+			updateGroup(domainGroup.getEmail(), group);
+			log.info("Group updated: {}", group.getEmail());
+			groupsUpdated.incrementAndGet();
 
-						updateGroup(domainGroup.getEmail(), group);
-						log.info("Group updated: {}", group.getEmail());
-						groupsUpdated++;
+		} else {
+			log.info("Group skipped: {}", group.getEmail());
+		}
 
-					} else {
-						log.info("Group skipped: {}", group.getEmail());
-					}
+		// skip members, if neither members in Perun nor group in domain changed since last run
+		String membersHash = MembershipCache.hash(members, getMemberIdType());
+		if (membershipCache != null && !forceFullReconcile && membershipCache.isUnchanged(key, membersHash, domainGroup.getEtag())) {
+			log.info("Members of Group: {} skipped - unchanged since last run.", group.getEmail());
+			groupsCachedMembers.incrementAndGet();
+			return;
+		}
 
-					// handle group members
-					boolean changed = processGroupMembers(group);
-					if (changed) groupsUpdatedMembers++;
+		// handle group members
+		groupsFanOut.submit(group.getEmail(), () -> {
+			MembersDiff diff = diffGroupMembers(group, members);
+			boolean changed = applyGroupMembers(group, diff);
+			if (changed) groupsUpdatedMembers.incrementAndGet();
+			// skipped members must be added next time
+			boolean skipped = diff.getAdded().stream().anyMatch(this::isMissingInDomain);
+			// our own changes change ETag of the group, it is known only for unchanged group
+			if (membershipCache != null) membershipCache.put(key, membersHash, (changed || nameChanged || skipped) ? null : domainGroup.getEtag());
+		});
 
-				}
+	}
 
-			}
+	/**
+	 * Create group missing in G Suite domain and insert its members.
+	 *
+	 * @param group Group from Perun
+	 * @param members Member identifiers from Perun
+	 * @throws GoogleGroupsIOException When API call fails.
+	 */
+	private void createGroup(Group group, List<String> members) throws GoogleGroupsIOException {
 
-			// check groups for removal
-			for (Group groupInDomain : domainGroups) {
-				boolean isInPerun = false;
-				for (Group group : groups) {
-					if (Objects.equals(groupInDomain.getEmail(), group.getEmail())) {
-						isInPerun = true;
-						break;
-					}
-				}
+		if (snapshot != null) snapshot.addEmail(group.getEmail());
+		insertGroup(group);
+		log.info("Group created: {}", group.getEmail());
+		groupsInserted.incrementAndGet();
 
-				if (!isInPerun) {
-					deleteGroup(groupInDomain.getEmail());
-					log.info("Group deleted: {}", groupInDomain.getEmail());
-					groupsDeleted++;
-				}
+		// new group has no members, insert all of them without asking for them
+		groupsFanOut.submit(group.getEmail(), () -> {
+			// members can be inserted only after the group itself
+			mutations.await("group:" + group.getEmail());
+			applyGroupMembers(group, new MembersDiff(members, getMemberIdType()));
+		});
 
-			}
+	}
 
-		} else {
+	/**
+	 * Wait for all changes of groups to be done and remember applied members.
+	 *
+	 * @throws GoogleGroupsIOException When API call fails.
+	 */
+	private void finishGroups() throws GoogleGroupsIOException {
 
-			// domain is empty - add all Perun groups
-			for (Group group : groups) {
+		// wait for members of all groups
+		groupsFanOut.awaitAll();
 
-				insertGroup(group);
-				log.info("Group created: {}", group.getEmail());
-				groupsInserted++;
-				// FIXME - We must wait before asking for members of newly created groups
-				Thread.sleep(2000);
-				processGroupMembers(group);
+		// wait for all changes to be done
+		directoryBatch.flush();
+		retryDeadLetters();
 
+		// remember applied members for next run, groups with changes are always reconciled again
+		if (membershipCache != null && (!dryRun || journaled)) {
+			try {
+				membershipCache.save();
+			} catch (IOException ex) {
+				log.error("Unable to save membership cache, next run will reconcile all groups.", ex);
 			}
-
 		}
 
 	}
 
 	@Override
 	public boolean processGroupMembers(Group group) throws GoogleGroupsIOException {
+		return applyGroupMembers(group, diffGroupMembers(group));
+	}
 
-		boolean changed = false;
+	/**
+	 * Add and remove members of group in G Suite domain.
+	 *
+	 * @param group Group to update members for
+	 * @param diff Members to be added / removed
+	 * @return TRUE = group members changed / group members unchanged
+	 * @throws GoogleGroupsIOException When API call fails.
+	 */
+	private boolean applyGroupMembers(Group group, MembersDiff diff) throws GoogleGroupsIOException {
 
-		// check, what kind of user/member identifier is used in groups file (by config)
-		String memberIdType = properties.getProperty("member_identifier", "id");
+		String memberIdType = getMemberIdType();
 
-		if (!Objects.equals("id", memberIdType) &&
-				!Objects.equals("email", memberIdType)) {
-			log.warn("Type of member id must be one of 'id' or 'email', but was: {}. Falling back to: {}", memberIdType, "id");
-			memberIdType = "id";
-		}
+		for (String memberId : diff.getAdded()) {
 
-		Members dgm = getGroupsMembers(group.getEmail());
-		if (dgm != null && !dgm.isEmpty() && dgm.getMembers() != null && !dgm.getMembers().isEmpty()) {
+			if (isMissingInDomain(memberId)) {
+				log.warn("Member: {} not inserted to Group: {} - no such user or group in domain.", memberId, group.getEmail());
+				groupMembersSkipped.incrementAndGet();
+				continue;
+			}
 
-			// domain group is not empty, compare state
-			List<Member> domainGroupMembers = new ArrayList<>(dgm.getMembers());
+			// not in group in domain - add member
+			Member member = new Member();
+			if (Objects.equals("id", memberIdType)) {
+				member.setId(memberId);
+			} else {
+				member.setEmail(memberId);
+			}
+			insertMember(group.getEmail(), member, () -> {
+				log.info("Member: {} inserted to Group: {}", memberId, group.getEmail());
+				groupMembersAdded.incrementAndGet();
+			});
 
-			for (String perunMemberId : groupsMembers.get(group.getEmail())) {
+		}
 
-				Member domainGroupMember = null;
-				for (Member memberOfGroupInDomain : domainGroupMembers) {
-					// compare ID or Email
-					if (Objects.equals((("id".equals(memberIdType)) ? memberOfGroupInDomain.getId() : memberOfGroupInDomain.getEmail()), perunMemberId)) {
-						domainGroupMember = memberOfGroupInDomain;
-						break;
-					}
-				}
+		// we do not update Member object in groups
 
-				if (domainGroupMember == null) {
+		for (String memberId : diff.getRemoved()) {
+			deleteMember(group.getEmail(), memberId, () -> {
+				log.info("Member: {} deleted from Group: {}", memberId, group.getEmail());
+				groupMembersRemoved.incrementAndGet();
+			});
+		}
 
-					// not in group in domain - add member
-					Member member = new Member();
-					if (Objects.equals("id", memberIdType)) {
-						member.setId(perunMemberId);
-						insertMember(group.getEmail(), member);
-						log.info("Member: {} inserted to Group: {}", member.getId(), group.getEmail());
-					} else {
-						member.setEmail(perunMemberId);
-						insertMember(group.getEmail(), member);
-						log.info("Member: {} inserted to Group: {}", member.getEmail(), group.getEmail());
-					}
-					changed = true;
+		if (diff.isChanged()) {
+			log.info("Members of Group: {} changed - added: {}, removed: {}", group.getEmail(), diff.getAdded().size(), diff.getRemoved().size());
+		}
+		return diff.isChanged();
 
-				} else {
+	}
 
-					// we do not update Member object in groups
+	@Override
+	public MembersDiff diffGroupMembers(Group group) throws GoogleGroupsIOException {
+		return diffGroupMembers(group, getPerunMembers(group));
+	}
 
-				}
+	/**
+	 * Compare members of group from Perun with members of group in G Suite domain.
+	 *
+	 * @param group Group to compare members for
+	 * @param members Member identifiers from Perun
+	 * @return Members to be added / removed
+	 * @throws GoogleGroupsIOException When API call fails.
+	 */
+	private MembersDiff diffGroupMembers(Group group, List<String> members) throws GoogleGroupsIOException {
 
-			}
+		MembersDiff diff = new MembersDiff(members, getMemberIdType());
 
-			// check members for removal
-			for (Member memberInGroup: domainGroupMembers) {
-				String domainMemberId = (("id".equals(memberIdType)) ? memberInGroup.getId() : memberInGroup.getEmail());
-				boolean isInPerun = false;
-				for (String perunMemberId : groupsMembers.get(group.getEmail())) {
-					// Compare ID of Email
-					if (Objects.equals(domainMemberId, perunMemberId)) {
-						isInPerun = true;
-						break;
-					}
-				}
+		// compare state while group members are fetched
+		Paginator<Member> domainGroupMembers = getGroupsMembers(group.getEmail());
+		while (domainGroupMembers.hasNext()) {
+			diff.addDomainMember(domainGroupMembers.next());
+		}
 
-				if (!isInPerun) {
-					deleteMember(group.getEmail(), domainMemberId);
-					log.info("Member: {} deleted from Group: {}", domainMemberId, group.getEmail());
-					changed = true;
-				}
+		return diff;
 
-			}
+	}
 
-		} else {
+	/**
+	 * Return TRUE if member is identified by email from own domain, which is neither user nor group
+	 * in the domain snapshot. Such member can't be inserted. Checked only when snapshot is available.
+	 *
+	 * @param memberId Member identifier from Perun
+	 * @return TRUE = member is missing in domain / FALSE = member exists or can't be checked
+	 */
+	private boolean isMissingInDomain(String memberId) {
+		if (snapshot == null || !Objects.equals("email", getMemberIdType())) return false;
+		// members outside own domain (e.g. public google accounts) can't be checked
+		if (!StringUtils.equalsIgnoreCase(StringUtils.substringAfter(memberId, "@"), domainName)) return false;
+		return !snapshot.isKnownEmail(memberId);
+	}
 
-			List<String> perunMembers = groupsMembers.get(group.getEmail());
-			for (String memberId : perunMembers) {
+	/**
+	 * Return identifiers of group members from Perun.
+	 *
+	 * @param group Group to get members for
+	 * @return Member identifiers from groups file
+	 */
+	private List<String> getPerunMembers(Group group) {
+		return groupsMembers.getOrDefault(group.getEmail(), new ArrayList<>());
+	}
 
-				Member member = new Member();
-				if (Objects.equals("id", memberIdType)) {
-					member.setId(memberId);
-					insertMember(group.getEmail(), member);
-					log.info("Member: {} inserted to Group: {}", member.getId(), group.getEmail());
-				} else {
-					member.setEmail(memberId);
-					insertMember(group.getEmail(), member);
-					log.info("Member: {} inserted to Group: {}", member.getEmail(), group.getEmail());
-				}
-				changed = true;
+	/**
+	 * Return type of user/member identifier used in groups file (by config).
+	 *
+	 * @return "id" or "email"
+	 */
+	private String getMemberIdType() {
 
-			}
+		String memberIdType = properties.getProperty("member_identifier", "id");
 
+		if (!Objects.equals("id", memberIdType) &&
+				!Objects.equals("email", memberIdType)) {
+			log.warn("Type of member id must be one of 'id' or 'email', but was: {}. Falling back to: {}", memberIdType, "id");
+			memberIdType = "id";
 		}
 
-		return changed;
+		return memberIdType;
 
 	}
 
 	/**
-	 * Return List of Groups in domain.
+	 * Return Groups in domain. Pages are fetched while Groups are consumed.
 	 *
-	 * @return List of all domain groups.
-	 * @throws GoogleGroupsIOException When API call fails.
+	 * @return Paginator over all domain groups.
 	 */
-	private Groups getDomainGroups(String domainName) throws GoogleGroupsIOException {
-		try {
-			log.debug("Listing Groups from Domain: {}", domainName);
-			Groups groups = service.groups().list().setDomain(domainName).execute();
-			// fill list of users by next page
-			boolean next = (groups.getNextPageToken() != null);
-			while (next) {
-				Groups groups2 = service.groups().list().setDomain(domainName).setPageToken(groups.getNextPageToken()).execute();
-				groups.getGroups().addAll(groups2.getGroups());
-				groups.setNextPageToken(groups2.getNextPageToken());
-				next = (groups2.getNextPageToken() != null);
-			}
-			return groups;
-		} catch (IOException ex) {
-			throw new GoogleGroupsIOException("Something went wrong while getting groups from domain " + domainName + " in Google Groups", ex);
-		}
+	private Paginator<Group> getDomainGroups(String domainName) {
+		if (snapshot != null) return Paginator.of("groups from domain " + domainName, snapshot.getGroups());
+		return getDomainGroups(domainName, Projection.GROUPS);
+	}
+
+	/**
+	 * Return Groups in domain listed with passed projection. Pages are fetched while Groups are consumed.
+	 *
+	 * @param domainName Name of domain to get all Groups for
+	 * @param projection Projection of listed groups
+	 * @return Paginator over all domain groups.
+	 */
+	private Paginator<Group> getDomainGroups(String domainName, Projection projection) {
+		log.debug("Listing Groups from Domain: {}", domainName);
+		return Paginator.of("groups from domain " + domainName,
+				pageToken -> fetchPage(projection, service.groups().list().setDomain(domainName)
+						.setMaxResults(projection.getMaxPageSize()).setFields(projection.getFields())
+						.setPageToken(pageToken)),
+				Groups::getGroups, Groups::getNextPageToken);
 	}
 
 	/**
@@ -709,12 +1581,29 @@ public class GoogleGroupsServiceImpl implements GoogleGroupsService {
 	 * @throws GoogleGroupsIOException When API call fails.
 	 */
 	private void insertGroup(Group group) throws GoogleGroupsIOException {
-		try {
-			if (!dryRun) service.groups().insert(group).execute();
-			log.debug("Creating group: {}", group);
-		} catch (IOException ex) {
-			throw new GoogleGroupsIOException("Something went wrong while inserting group " + group.getEmail() + " to Google Groups", ex);
-		}
+		insertGroup(group, null);
+	}
+
+	/**
+	 * Insert new group to your domain.
+	 *
+	 * @param group Group to be inserted
+	 * @param onSuccess Called when group is created or NULL.
+	 * @throws GoogleGroupsIOException When API call fails.
+	 */
+	private void insertGroup(Group group, Runnable onSuccess) throws GoogleGroupsIOException {
+		mutations.submit("group:" + group.getEmail(), () -> {
+			try {
+				if (!dryRun) {
+					apiCalls.executeWrite(ApiQuota.DIRECTORY_WRITE, false, service.groups().insert(group)::execute);
+					createdEntities.add("group:" + group.getEmail());
+				} else if (plan != null) plan.add(new ChangePlan.Change(ChangePlan.Op.INSERT_GROUP, group.getEmail()).setGroup(group));
+				log.debug("Creating group: {}", group);
+				if (onSuccess != null) onSuccess.run();
+			} catch (IOException ex) {
+				throw new GoogleGroupsIOException("Something went wrong while inserting group " + group.getEmail() + " to Google Groups", ex);
+			}
+		});
 	}
 
 	/**
@@ -724,12 +1613,27 @@ public class GoogleGroupsServiceImpl implements GoogleGroupsService {
 	 * @throws GoogleGroupsIOException When API call fails.
 	 */
 	private void deleteGroup(String email) throws GoogleGroupsIOException {
-		try {
-			if (!dryRun) service.groups().delete(email).execute();
-			log.debug("Deleting group: {}", email);
-		} catch (IOException ex) {
-			throw new GoogleGroupsIOException("Something went wrong while deleting group " + email + " from Google Groups", ex);
-		}
+		deleteGroup(email, null);
+	}
+
+	/**
+	 * Delete Group by mail from your domain.
+	 *
+	 * @param email Email of the Group to delete.
+	 * @param onSuccess Called when group is deleted or NULL.
+	 * @throws GoogleGroupsIOException When API call fails.
+	 */
+	private void deleteGroup(String email, Runnable onSuccess) throws GoogleGroupsIOException {
+		mutations.submit("group:" + email, () -> {
+			try {
+				if (!dryRun) apiCalls.executeDelete(ApiQuota.DIRECTORY_WRITE, false, service.groups().delete(email)::execute);
+				else if (plan != null) plan.add(new ChangePlan.Change(ChangePlan.Op.DELETE_GROUP, email));
+				log.debug("Deleting group: {}", email);
+				if (onSuccess != null) onSuccess.run();
+			} catch (IOException ex) {
+				throw new GoogleGroupsIOException("Something went wrong while deleting group " + email + " from Google Groups", ex);
+			}
+		});
 	}
 
 	/**
@@ -740,56 +1644,80 @@ public class GoogleGroupsServiceImpl implements GoogleGroupsService {
 	 * @throws GoogleGroupsIOException When API call fails.
 	 */
 	private void updateGroup(String groupKey, Group group) throws GoogleGroupsIOException {
-		try {
-			if (!dryRun) service.groups().update(groupKey, group).execute();
-			log.debug("Updating group: {}", group);
-		} catch (IOException ex) {
-			throw new GoogleGroupsIOException("Something went wrong while updating group " + group.getEmail() + " in Google Groups", ex);
-		}
+		updateGroup(groupKey, group, null);
 	}
 
 	/**
-	 * Return List of Users in domain.
+	 * Update group in your domain.
 	 *
-	 * @param domainName Name of domain to get all Users for
-	 * @return List of all domain users.
+	 * @param groupKey Unique group identifier (email).
+	 * @param group Group to be updated
+	 * @param onSuccess Called when group is updated or NULL.
 	 * @throws GoogleGroupsIOException When API call fails.
 	 */
-	private Users getDomainUsers(String domainName) throws GoogleGroupsIOException {
-		try {
-			log.debug("Listing Users from Domain: {}", domainName);
-			Users users = service.users().list().setDomain(domainName).setMaxResults(500).setOrderBy("email").execute();
-			// fill list of users by next page
-			boolean next = (users.getNextPageToken() != null);
-			while (next) {
-				Users users2 = service.users().list().setDomain(domainName).setMaxResults(500).setOrderBy("email").setPageToken(users.getNextPageToken()).execute();
-				users.getUsers().addAll(users2.getUsers());
-				users.setNextPageToken(users2.getNextPageToken());
-				next = (users.getNextPageToken() != null);
+	private void updateGroup(String groupKey, Group group, Runnable onSuccess) throws GoogleGroupsIOException {
+		mutations.submit("group:" + groupKey, () -> {
+			try {
+				if (!dryRun) apiCalls.executeWrite(ApiQuota.DIRECTORY_WRITE, false, service.groups().update(groupKey, group)::execute);
+				else if (plan != null) plan.add(new ChangePlan.Change(ChangePlan.Op.UPDATE_GROUP, groupKey).setGroup(group));
+				log.debug("Updating group: {}", group);
+				if (onSuccess != null) onSuccess.run();
+			} catch (IOException ex) {
+				throw new GoogleGroupsIOException("Something went wrong while updating group " + group.getEmail() + " in Google Groups", ex);
 			}
+		});
+	}
 
-			return users;
-		} catch (IOException ex) {
-			throw new GoogleGroupsIOException("Something went wrong while getting users from domain " + domainName + " in Google Groups", ex);
-		}
+	/**
+	 * Return Users in domain. Pages are fetched while Users are consumed.
+	 *
+	 * @param domainName Name of domain to get all Users for
+	 * @return Paginator over all domain users.
+	 */
+	private Paginator<User> getDomainUsers(String domainName) {
+		if (snapshot != null) return Paginator.of("users from domain " + domainName, snapshot.getUsers());
+		return getDomainUsers(domainName, Projection.USERS);
+	}
+
+	/**
+	 * Return Users in domain listed with passed projection. Pages are fetched while Users are consumed.
+	 *
+	 * @param domainName Name of domain to get all Users for
+	 * @param projection Projection of listed users
+	 * @return Paginator over all domain users.
+	 */
+	private Paginator<User> getDomainUsers(String domainName, Projection projection) {
+		log.debug("Listing Users from Domain: {}", domainName);
+		return Paginator.of("users from domain " + domainName,
+				pageToken -> fetchPage(projection, service.users().list().setDomain(domainName)
+						.setMaxResults(projection.getMaxPageSize()).setOrderBy("email").setFields(projection.getFields())
+						.setPageToken(pageToken)),
+				Users::getUsers, Users::getNextPageToken);
 	}
 
 	/**
 	 * Insert new user to your domain.
 	 *
 	 * @param user User to be created in your domain.
+	 * @param onSuccess Called when user is created.
 	 * @throws GoogleGroupsIOException When API call fails.
 	 */
-	private void insertUser(User user) throws GoogleGroupsIOException {
+	private void insertUser(User user, Runnable onSuccess) throws GoogleGroupsIOException {
+
+		// give users random passwords needed for creation
+		char[] possibleCharacters = ("ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789~`!@#$%^&*()-_=+[{]}\\|;:'\",<.>/?").toCharArray();
+		String randomStr = RandomStringUtils.random( 40, 0, possibleCharacters.length-1, false, false, possibleCharacters, new SecureRandom());
+		user.setPassword(randomStr);
+
+		log.debug("Creating user: {}", user);
+		if (dryRun) {
+			// password is generated again when plan is applied, never store it
+			if (plan != null) plan.add(new ChangePlan.Change(ChangePlan.Op.INSERT_USER, user.getPrimaryEmail()).setUser(user.clone().setPassword(null)));
+			onSuccess.run();
+			return;
+		}
 		try {
-
-			// give users random passwords needed for creation
-			char[] possibleCharacters = ("ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789~`!@#$%^&*()-_=+[{]}\\|;:'\",<.>/?").toCharArray();
-			String randomStr = RandomStringUtils.random( 40, 0, possibleCharacters.length-1, false, false, possibleCharacters, new SecureRandom());
-			user.setPassword(randomStr);
-
-			if (!dryRun) service.users().insert(user).execute();
-			log.debug("Creating user: {}", user);
+			directoryBatch.queue("user:" + user.getPrimaryEmail(), service.users().insert(user), "inserting user " + user.getPrimaryEmail(), onSuccess);
 		} catch (IOException ex) {
 			throw new GoogleGroupsIOException("Something went wrong while inserting user " + user.getPrimaryEmail() + " to Google Groups", ex);
 		}
@@ -799,12 +1727,18 @@ public class GoogleGroupsServiceImpl implements GoogleGroupsService {
 	 * Delete User from your domain by key (email).
 	 *
 	 * @param userKey Email to delete user by.
+	 * @param onSuccess Called when user is deleted.
 	 * @throws GoogleGroupsIOException When API call fails.
 	 */
-	private void deleteUser(String userKey) throws GoogleGroupsIOException {
+	private void deleteUser(String userKey, Runnable onSuccess) throws GoogleGroupsIOException {
+		log.debug("Deleting user: {}", userKey);
+		if (dryRun) {
+			if (plan != null) plan.add(new ChangePlan.Change(ChangePlan.Op.DELETE_USER, userKey));
+			onSuccess.run();
+			return;
+		}
 		try {
-			if (!dryRun) service.users().delete(userKey).execute();
-			log.debug("Deleting user: {}", userKey);
+			directoryBatch.queue("user:" + userKey, service.users().delete(userKey), "deleting user " + userKey, onSuccess);
 		} catch (IOException ex) {
 			throw new GoogleGroupsIOException("Something went wrong while deleting user " + userKey + " from Google Groups", ex);
 		}
@@ -815,40 +1749,36 @@ public class GoogleGroupsServiceImpl implements GoogleGroupsService {
 	 *
 	 * @param userKey Key to identify User to update
 	 * @param user User with updated properties
+	 * @param onSuccess Called when user is updated.
 	 * @throws GoogleGroupsIOException When API call fails.
 	 */
-	private void updateUser(String userKey, User user) throws GoogleGroupsIOException {
+	private void updateUser(String userKey, User user, Runnable onSuccess) throws GoogleGroupsIOException {
+		log.debug("Updating user: {}", user);
+		if (dryRun) {
+			if (plan != null) plan.add(new ChangePlan.Change(ChangePlan.Op.UPDATE_USER, userKey).setUser(user));
+			onSuccess.run();
+			return;
+		}
 		try {
-			if (!dryRun) service.users().update(userKey, user).execute();
-			log.debug("Updating user: {}", user);
+			directoryBatch.queue("user:" + userKey, service.users().update(userKey, user), "updating user " + user.getPrimaryEmail(), onSuccess);
 		} catch (IOException ex) {
 			throw new GoogleGroupsIOException("Something went wrong while updating user " + user.getPrimaryEmail() + " in Google Groups", ex);
 		}
 	}
 
 	/**
-	 * Return List of groups Members.
+	 * Return groups Members. Pages are fetched while Members are consumed.
 	 *
 	 * @param groupName Name of group to get members
-	 * @return List of all group Members.
-	 * @throws GoogleGroupsIOException When API call fails.
+	 * @return Paginator over all group Members.
 	 */
-	private Members getGroupsMembers(String groupName) throws GoogleGroupsIOException {
-		try {
-			log.debug("Listing Members of Group: {}", groupName);
-			Members members = service.members().list(groupName).execute();
-			// fill list of members by next page
-			boolean next = (members.getNextPageToken() != null);
-			while (next) {
-				Members members2 = service.members().list(groupName).setPageToken(members.getNextPageToken()).execute();
-				members.getMembers().addAll(members2.getMembers());
-				members.setNextPageToken(members2.getNextPageToken());
-				next = (members2.getNextPageToken() != null);
-			}
-			return members;
-		} catch (IOException ex) {
-			throw new GoogleGroupsIOException("Something went wrong while getting members of group " + groupName + " in Google Groups", ex);
-		}
+	private Paginator<Member> getGroupsMembers(String groupName) {
+		log.debug("Listing Members of Group: {}", groupName);
+		return Paginator.of("members of group " + groupName,
+				pageToken -> fetchPage(Projection.MEMBERS, service.members().list(groupName)
+						.setMaxResults(Projection.MEMBERS.getMaxPageSize()).setFields(Projection.MEMBERS.getFields())
+						.setPageToken(pageToken)),
+				Members::getMembers, Members::getNextPageToken);
 	}
 
 	/**
@@ -856,19 +1786,21 @@ public class GoogleGroupsServiceImpl implements GoogleGroupsService {
 	 *
 	 * @param groupName Group to have member inserted.
 	 * @param member Member to be inserted.
+	 * @param onSuccess Called when member is inserted.
 	 * @throws GoogleGroupsIOException When API call fails.
 	 */
-	private void insertMember(String groupName, Member member) throws GoogleGroupsIOException {
+	private void insertMember(String groupName, Member member, Runnable onSuccess) throws GoogleGroupsIOException {
+		String memberIdType = properties.getProperty("member_identifier", "id");
+		String memberId = Objects.equals("id", memberIdType) ? member.getId() : member.getEmail();
+		log.debug("Inserting member: {} to group: {}", memberId, groupName);
+		if (dryRun) {
+			if (plan != null) plan.add(new ChangePlan.Change(ChangePlan.Op.INSERT_MEMBER, memberId).setGroup(new Group().setEmail(groupName)).setMember(member));
+			onSuccess.run();
+			return;
+		}
 		try {
-			if (!dryRun) service.members().insert(groupName, member).execute();
-			String memberIdType = properties.getProperty("member_identifier", "id");
-
-			if (Objects.equals("id", memberIdType)) {
-				log.debug("Inserting member: {} to group: {}", member.getId(), groupName);
-			} else {
-				log.debug("Inserting member: {} to group: {}", member.getEmail(), groupName);
-			}
-
+			directoryBatch.queue("member:" + groupName + "/" + memberId, service.members().insert(groupName, member), "inserting member " + memberId + " into group " + groupName,
+					createdEntities.contains("group:" + groupName), onSuccess);
 		} catch (IOException ex) {
 			throw new GoogleGroupsIOException("Something went wrong while inserting member " + member.getEmail() + " into group " + groupName + " in Google Groups", ex);
 		}
@@ -879,12 +1811,18 @@ public class GoogleGroupsServiceImpl implements GoogleGroupsService {
 	 *
 	 * @param groupName Group to have member deleted.
 	 * @param memberId Member to be deleted.
+	 * @param onSuccess Called when member is deleted.
 	 * @throws GoogleGroupsIOException  When API call fails.
 	 */
-	private void deleteMember(String groupName, String memberId) throws GoogleGroupsIOException {
+	private void deleteMember(String groupName, String memberId, Runnable onSuccess) throws GoogleGroupsIOException {
+		log.debug("Deleting member: {} from group: {}", memberId, groupName);
+		if (dryRun) {
+			if (plan != null) plan.add(new ChangePlan.Change(ChangePlan.Op.DELETE_MEMBER, memberId).setGroup(new Group().setEmail(groupName)));
+			onSuccess.run();
+			return;
+		}
 		try {
-			if (!dryRun) service.members().delete(groupName, memberId).execute();
-			log.debug("Deleting member: {} from group: {}", memberId, groupName);
+			directoryBatch.queue("member:" + groupName + "/" + memberId, service.members().delete(groupName, memberId), "deleting member with ID " + memberId + " from group " + groupName, onSuccess);
 		} catch (IOException ex) {
 			throw new GoogleGroupsIOException("Something went wrong while deleting member with ID " + memberId + " from group " + groupName + " in Google Groups", ex);
 		}
@@ -892,214 +1830,316 @@ public class GoogleGroupsServiceImpl implements GoogleGroupsService {
 
 
 	@Override
-	public void processTeamDrives(Map<TeamDrive, List<User>> driveWithMembers) throws GoogleGroupsIOException, InterruptedException {
+	public void processTeamDrives(Map<Drive, List<User>> driveWithMembers) throws GoogleGroupsIOException {
 
-		TeamDriveList dd = getTeamDrives();
-
-		if (dd != null && !dd.isEmpty() && dd.getTeamDrives() != null && !dd.getTeamDrives().isEmpty()) {
+		// index Perun drives by name
+		Map<String, Map.Entry<Drive, List<User>>> perunDrives = new LinkedHashMap<>();
+		for (Map.Entry<Drive, List<User>> dm : driveWithMembers.entrySet()) {
+			perunDrives.putIfAbsent(dm.getKey().getName(), dm);
+		}
+		Set<String> domainDriveNames = new HashSet<>();
+		Set<String> domainDriveIds = new HashSet<>();
+
+		// drives changed in G Suite since the last run, NULL = all drives must be reconciled
+		Set<String> changedDrives = null;
+		String newStartPageToken = null;
+		if (driveState != null) {
+			// take token before anything is listed, so concurrent changes are seen next time
+			newStartPageToken = (snapshot != null) ? snapshot.getDriveStartPageToken() : getStartPageToken();
+			if (!forceFullReconcile && driveState.getStartPageToken() != null) {
+				changedDrives = getChangedDrives(driveState.getStartPageToken());
+			}
+		}
 
-			// domain is not empty, compare state
-			List<TeamDrive> domainDrives = new ArrayList<>(dd.getTeamDrives());
+		// compare state while domain drives are fetched
+		Paginator<Drive> domainDrives = getTeamDrives();
+		while (domainDrives.hasNext()) {
 
-			// create team drives, process users permissions
+			// use domainDrive object, since it contains ID !!
+			Drive domainDrive = domainDrives.next();
+			if (!domainDriveNames.add(domainDrive.getName())) {
+				log.warn("TeamDrive with name {} is in domain more than once, skipping: {}", domainDrive.getName(), domainDrive.getId());
+				continue;
+			}
+			domainDriveIds.add(domainDrive.getId());
 
-			for (Map.Entry<TeamDrive, List<User>> dm : driveWithMembers.entrySet()) {
+			Map.Entry<Drive, List<User>> dm = perunDrives.get(domainDrive.getName());
+			if (dm != null) {
 
-				TeamDrive domainDrive = null;
-				for (TeamDrive td : domainDrives) {
-					if (Objects.equals(td.getName(), dm.getKey().getName())) {
-						domainDrive = td;
-						break;
-					}
-				}
+				// update permission of existing TeamDrive
+				submitTeamDrivePermissions(domainDrive, dm.getValue(), changedDrives);
 
-				if (domainDrive == null) {
+			} else if (deleteMissingTeamDrives) {
 
-					// drive not in domain, create
-					insertTeamDrive(dm.getKey());
-					log.info("TeamDrive created: {}", dm.getKey().getName());
-					teamDrivesInserted++;
-					// put back for update permissions
-					domainDrive = dm.getKey();
+				// delete domain drive (not found from Perun)
+				deleteTeamDrive(domainDrive);
+				teamDrivesDeleted.incrementAndGet();
+				if (driveState != null) driveState.remove(domainDrive.getId());
 
-				}
+			} else {
 
-				// update permission for both new and existing TeamDrives
-				// use domainDrive object, since it contains ID !!
-				// FIXME - We must wait before asking for users of newly created team drive
-				Thread.sleep(2000);
-				processTeamDrivePermissions(domainDrive, dm.getValue());
+				// keep teamdrive but remove all permissions
+				submitTeamDrivePermissions(domainDrive, new ArrayList<>(), changedDrives);
 
 			}
 
-			// delete team drives
-			TeamDrive perunDrive = null;
-			for (TeamDrive domainDrive : domainDrives) {
-				for (TeamDrive teamDrive : driveWithMembers.keySet()) {
-					if (Objects.equals(teamDrive.getName(), domainDrive.getName())) {
-						perunDrive = teamDrive;
-						break;
-					}
-				}
+		}
 
-				if (perunDrive == null) {
+		for (Map.Entry<String, Map.Entry<Drive, List<User>>> entry : perunDrives.entrySet()) {
+			if (domainDriveNames.contains(entry.getKey())) continue;
+			// drive not in domain, create with permissions
+			Map.Entry<Drive, List<User>> dm = entry.getValue();
+			drivesFanOut.submit(entry.getKey(), () -> createTeamDrive(dm.getKey(), dm.getValue()));
+		}
 
-					if (Boolean.getBoolean(properties.getProperty("allow_delete_teamdrive", "false"))) {
-						// delete domain drive (not found from Perun)
-						deleteTeamDrive(domainDrive);
-						teamDrivesDeleted++;
-					} else {
-						// keep teamdrive but remove all permissions
-						processTeamDrivePermissions(domainDrive, new ArrayList<>());
-					}
+		// wait for permissions of all drives
+		drivesFanOut.awaitAll();
+
+		// wait for all changes to be done
+		driveBatch.flush();
+		retryDeadLetters();
 
+		if (driveState != null && (!dryRun || journaled)) {
+			if (deadLetters != null) {
+				// drives with unapplied permissions must be reconciled next time
+				for (DeadLetterQueue.Entry entry : deadLetters.getEntries()) {
+					if (entry.getEntityKey().startsWith("permission:")) {
+						driveState.remove(StringUtils.substringBetween(entry.getEntityKey(), "permission:", "/"));
+					}
 				}
 			}
+			for (Map.Entry<Drive, List<User>> dm : driveWithMembers.entrySet()) {
+				if (dm.getKey().getId() != null) domainDriveIds.add(dm.getKey().getId());
+			}
+			driveState.retainAll(domainDriveIds);
+			driveState.setStartPageToken(newStartPageToken);
+			try {
+				driveState.save();
+			} catch (IOException ex) {
+				log.error("Unable to save drive state, all drives will be fully reconciled next time.", ex);
+			}
+		}
 
-		} else {
+	}
 
-			// domain is empty, add all drives
-			for (Map.Entry<TeamDrive, List<User>> dm : driveWithMembers.entrySet()) {
-				// create new teamDrive
-				insertTeamDrive(dm.getKey());
-				log.info("TeamDrive created: {}", dm.getKey().getName());
-				teamDrivesInserted++;
+	/**
+	 * Submit reconciliation of TeamDrive permissions unless both users from Perun and the drive
+	 * in G Suite are unchanged since the last run.
+	 *
+	 * @param teamDrive TeamDrive from domain (with ID set !!)
+	 * @param users Users to have permissions on TeamDrive
+	 * @param changedDrives IDs of drives changed since the last run or NULL if not known
+	 * @throws GoogleGroupsIOException When any previously submitted task failed.
+	 */
+	private void submitTeamDrivePermissions(Drive teamDrive, List<User> users, Set<String> changedDrives) throws GoogleGroupsIOException {
+
+		if (driveState == null) {
+			drivesFanOut.submit(teamDrive.getName(), () -> processTeamDrivePermissions(teamDrive, users));
+			return;
+		}
 
-				// FIXME - We must wait before asking for users of newly created team drive
-				Thread.sleep(2000);
-				// handle team drive users
-				processTeamDrivePermissions(dm.getKey(), dm.getValue());
+		String usersHash = hashTeamDriveUsers(users);
+		if (changedDrives != null && !changedDrives.contains(teamDrive.getId()) && driveState.isUnchanged(teamDrive.getId(), usersHash)) {
+			log.debug("TeamDrive {} is unchanged, skipping its permissions.", teamDrive.getName());
+			teamDrivesCached.incrementAndGet();
+			return;
+		}
 
+		// drive is stored again once its permissions are reconciled
+		driveState.remove(teamDrive.getId());
+		drivesFanOut.submit(teamDrive.getName(), () -> {
+			PermissionsDiff diff = reconcileTeamDrivePermissions(teamDrive, users);
+			// planned changes might not be applied, don't remember the drive
+			boolean pending = journaled && (!diff.getToAdd().isEmpty() || !diff.getToRemove().isEmpty());
+			if (diff.isServiceAccountMember() && !pending) {
+				driveState.put(teamDrive.getId(), usersHash);
+			} else {
+				// changes of drive are not visible to service account user, always reconcile it
+				driveState.remove(teamDrive.getId());
 			}
+		});
 
-		}
+	}
 
+	/**
+	 * Create new TeamDrive and insert permissions for all its users.
+	 *
+	 * @param teamDrive TeamDrive to create (ID is set on it)
+	 * @param users Users to have permissions on TeamDrive
+	 * @throws GoogleGroupsIOException When API call fails.
+	 */
+	private void createTeamDrive(Drive teamDrive, List<User> users) throws GoogleGroupsIOException {
+		if (plan != null) {
+			// permissions need ID of the drive, which is known only once it is created
+			List<String> emails = new ArrayList<>();
+			for (User user : users) {
+				emails.add(user.getPrimaryEmail());
+			}
+			plan.add(new ChangePlan.Change(ChangePlan.Op.CREATE_DRIVE, teamDrive.getName()).setDrive(new Drive().setName(teamDrive.getName())).setUsers(emails));
+		}
+		insertTeamDrive(teamDrive);
+		log.info("TeamDrive created: {}", teamDrive.getName());
+		teamDrivesInserted.incrementAndGet();
+		// creator is organizer of the new drive, so its changes are visible
+		if (driveState != null && teamDrive.getId() != null) driveState.put(teamDrive.getId(), hashTeamDriveUsers(users));
+		// new team drive has only permission of its creator, insert all others without asking for them
+		for (User user : users) {
+			if (!StringUtils.equalsIgnoreCase(userEmail, user.getPrimaryEmail())) {
+				insertPermission(teamDrive, user, teamDriveUsersAdded::incrementAndGet);
+			}
+		}
 	}
 
 	@Override
-	public void processTeamDrivePermissions(TeamDrive teamDrive, List<User> users) throws GoogleGroupsIOException {
-
-		List<Permission> permissions = getPermissions(teamDrive).getPermissions();
+	public void processTeamDrivePermissions(Drive teamDrive, List<User> users) throws GoogleGroupsIOException {
+		reconcileTeamDrivePermissions(teamDrive, users);
+	}
 
-		if (permissions != null && !permissions.isEmpty()) {
+	/**
+	 * Reconcile permissions of TeamDrive with users from Perun.
+	 *
+	 * @param teamDrive TeamDrive to process (with ID set !!)
+	 * @param users Users to have permissions on TeamDrive
+	 * @return Computed difference
+	 * @throws GoogleGroupsIOException When API call fails.
+	 */
+	private PermissionsDiff reconcileTeamDrivePermissions(Drive teamDrive, List<User> users) throws GoogleGroupsIOException {
 
-			// add new permissions
-			for (User user : users) {
-				boolean notInDrive = true;
-				for (Permission permission : permissions) {
-					if (StringUtils.equalsIgnoreCase(user.getPrimaryEmail(), permission.getEmailAddress())) {
-						notInDrive = false;
-						break;
-					}
-				}
+		PermissionsDiff diff = new PermissionsDiff(users, userEmail);
 
-				if (notInDrive) {
-					insertPermission(teamDrive, user);
-					teamDriveUsersAdded++;
-				}
-			}
+		// compare state while permissions are fetched
+		Paginator<Permission> permissions = getPermissions(teamDrive);
+		while (permissions.hasNext()) {
+			diff.addPermission(permissions.next());
+		}
 
-			// remove old permission
-			for (Permission permission : permissions) {
-				boolean notInPerun = true;
-				for (User user : users) {
-					if (StringUtils.equalsIgnoreCase(user.getPrimaryEmail(), permission.getEmailAddress())) {
-						notInPerun = false;
-						break;
-					}
-				}
+		// add new permissions
+		for (User user : diff.getToAdd()) {
+			insertPermission(teamDrive, user, teamDriveUsersAdded::incrementAndGet);
+		}
 
-				// remove missing user -> never remove service-account permission
-				if (notInPerun && !StringUtils.equalsIgnoreCase(GoogleGroupsConnectionImpl.USER_EMAIL, permission.getEmailAddress())) {
-					deletePermission(teamDrive, permission);
-					teamDriveUsersDeleted++;
-				}
-			}
+		// remove old permission -> never removes service-account permission
+		for (Permission permission : diff.getToRemove()) {
+			deletePermission(teamDrive, permission, teamDriveUsersDeleted::incrementAndGet);
+		}
 
-		} else {
+		return diff;
 
-			// permissions are empty - insert all from Perun
-			for (User user : users) {
-				insertPermission(teamDrive, user);
-				teamDriveUsersAdded++;
-			}
+	}
 
+	/**
+	 * Compute hash of TeamDrive users from Perun.
+	 *
+	 * @param users Users of TeamDrive
+	 * @return Hex encoded hash
+	 */
+	private static String hashTeamDriveUsers(List<User> users) {
+		List<String> emails = new ArrayList<>();
+		for (User user : users) {
+			emails.add(user.getPrimaryEmail());
 		}
+		return MembershipCache.hash(emails, "email");
+	}
 
+	/**
+	 * Return existing team drives. Pages are fetched while team drives are consumed.
+	 *
+	 * @return Paginator over all existing team drives.
+	 */
+	private Paginator<Drive> getTeamDrives() {
+		if (snapshot != null) return Paginator.of("all team drives", snapshot.getDrives());
+		log.debug("Listing existing TeamDrives from Domain: {}", domainName);
+		return Paginator.of("all team drives",
+				pageToken -> fetchPage(Projection.DRIVES, driveService.drives().list()
+						.setFields(Projection.DRIVES.getFields())
+						.setPageSize(Projection.DRIVES.getMaxPageSize())
+						.setUseDomainAdminAccess(true)
+						.setPageToken(pageToken)),
+				DriveList::getDrives, DriveList::getNextPageToken);
 	}
 
 	/**
-	 * Return TeamDriveList of existing team drives.
+	 * Return current start page token of Drive changes visible to service account user.
 	 *
-	 * @return TeamDriveList of all existing team drives.
+	 * @return Start page token
 	 * @throws GoogleGroupsIOException When API call fails.
 	 */
-	private TeamDriveList getTeamDrives() throws GoogleGroupsIOException {
-
+	private String getStartPageToken() throws GoogleGroupsIOException {
 		try {
-			log.debug("Listing existing TeamDrives from Domain: {}", domainName);
-			TeamDriveList teamDriveList = driveService.teamdrives().list()
-					.setFields("nextPageToken, teamDrives(id, name)")
-					.setUseDomainAdminAccess(true)
-					.execute();
-			// fill list of users by next page
-			boolean next = (teamDriveList.getNextPageToken() != null);
-			while (next) {
-				TeamDriveList teamDriveList2 = driveService.teamdrives().list()
-						.setFields("nextPageToken, teamDrives(id, name)")
-						.setUseDomainAdminAccess(true)
-						.setPageToken(teamDriveList.getNextPageToken())
-						.execute();
-
-				teamDriveList.getTeamDrives().addAll(teamDriveList2.getTeamDrives());
-				teamDriveList.setNextPageToken(teamDriveList2.getNextPageToken());
-				next = (teamDriveList2.getNextPageToken() != null);
-			}
-
-			return teamDriveList;
-
+			return apiCalls.execute(ApiQuota.DRIVE, 1, driveService.changes().getStartPageToken()
+					.setSupportsAllDrives(true)::execute).getStartPageToken();
 		} catch (IOException ex) {
-			throw new GoogleGroupsIOException("Something went wrong while getting all team drives", ex);
+			throw new GoogleGroupsIOException("Something went wrong while getting start page token of drive changes in Google Groups", ex);
 		}
+	}
 
+	/**
+	 * Return IDs of drives changed since passed start page token. If changes can't be listed
+	 * (e.g. token expired), NULL is returned and all drives are reconciled.
+	 *
+	 * @param startPageToken Start page token stored by the last run
+	 * @return IDs of changed drives or NULL
+	 */
+	private Set<String> getChangedDrives(String startPageToken) {
+		log.debug("Listing drive changes since token: {}", startPageToken);
+		Paginator<Change> changes = Paginator.of("drive changes",
+				pageToken -> fetchPage(Projection.CHANGES, driveService.changes().list((pageToken != null) ? pageToken : startPageToken)
+						.setFields(Projection.CHANGES.getFields())
+						.setPageSize(Projection.CHANGES.getMaxPageSize())
+						.setSupportsAllDrives(true)
+						.setIncludeItemsFromAllDrives(true)),
+				ChangeList::getChanges, ChangeList::getNextPageToken);
+		Set<String> result = new HashSet<>();
+		try {
+			while (changes.hasNext()) {
+				Change change = changes.next();
+				if (change.getDriveId() != null) result.add(change.getDriveId());
+			}
+		} catch (GoogleGroupsIOException ex) {
+			log.warn("Unable to list drive changes, all drives will be fully reconciled.", ex);
+			return null;
+		}
+		log.debug("Drives changed since the last run: {}", result);
+		return result;
 	}
 
 	/**
-	 * Return TeamDrive permissions
+	 * Return TeamDrive permissions. Pages are fetched while permissions are consumed.
 	 *
 	 * @param teamDrive TeamDrive to get permissions for
-	 * @return PermissionList of all existing permissions for selected Drive.
-	 * @throws GoogleGroupsIOException When API call fails.
+	 * @return Paginator over all existing permissions for selected Drive.
 	 */
-	private PermissionList getPermissions(TeamDrive teamDrive) throws GoogleGroupsIOException {
-
-		try {
-			log.debug("Listing existing TeamDrives Permissions from Domain: {}", domainName);
-			PermissionList permissionList = driveService.permissions().list(teamDrive.getId())
-					.setFields("kind, nextPageToken, permissions(id, type, role, emailAddress)")
-					.setSupportsTeamDrives(true)
-					.setUseDomainAdminAccess(true)
-					.execute();
-			// fill list of users by next page
-			boolean next = (permissionList.getNextPageToken() != null);
-			while (next) {
-				PermissionList permissionList2 = driveService.permissions().list(teamDrive.getId())
-						.setFields("kind, nextPageToken, permissions(id, type, role, emailAddress)")
+	private Paginator<Permission> getPermissions(Drive teamDrive) {
+		log.debug("Listing existing TeamDrives Permissions from Domain: {}", domainName);
+		return Paginator.of("permissions for TeamDrive " + teamDrive.getName(),
+				pageToken -> fetchPage(Projection.PERMISSIONS, driveService.permissions().list(teamDrive.getId())
+						.setFields(Projection.PERMISSIONS.getFields())
+						.setPageSize(Projection.PERMISSIONS.getMaxPageSize())
+						.setSupportsAllDrives(true)
 						.setUseDomainAdminAccess(true)
-						.setSupportsTeamDrives(true)
-						.setPageToken(permissionList.getNextPageToken())
-						.execute();
-
-				permissionList.getPermissions().addAll(permissionList2.getPermissions());
-				permissionList.setNextPageToken(permissionList2.getNextPageToken());
-				next = (permissionList2.getNextPageToken() != null);
-			}
-			return permissionList;
+						.setPageToken(pageToken)),
+				PermissionList::getPermissions, PermissionList::getNextPageToken);
+	}
 
-		} catch (IOException ex) {
-			throw new GoogleGroupsIOException("Something went wrong while getting permissions for TeamDrive.", ex);
+	/**
+	 * Execute single list call and record size of fetched page.
+	 *
+	 * @param projection Listed resource
+	 * @param request List call to execute
+	 * @return Parsed page
+	 * @throws IOException When API call fails.
+	 */
+	private <T> T fetchPage(Projection projection, AbstractGoogleClientRequest<T> request) throws IOException {
+		HttpResponse response = apiCalls.execute(projection.getQuota(), 1, request::executeUnparsed);
+		try {
+			// page is parsed while it is read, bytes are counted on the way
+			InputStream content = response.getContent();
+			return request.getAbstractGoogleClient().getObjectParser().parseAndClose(
+					listingStats.countPage(projection, (content != null) ? content : InputStream.nullInputStream()),
+					response.getContentCharset(), request.getResponseClass());
+		} finally {
+			response.disconnect();
 		}
-
 	}
 
 	/**
@@ -1108,16 +2148,17 @@ public class GoogleGroupsServiceImpl implements GoogleGroupsService {
 	 * @param teamDrive drive to be created.
 	 * @throws GoogleGroupsIOException When API call fails.
 	 */
-	private void insertTeamDrive(TeamDrive teamDrive) throws GoogleGroupsIOException {
+	private void insertTeamDrive(Drive teamDrive) throws GoogleGroupsIOException {
 		try {
 			// since original object contains members, we pick only name param
-			TeamDrive teamDriveMetaData = new TeamDrive();
+			Drive teamDriveMetaData = new Drive();
 			teamDriveMetaData.setName(teamDrive.getName());
 			String requestId = UUID.randomUUID().toString();
 			if (!dryRun) {
-				TeamDrive returnedTeamDrive = driveService.teamdrives().create(requestId, teamDriveMetaData).execute();
+				Drive returnedTeamDrive = apiCalls.execute(ApiQuota.DRIVE, 1, driveService.drives().create(requestId, teamDriveMetaData)::execute);
 				// push back new object IDs so we can
 				teamDrive.setId(returnedTeamDrive.getId());
+				createdEntities.add("drive:" + returnedTeamDrive.getId());
 			}
 			log.debug("Creating TeamDrive: {}", teamDrive);
 		} catch (IOException ex) {
@@ -1131,10 +2172,11 @@ public class GoogleGroupsServiceImpl implements GoogleGroupsService {
 	 * @param teamDrive drive to be deleted.
 	 * @throws GoogleGroupsIOException When API call fails.
 	 */
-	private void deleteTeamDrive(TeamDrive teamDrive) throws GoogleGroupsIOException {
+	private void deleteTeamDrive(Drive teamDrive) throws GoogleGroupsIOException {
 		try {
 			String key = teamDrive.getId();
-			if (!dryRun) driveService.teamdrives().delete(teamDrive.getId());
+			if (!dryRun) apiCalls.executeDelete(ApiQuota.DRIVE, false, driveService.drives().delete(teamDrive.getId()).setUseDomainAdminAccess(true)::execute);
+			else if (plan != null) plan.add(new ChangePlan.Change(ChangePlan.Op.DELETE_DRIVE, key).setDrive(new Drive().setId(key).setName(teamDrive.getName())));
 			log.debug("Deleting TeamDrive: {} ", key);
 		} catch (IOException ex) {
 			throw new GoogleGroupsIOException("Something went wrong while deleting team drive", ex);
@@ -1146,27 +2188,34 @@ public class GoogleGroupsServiceImpl implements GoogleGroupsService {
 	 *
 	 * @param teamDrive drive to have permission created
 	 * @param user to have permission created
+	 * @param onSuccess Called when permission is created.
 	 * @throws GoogleGroupsIOException When API call fails.
 	 */
-	private void insertPermission(TeamDrive teamDrive, User user) throws GoogleGroupsIOException {
+	private void insertPermission(Drive teamDrive, User user, Runnable onSuccess) throws GoogleGroupsIOException {
 
 		Permission newOrganizerPermission = new Permission()
 				.setType("user")
 				.setRole("organizer")
 				.setEmailAddress(user.getPrimaryEmail());
 
-		try {
-			if (!dryRun) {
-				Permission result = driveService.permissions()
-						.create(teamDrive.getId(), newOrganizerPermission)
-						.setUseDomainAdminAccess(true)
-						.setSupportsTeamDrives(true)
-						.setFields("id")
-						.execute();
-				log.debug("Creating TeamDrive Permission: {} ", result);
-			} else {
-				log.debug("Creating TeamDrive Permission: {} ", newOrganizerPermission);
+		log.debug("Creating TeamDrive Permission: {} ", newOrganizerPermission);
+		if (dryRun) {
+			// permissions of created drive are part of its change
+			if (plan != null && teamDrive.getId() != null) {
+				plan.add(new ChangePlan.Change(ChangePlan.Op.INSERT_PERMISSION, user.getPrimaryEmail())
+						.setDrive(new Drive().setId(teamDrive.getId()).setName(teamDrive.getName())).setUser(new User().setPrimaryEmail(user.getPrimaryEmail())));
 			}
+			onSuccess.run();
+			return;
+		}
+		try {
+			com.google.api.services.drive.Drive.Permissions.Create request = driveService.permissions()
+					.create(teamDrive.getId(), newOrganizerPermission)
+					.setUseDomainAdminAccess(true)
+					.setSupportsAllDrives(true)
+					.setFields("id");
+			driveBatch.queue("permission:" + teamDrive.getId() + "/" + user.getPrimaryEmail(), request, "creating new permission: " + newOrganizerPermission,
+					createdEntities.contains("drive:" + teamDrive.getId()), onSuccess);
 		} catch (IOException ex) {
 			throw new GoogleGroupsIOException("Something went wrong while creating new permission: " + newOrganizerPermission, ex);
 		}
@@ -1177,17 +2226,21 @@ public class GoogleGroupsServiceImpl implements GoogleGroupsService {
 	 * Delete existing Permission on TeamDrive.
 	 *
 	 * @param permission permission to be deleted.
+	 * @param onSuccess Called when permission is deleted.
 	 * @throws GoogleGroupsIOException When API call fails.
 	 */
-	private void deletePermission(TeamDrive teamDrive, Permission permission) throws GoogleGroupsIOException {
+	private void deletePermission(Drive teamDrive, Permission permission, Runnable onSuccess) throws GoogleGroupsIOException {
+		log.debug("Deleting TeamDrive Permission: {} ", permission.getId());
+		if (dryRun) {
+			if (plan != null) plan.add(new ChangePlan.Change(ChangePlan.Op.DELETE_PERMISSION, permission.getId()).setDrive(new Drive().setId(teamDrive.getId()).setName(teamDrive.getName())));
+			onSuccess.run();
+			return;
+		}
 		try {
-			if (!dryRun) {
-				driveService.permissions().delete(teamDrive.getId(), permission.getId())
-						.setUseDomainAdminAccess(true)
-						.setSupportsTeamDrives(true)
-						.execute();
-			}
-			log.debug("Deleting TeamDrive Permission: {} ", permission.getId());
+			com.google.api.services.drive.Drive.Permissions.Delete request = driveService.permissions().delete(teamDrive.getId(), permission.getId())
+					.setUseDomainAdminAccess(true)
+					.setSupportsAllDrives(true);
+			driveBatch.queue("permission:" + teamDrive.getId() + "/" + permission.getId(), request, "deleting team drive permission " + permission.getId(), onSuccess);
 		} catch (IOException ex) {
 			throw new GoogleGroupsIOException("Something went wrong while deleting team drive permission", ex);
 		}
@@ -0,0 +1,152 @@
+package cz.metacentrum.perun.googlegroupconnector;
+
+import com.google.api.client.googleapis.GoogleUtils;
+import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.apache.v2.ApacheHttpTransport;
+import com.google.api.client.util.SslUtils;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.conn.SystemDefaultRoutePlanner;
+import org.apache.http.pool.PoolStats;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.net.ProxySelector;
+import java.security.GeneralSecurityException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates HTTP transport used by all G Suite services and applies connect/read timeouts to all requests.
+ * <p>
+ * Transport is selected by "http_transport" property:
+ * <ul>
+ *     <li>"default" - transport of java.net with trusted Google certificates (default)</li>
+ *     <li>"pooled" - Apache HttpClient with pool of keep-alive connections limited by "http_max_connections" per host</li>
+ * </ul>
+ * Responses are always requested gzipped and decoded by the Google HTTP client.
+ */
+public class HttpTransportProvider {
+
+	private final static org.slf4j.Logger log = LoggerFactory.getLogger(HttpTransportProvider.class);
+
+	// idle connections are closed after this time
+	private static final long IDLE_TIMEOUT_SECONDS = 60;
+	// idle connections are validated before reuse after this time
+	private static final int VALIDATE_AFTER_INACTIVITY_MS = 10000;
+	// Directory, Drive and OAuth2 endpoints
+	private static final int MAX_ROUTES = 3;
+
+	private final HttpTransport transport;
+	private final PoolingHttpClientConnectionManager connectionManager;
+	private final int connectTimeout;
+	private final int readTimeout;
+
+	private HttpTransportProvider(HttpTransport transport, PoolingHttpClientConnectionManager connectionManager, int connectTimeout, int readTimeout) {
+		this.transport = transport;
+		this.connectionManager = connectionManager;
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+	}
+
+	/**
+	 * Create transport based on domain properties.
+	 *
+	 * @param properties Domain properties
+	 * @return Transport provider
+	 * @throws IOException When trusted certificates can't be loaded
+	 * @throws GeneralSecurityException When SSL context can't be initialized
+	 */
+	public static HttpTransportProvider create(Properties properties) throws IOException, GeneralSecurityException {
+
+		String mode = properties.getProperty("http_transport", "default");
+		int connectTimeout = Integer.parseInt(properties.getProperty("http_connect_timeout", "20000"));
+		int readTimeout = Integer.parseInt(properties.getProperty("http_read_timeout", "20000"));
+
+		switch (mode) {
+			case "default":
+				return new HttpTransportProvider(GoogleNetHttpTransport.newTrustedTransport(), null, connectTimeout, readTimeout);
+			case "pooled":
+				int maxConnections = Integer.parseInt(properties.getProperty("http_max_connections", "20"));
+
+				SSLContext sslContext = SslUtils.getTlsSslContext();
+				SslUtils.initSslContext(sslContext, GoogleUtils.getCertificateTrustStore(), SslUtils.getPkixTrustManagerFactory());
+
+				PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(
+						RegistryBuilder.<ConnectionSocketFactory>create()
+								.register("http", PlainConnectionSocketFactory.getSocketFactory())
+								.register("https", new SSLConnectionSocketFactory(sslContext))
+								.build());
+				connectionManager.setDefaultMaxPerRoute(maxConnections);
+				connectionManager.setMaxTotal(maxConnections * MAX_ROUTES);
+				connectionManager.setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY_MS);
+
+				HttpClientBuilder builder = HttpClientBuilder.create()
+						.useSystemProperties()
+						.setConnectionManager(connectionManager)
+						.setRoutePlanner(new SystemDefaultRoutePlanner(ProxySelector.getDefault()))
+						.evictIdleConnections(IDLE_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+						// gzip is handled by Google HTTP client
+						.disableContentCompression()
+						.disableRedirectHandling()
+						.disableAutomaticRetries();
+
+				log.debug("Using pooled HTTP transport with max {} connections per host.", maxConnections);
+				return new HttpTransportProvider(new ApacheHttpTransport(builder.build()), connectionManager, connectTimeout, readTimeout);
+			default:
+				throw new IllegalArgumentException("Invalid http_transport: " + mode + ". Please use: \"default\" or \"pooled\".");
+		}
+
+	}
+
+	/**
+	 * Return HTTP transport.
+	 *
+	 * @return HTTP transport
+	 */
+	public HttpTransport getTransport() {
+		return transport;
+	}
+
+	/**
+	 * Wrap request initializer (e.g. Credential) to set timeouts on all requests.
+	 *
+	 * @param delegate Initializer to be called first
+	 * @return Request initializer
+	 */
+	public HttpRequestInitializer initializer(HttpRequestInitializer delegate) {
+		return request -> {
+			if (delegate != null) delegate.initialize(request);
+			request.setConnectTimeout(connectTimeout);
+			request.setReadTimeout(readTimeout);
+		};
+	}
+
+	/**
+	 * Close transport and its pooled connections.
+	 *
+	 * @throws IOException When transport can't be closed
+	 */
+	public void close() throws IOException {
+		transport.shutdown();
+	}
+
+	/**
+	 * Return usage of connection pool or NULL if transport is not pooled.
+	 *
+	 * @return Pool usage, e.g. "leased 2, available 8, pending 0, max 60"
+	 */
+	public String getPoolStats() {
+		if (connectionManager == null) return null;
+		PoolStats stats = connectionManager.getTotalStats();
+		return "leased " + stats.getLeased() + ", available " + stats.getAvailable() + ", pending " + stats.getPending() + ", max " + stats.getMax();
+	}
+
+}
@@ -0,0 +1,104 @@
+package cz.metacentrum.perun.googlegroupconnector;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Number of pages and bytes fetched by G Suite list calls.
+ * Counts are kept separately for each {@link Projection}.
+ */
+public class ListingStats {
+
+	private final Map<Projection, AtomicLong> pages = new EnumMap<>(Projection.class);
+	private final Map<Projection, AtomicLong> bytes = new EnumMap<>(Projection.class);
+
+	public ListingStats() {
+		for (Projection projection : Projection.values()) {
+			pages.put(projection, new AtomicLong());
+			bytes.put(projection, new AtomicLong());
+		}
+	}
+
+	/**
+	 * Record single fetched page.
+	 *
+	 * @param projection Listed resource
+	 * @param size Size of page content in bytes
+	 */
+	public void addPage(Projection projection, long size) {
+		pages.get(projection).incrementAndGet();
+		bytes.get(projection).addAndGet(size);
+	}
+
+	/**
+	 * Wrap content of single fetched page, so its bytes are counted while it is parsed.
+	 * Page is recorded when the stream is closed.
+	 *
+	 * @param projection Listed resource
+	 * @param content Decoded response content
+	 * @return Counting stream
+	 */
+	public InputStream countPage(Projection projection, InputStream content) {
+		return new FilterInputStream(content) {
+
+			private long size = 0;
+			private boolean closed = false;
+
+			@Override
+			public int read() throws IOException {
+				int result = super.read();
+				if (result >= 0) size++;
+				return result;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int result = super.read(b, off, len);
+				if (result > 0) size += result;
+				return result;
+			}
+
+			@Override
+			public long skip(long n) throws IOException {
+				long result = super.skip(n);
+				size += result;
+				return result;
+			}
+
+			@Override
+			public void close() throws IOException {
+				if (!closed) {
+					closed = true;
+					addPage(projection, size);
+				}
+				super.close();
+			}
+
+		};
+	}
+
+	/**
+	 * Return number of fetched pages.
+	 *
+	 * @param projection Listed resource
+	 * @return Number of pages
+	 */
+	public long getPages(Projection projection) {
+		return pages.get(projection).get();
+	}
+
+	/**
+	 * Return number of fetched bytes (decoded response content).
+	 *
+	 * @param projection Listed resource
+	 * @return Number of bytes
+	 */
+	public long getBytes(Projection projection) {
+		return bytes.get(projection).get();
+	}
+
+}
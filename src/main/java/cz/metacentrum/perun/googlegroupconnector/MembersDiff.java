@@ -0,0 +1,88 @@
+package cz.metacentrum.perun.googlegroupconnector;
+
+import com.google.api.services.directory.model.Member;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Difference between members of Group from Perun and members of Group in G Suite domain.
+ * <p>
+ * Members are compared by hashed keys of configured member identifier ("id" or "email").
+ * Emails are compared case-insensitive, since Google is case insensitive.
+ * Domain members are passed one by one by {@link #addDomainMember(Member)}.
+ */
+public class MembersDiff {
+
+	private final boolean byEmail;
+
+	// normalized key -> member identifier from Perun
+	private final Map<String, String> perunMembers = new LinkedHashMap<>();
+	// normalized key -> member identifier from domain
+	private final Map<String, String> domainMembers = new LinkedHashMap<>();
+
+	/**
+	 * Create diff for members of Group from Perun.
+	 *
+	 * @param perunMemberIds Member identifiers from Perun
+	 * @param memberIdType Type of member identifier, either "id" or "email"
+	 */
+	public MembersDiff(Collection<String> perunMemberIds, String memberIdType) {
+		this.byEmail = Objects.equals("email", memberIdType);
+		for (String memberId : perunMemberIds) {
+			perunMembers.putIfAbsent(key(memberId), memberId);
+		}
+	}
+
+	/**
+	 * Add single member of Group from domain to the comparison.
+	 *
+	 * @param member Member of group in G Suite domain
+	 */
+	public void addDomainMember(Member member) {
+		String memberId = byEmail ? member.getEmail() : member.getId();
+		// members without used identifier (e.g. whole customer) can't be matched nor removed by it
+		if (memberId == null) return;
+		domainMembers.putIfAbsent(key(memberId), memberId);
+	}
+
+	/**
+	 * Return member identifiers from Perun missing in domain Group.
+	 *
+	 * @return Set of member identifiers to be added
+	 */
+	public Collection<String> getAdded() {
+		Map<String, String> result = new LinkedHashMap<>(perunMembers);
+		result.keySet().removeAll(domainMembers.keySet());
+		return Collections.unmodifiableCollection(result.values());
+	}
+
+	/**
+	 * Return member identifiers from domain Group missing in Perun.
+	 * Identifiers are in form as returned by G Suite.
+	 *
+	 * @return Set of member identifiers to be removed
+	 */
+	public Collection<String> getRemoved() {
+		Map<String, String> result = new LinkedHashMap<>(domainMembers);
+		result.keySet().removeAll(perunMembers.keySet());
+		return Collections.unmodifiableCollection(result.values());
+	}
+
+	/**
+	 * Return TRUE if Group in domain has different members than Group in Perun.
+	 *
+	 * @return TRUE = members differ / FALSE = members are same
+	 */
+	public boolean isChanged() {
+		return !getAdded().isEmpty() || !getRemoved().isEmpty();
+	}
+
+	private String key(String memberId) {
+		return byEmail ? UsersDiff.normalize(memberId) : memberId;
+	}
+
+}
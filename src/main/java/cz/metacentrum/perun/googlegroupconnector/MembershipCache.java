@@ -0,0 +1,177 @@
+package cz.metacentrum.perun.googlegroupconnector;
+
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent local cache of group memberships applied to G Suite.
+ * <p>
+ * For each group email it stores hash of the last applied member set from Perun and ETag
+ * of the group in G Suite seen at that time. When both input hash and remote ETag are unchanged,
+ * listing of group members can be skipped.
+ * <p>
+ * Cache is stored as properties file "email=hash etag".
+ */
+public class MembershipCache {
+
+	private final static org.slf4j.Logger log = LoggerFactory.getLogger(MembershipCache.class);
+
+	private final Path file;
+	// modification time of the file when it was loaded or saved, NULL if it didn't exist
+	private FileTime fileModified;
+	// changed since it was loaded or saved
+	private volatile boolean unsaved = false;
+	private final Map<String, String> entries = new ConcurrentHashMap<>();
+
+	private MembershipCache(Path file) {
+		this.file = file;
+	}
+
+	/**
+	 * Load cache from file. Missing or unreadable file results in empty cache.
+	 *
+	 * @param file Path to cache file
+	 * @return Loaded cache
+	 */
+	public static MembershipCache load(Path file) {
+		MembershipCache cache = new MembershipCache(file);
+		// cache file replaced while it is read must be read again by the next job
+		cache.fileModified = getModifiedTime(file);
+		if (Files.exists(file)) {
+			try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+				Properties properties = new Properties();
+				properties.load(reader);
+				for (String email : properties.stringPropertyNames()) {
+					cache.entries.put(email, properties.getProperty(email));
+				}
+				log.debug("Loaded membership cache {} with {} groups.", file, cache.entries.size());
+			} catch (IOException | IllegalArgumentException ex) {
+				log.warn("Membership cache {} can't be read, all groups will be fully reconciled.", file, ex);
+				cache.entries.clear();
+			}
+		}
+		return cache;
+	}
+
+	/**
+	 * Return TRUE if members of group from Perun and group in G Suite are same as when members were last applied.
+	 *
+	 * @param email Email of group
+	 * @param membersHash Hash of members from Perun
+	 * @param etag Current ETag of group in G Suite
+	 * @return TRUE = group is unchanged / FALSE = members must be reconciled
+	 */
+	public boolean isUnchanged(String email, String membersHash, String etag) {
+		if (etag == null) return false;
+		return Objects.equals(entries.get(email), membersHash + " " + etag);
+	}
+
+	/**
+	 * Store applied members of group.
+	 *
+	 * @param email Email of group
+	 * @param membersHash Hash of applied members from Perun
+	 * @param etag ETag of group in G Suite, which corresponds to applied members or NULL if not known
+	 */
+	public void put(String email, String membersHash, String etag) {
+		unsaved = true;
+		if (etag == null) {
+			// group must be reconciled next time
+			entries.remove(email);
+		} else {
+			entries.put(email, membersHash + " " + etag);
+		}
+	}
+
+	/**
+	 * Remove group from cache.
+	 *
+	 * @param email Email of group
+	 */
+	public void remove(String email) {
+		unsaved = true;
+		entries.remove(email);
+	}
+
+	/**
+	 * Write cache to its file. File is replaced atomically.
+	 *
+	 * @throws IOException When file can't be written
+	 */
+	public void save() throws IOException {
+		Properties properties = new Properties();
+		properties.putAll(entries);
+		Path parent = file.toAbsolutePath().getParent();
+		Path tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+		try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+			properties.store(writer, "Membership cache of google-group-connector");
+		}
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		fileModified = getModifiedTime(file);
+		unsaved = false;
+		log.debug("Saved membership cache {} with {} groups.", file, entries.size());
+	}
+
+	/**
+	 * Return TRUE if cache has the same content as its file, i.e. it wasn't changed since it was loaded or saved
+	 * and the file wasn't replaced by anyone else. Such cache can be used by next job without reading the file again.
+	 *
+	 * @param file Path to cache file
+	 * @return TRUE = cache is current / FALSE = cache must be loaded again
+	 */
+	public boolean isCurrent(Path file) {
+		return this.file.equals(file) && !unsaved && Objects.equals(fileModified, getModifiedTime(file));
+	}
+
+	private static FileTime getModifiedTime(Path file) {
+		try {
+			return Files.getLastModifiedTime(file);
+		} catch (IOException ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * Compute hash of group members from Perun. Order and duplicates of identifiers are ignored,
+	 * emails are compared case-insensitive.
+	 *
+	 * @param memberIds Member identifiers from Perun
+	 * @param memberIdType Type of member identifier, either "id" or "email"
+	 * @return Hex encoded SHA-256 hash
+	 */
+	public static String hash(Collection<String> memberIds, String memberIdType) {
+		TreeSet<String> keys = new TreeSet<>();
+		for (String memberId : memberIds) {
+			keys.add(Objects.equals("email", memberIdType) ? UsersDiff.normalize(memberId) : memberId);
+		}
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(memberIdType.getBytes(StandardCharsets.UTF_8));
+			for (String key : keys) {
+				digest.update((byte) '\n');
+				digest.update(key.getBytes(StandardCharsets.UTF_8));
+			}
+			return HexFormat.of().formatHex(digest.digest());
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException("SHA-256 is not supported.", ex);
+		}
+	}
+
+}
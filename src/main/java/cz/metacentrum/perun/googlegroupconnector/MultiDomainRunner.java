@@ -0,0 +1,186 @@
+package cz.metacentrum.perun.googlegroupconnector;
+
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Synchronizes several domains concurrently in one process.
+ * <p>
+ * Each domain has own connection (credentials, HTTP transport), rate limits and counters. Jobs of the same
+ * domain are performed one by one in order they were passed, jobs of different domains run in parallel.
+ * Log lines are tagged by the domain. Summaries of all jobs are printed together once all jobs are done.
+ */
+public class MultiDomainRunner {
+
+	private final static org.slf4j.Logger log = LoggerFactory.getLogger(MultiDomainRunner.class);
+
+	public static final String MDC_DOMAIN = "domain";
+
+	/**
+	 * Single job - action performed with input file on the domain.
+	 */
+	public static class Job {
+
+		private final String domainName;
+		private final String action;
+		private final List<File> inputFiles;
+
+		public Job(String domainName, String action, List<File> inputFiles) {
+			this.domainName = domainName;
+			this.action = action;
+			this.inputFiles = inputFiles;
+		}
+
+		/**
+		 * Parse job from "DOMAIN:ACTION:FILE". Files of "all" action are separated by comma.
+		 *
+		 * @param spec Job specification
+		 * @return Job
+		 */
+		public static Job parse(String spec) {
+			String[] parts = spec.split(":", 3);
+			if (parts.length < 3 || parts[0].isEmpty() || parts[1].isEmpty() || parts[2].isEmpty()) {
+				throw new IllegalArgumentException("Invalid job: " + spec + ". Please use: DOMAIN:ACTION:FILE.");
+			}
+			return new Job(parts[0], parts[1], GoogleGroupsServiceImpl.getInputFiles(parts[1], parts[2]));
+		}
+
+		public String getDomainName() {
+			return domainName;
+		}
+
+		public String getAction() {
+			return action;
+		}
+
+		public List<File> getInputFiles() {
+			return inputFiles;
+		}
+
+	}
+
+	private final List<Job> jobs;
+
+	/**
+	 * Create runner of jobs.
+	 *
+	 * @param jobs Jobs to perform
+	 */
+	public MultiDomainRunner(List<Job> jobs) {
+		this.jobs = jobs;
+	}
+
+	/**
+	 * Perform all jobs and print combined summary.
+	 *
+	 * @param out Output for summary
+	 * @return Highest exit status of all jobs: 0 = success, 1 = failure, 2 = some changes failed (continue_on_error)
+	 */
+	public int run(PrintStream out) {
+
+		Map<String, List<Job>> jobsByDomain = new LinkedHashMap<>();
+		for (Job job : jobs) {
+			jobsByDomain.computeIfAbsent(job.getDomainName(), domain -> new ArrayList<>()).add(job);
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, jobsByDomain.size()));
+		Map<String, Future<String>> reports = new LinkedHashMap<>();
+		Map<String, Integer> statuses = new LinkedHashMap<>();
+		for (Map.Entry<String, List<Job>> domainJobs : jobsByDomain.entrySet()) {
+			reports.put(domainJobs.getKey(), pool.submit(() -> runDomain(domainJobs.getKey(), domainJobs.getValue(), statuses)));
+		}
+		pool.shutdown();
+
+		int status = 0;
+		for (Map.Entry<String, Future<String>> report : reports.entrySet()) {
+			try {
+				out.print(report.getValue().get());
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				out.println("== " + report.getKey() + " ==");
+				out.println("Interrupted while waiting for jobs of the domain.");
+				status = Math.max(status, 1);
+			} catch (ExecutionException ex) {
+				out.println("== " + report.getKey() + " ==");
+				out.println(ex.getCause().getClass().getSimpleName() + ": " + ex.getCause().getMessage());
+				status = Math.max(status, 1);
+			}
+		}
+		synchronized (statuses) {
+			long failed = statuses.values().stream().filter(jobStatus -> jobStatus != 0).count();
+			for (int jobStatus : statuses.values()) {
+				status = Math.max(status, jobStatus);
+			}
+			out.println("Domains: " + jobsByDomain.size() + ", jobs: " + jobs.size() + ", failed jobs: " + failed);
+		}
+		return status;
+
+	}
+
+	/**
+	 * Perform jobs of single domain one by one with shared connection.
+	 *
+	 * @return Summary of the jobs
+	 */
+	private String runDomain(String domainName, List<Job> domainJobs, Map<String, Integer> statuses) {
+
+		MDC.put(MDC_DOMAIN, "[" + domainName + "] ");
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		try (PrintStream out = new PrintStream(output, true, StandardCharsets.UTF_8)) {
+
+			GoogleGroupsConnectionImpl connection = null;
+			String connectionFailure = null;
+			try {
+				connection = new GoogleGroupsConnectionImpl(GoogleGroupsServiceImpl.getDomainFile(domainName));
+			} catch (Exception ex) {
+				log.error("Connection to domain {} failed.", domainName, ex);
+				connectionFailure = ex.getClass().getSimpleName() + ": " + ex.getMessage();
+			}
+
+			int index = 0;
+			for (Job job : domainJobs) {
+				String key = domainName + " " + job.getAction() + " #" + (++index);
+				out.println("== " + domainName + " " + job.getAction() + " ==");
+				int status;
+				if (connection == null) {
+					out.println(connectionFailure);
+					status = 1;
+				} else {
+					log.info("Starting job {} with {}.", job.getAction(), job.getInputFiles());
+					status = GoogleGroupsServiceImpl.runJob(connection, job.getAction(), job.getInputFiles(), out);
+				}
+				out.println("Exit status: " + status);
+				synchronized (statuses) {
+					statuses.put(key, status);
+				}
+			}
+
+			if (connection != null) {
+				try {
+					connection.close();
+				} catch (Exception ex) {
+					log.warn("Closing of connection to domain {} failed.", domainName, ex);
+				}
+			}
+
+		} finally {
+			MDC.remove(MDC_DOMAIN);
+		}
+		return output.toString(StandardCharsets.UTF_8);
+
+	}
+
+}
@@ -0,0 +1,243 @@
+package cz.metacentrum.perun.googlegroupconnector;
+
+import cz.metacentrum.perun.googlegroupconnector.exceptions.GoogleGroupsIOException;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Executes write operations (mutations) against G Suite with bounded concurrency.
+ * <p>
+ * Each mutation is submitted with a key of the entity it modifies. Mutations with the same key
+ * are executed in order of submission, mutations of different entities run in parallel
+ * on a bounded pool of threads. Number of queued mutations is bounded too, so submitting
+ * blocks when workers can't keep up.
+ * <p>
+ * First failure is stored and thrown back to the caller by next call of
+ * {@link #submit(String, Mutation)}, {@link #await(String)} or {@link #flush()}.
+ * <p>
+ * When concurrency is 1 (default), mutations are executed directly by the calling thread, one at a time.
+ * <p>
+ * When {@link DeadLetterQueue} is passed, failed mutations are stored to it instead and other mutations continue.
+ */
+public class MutationExecutor implements AutoCloseable {
+
+	private final static org.slf4j.Logger log = LoggerFactory.getLogger(MutationExecutor.class);
+
+	/**
+	 * Single write operation against G Suite.
+	 */
+	@FunctionalInterface
+	public interface Mutation {
+		void execute() throws GoogleGroupsIOException;
+	}
+
+	private final int concurrency;
+	private final ExecutorService pool;
+	private final Semaphore queueLimit;
+	// entity key -> last submitted mutation of the entity
+	private final Map<String, CompletableFuture<Void>> tails = new HashMap<>();
+	private final AtomicReference<GoogleGroupsIOException> failure = new AtomicReference<>();
+	private final DeadLetterQueue deadLetters;
+
+	/**
+	 * Create executor with specified concurrency.
+	 *
+	 * @param concurrency Max number of mutations executed at once
+	 */
+	public MutationExecutor(int concurrency) {
+		this(concurrency, null);
+	}
+
+	/**
+	 * Create executor with specified concurrency, which continues on error.
+	 *
+	 * @param concurrency Max number of mutations executed at once
+	 * @param deadLetters Queue to store failed mutations to or NULL to stop on first failure
+	 */
+	public MutationExecutor(int concurrency, DeadLetterQueue deadLetters) {
+		this.deadLetters = deadLetters;
+		this.concurrency = Math.max(1, concurrency);
+		if (this.concurrency > 1) {
+			AtomicInteger counter = new AtomicInteger();
+			this.pool = Executors.newFixedThreadPool(this.concurrency, runnable -> {
+				Thread thread = new Thread(runnable, "mutation-" + counter.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+			this.queueLimit = new Semaphore(this.concurrency * 64);
+			log.debug("Executing mutations with concurrency: {}", this.concurrency);
+		} else {
+			this.pool = null;
+			this.queueLimit = null;
+		}
+	}
+
+	/**
+	 * Return max number of mutations executed at once.
+	 *
+	 * @return concurrency
+	 */
+	public int getConcurrency() {
+		return concurrency;
+	}
+
+	/**
+	 * Return queue of failed mutations.
+	 *
+	 * @return Dead letter queue or NULL if executor stops on first failure
+	 */
+	public DeadLetterQueue getDeadLetters() {
+		return deadLetters;
+	}
+
+	/**
+	 * Submit mutation of the entity. It is executed after all previously submitted
+	 * mutations of the same entity.
+	 *
+	 * @param entityKey Unique key of modified entity
+	 * @param mutation Mutation to execute
+	 * @throws GoogleGroupsIOException When any previously submitted mutation failed
+	 */
+	public void submit(String entityKey, Mutation mutation) throws GoogleGroupsIOException {
+		submit(entityKey, List.of(entityKey), mutation);
+	}
+
+	/**
+	 * Submit mutation of more entities (e.g. batch request). It is executed after all previously submitted
+	 * mutations of each of the entities and following mutations of any of them wait for it.
+	 *
+	 * @param mutationKey Key of the mutation used in logs and dead letter queue
+	 * @param entityKeys Unique keys of modified entities
+	 * @param mutation Mutation to execute
+	 * @throws GoogleGroupsIOException When any previously submitted mutation failed
+	 */
+	public void submit(String mutationKey, Collection<String> entityKeys, Mutation mutation) throws GoogleGroupsIOException {
+
+		checkFailure();
+
+		if (pool == null) {
+			// callers might run in parallel, keep single mutation at once
+			synchronized (this) {
+				if (deadLetters == null) {
+					mutation.execute();
+				} else {
+					run(mutationKey, mutation);
+				}
+			}
+			return;
+		}
+
+		try {
+			queueLimit.acquire();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new GoogleGroupsIOException("Interrupted while submitting mutation of " + mutationKey, ex);
+		}
+
+		// keep log tags (domain, entity) of the submitter
+		Map<String, String> context = MDC.getCopyOfContextMap();
+		synchronized (tails) {
+			List<CompletableFuture<Void>> previous = new ArrayList<>();
+			for (String entityKey : entityKeys) {
+				CompletableFuture<Void> tail = tails.get(entityKey);
+				if (tail != null) previous.add(tail);
+			}
+			CompletableFuture<Void> after = (previous.size() == 1) ? previous.get(0)
+					: CompletableFuture.allOf(previous.toArray(new CompletableFuture<?>[0]));
+			CompletableFuture<Void> next = after.thenRunAsync(() -> {
+				if (context != null) MDC.setContextMap(context);
+				try {
+					run(mutationKey, mutation);
+				} finally {
+					MDC.clear();
+				}
+			}, pool);
+			for (String entityKey : entityKeys) {
+				tails.put(entityKey, next);
+			}
+			next.whenComplete((result, ex) -> {
+				queueLimit.release();
+				synchronized (tails) {
+					for (String entityKey : entityKeys) {
+						tails.remove(entityKey, next);
+					}
+				}
+			});
+		}
+
+	}
+
+	/**
+	 * Wait until all submitted mutations of the entity are done.
+	 *
+	 * @param entityKey Unique key of modified entity
+	 * @throws GoogleGroupsIOException When any submitted mutation failed
+	 */
+	public void await(String entityKey) throws GoogleGroupsIOException {
+		CompletableFuture<Void> tail;
+		synchronized (tails) {
+			tail = tails.get(entityKey);
+		}
+		if (tail != null) tail.join();
+		checkFailure();
+	}
+
+	/**
+	 * Wait until all submitted mutations are done.
+	 *
+	 * @throws GoogleGroupsIOException When any submitted mutation failed
+	 */
+	public void flush() throws GoogleGroupsIOException {
+		List<CompletableFuture<Void>> pending;
+		synchronized (tails) {
+			pending = new ArrayList<>(tails.values());
+		}
+		for (CompletableFuture<Void> tail : pending) {
+			tail.join();
+		}
+		checkFailure();
+	}
+
+	@Override
+	public void close() {
+		if (pool != null) pool.shutdown();
+	}
+
+	private void run(String entityKey, Mutation mutation) {
+		// skip remaining work once anything failed
+		if (failure.get() != null) return;
+		try {
+			mutation.execute();
+		} catch (GoogleGroupsIOException ex) {
+			fail(entityKey, mutation, ex);
+		} catch (RuntimeException ex) {
+			fail(entityKey, mutation, new GoogleGroupsIOException("Unexpected failure of mutation", ex));
+		}
+	}
+
+	private void fail(String entityKey, Mutation mutation, GoogleGroupsIOException ex) {
+		if (deadLetters != null) {
+			deadLetters.add(entityKey, ex, mutation);
+		} else {
+			failure.compareAndSet(null, ex);
+		}
+	}
+
+	private void checkFailure() throws GoogleGroupsIOException {
+		GoogleGroupsIOException ex = failure.get();
+		if (ex != null) throw ex;
+	}
+
+}
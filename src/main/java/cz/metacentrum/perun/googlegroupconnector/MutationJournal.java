@@ -0,0 +1,445 @@
+package cz.metacentrum.perun.googlegroupconnector;
+
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.gson.GsonFactory;
+import cz.metacentrum.perun.googlegroupconnector.exceptions.GoogleGroupsIOException;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only journal of planned and completed changes, so interrupted job can be resumed.
+ * <p>
+ * Journal has the same format as {@link ChangePlan}. The first line is a header with the domain, action
+ * and hash of input files. All changes of the job are planned first, each with a sequence number,
+ * and the end of planning is marked. Then every performed change is confirmed by a "done" line
+ * and the job is marked as finished once nothing is outstanding.
+ * <p>
+ * When the job is started again with the same input and journal was completely planned but not finished,
+ * only outstanding changes are performed. Journal is compacted on resume and when finished,
+ * so it contains only outstanding changes. Changes which keep failing would be resumed forever,
+ * so journal resumed {@link #MAX_RESUMES} times is considered stale and changes are planned again.
+ * <p>
+ * End of planning and finish are synced to disk immediately, confirmations by background thread every
+ * {@link #SYNC_MILLIS} ms. Changes confirmed shortly before crash of the machine might be performed again,
+ * 409 of such insert and 404 of such delete are considered done (see {@link ApiCallExecutor#setReplaying(boolean)}).
+ */
+public class MutationJournal implements ChangeRecorder, AutoCloseable {
+
+	private final static org.slf4j.Logger log = LoggerFactory.getLogger(MutationJournal.class);
+
+	private static final JsonFactory JSON_FACTORY = GsonFactory.getDefaultInstance();
+	public static final long SYNC_MILLIS = 100;
+	public static final int MAX_RESUMES = 3;
+
+	/**
+	 * Content of the journal.
+	 */
+	public static class Status {
+
+		private ChangePlan.Change header;
+		private boolean planned = false;
+		private boolean finished = false;
+		private long nextSeq = 1;
+		private int done = 0;
+		// sequence number -> planned change, confirmed are removed
+		private final Map<Long, ChangePlan.Change> outstanding = new LinkedHashMap<>();
+
+		/**
+		 * Return header of the journal with domain (key), action and hash of input files.
+		 *
+		 * @return Header
+		 */
+		public ChangePlan.Change getHeader() {
+			return header;
+		}
+
+		/**
+		 * Return TRUE if all changes of the job were planned.
+		 *
+		 * @return TRUE = planning is done / FALSE = job was interrupted while planning
+		 */
+		public boolean isPlanned() {
+			return planned;
+		}
+
+		/**
+		 * Return TRUE if job finished with all changes done.
+		 *
+		 * @return TRUE = finished / FALSE = some changes are outstanding
+		 */
+		public boolean isFinished() {
+			return finished;
+		}
+
+		/**
+		 * Return number of confirmed changes since last compaction.
+		 *
+		 * @return Number of done changes
+		 */
+		public int getDone() {
+			return done;
+		}
+
+		/**
+		 * Return planned changes which were not confirmed yet, in planned order.
+		 *
+		 * @return Outstanding changes
+		 */
+		public List<ChangePlan.Change> getOutstanding() {
+			return new ArrayList<>(outstanding.values());
+		}
+
+		/**
+		 * Return number of outstanding changes by operation.
+		 *
+		 * @return Operation -> number of outstanding changes
+		 */
+		public Map<ChangePlan.Op, Integer> countOutstanding() {
+			Map<ChangePlan.Op, Integer> counts = new EnumMap<>(ChangePlan.Op.class);
+			for (ChangePlan.Change change : outstanding.values()) {
+				counts.merge(change.getOp(), 1, Integer::sum);
+			}
+			return counts;
+		}
+
+	}
+
+	private final Path file;
+	private final FileChannel channel;
+	private final Status status;
+	private final boolean resumed;
+	private final ScheduledExecutorService syncer;
+	private boolean dirty = false;
+
+	private MutationJournal(Path file, FileChannel channel, Status status, boolean resumed) {
+		this.file = file;
+		this.channel = channel;
+		this.status = status;
+		this.resumed = resumed;
+		this.syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "journal-sync");
+			thread.setDaemon(true);
+			return thread;
+		});
+		syncer.scheduleWithFixedDelay(this::syncConfirmations, SYNC_MILLIS, SYNC_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Open journal of the job. Unfinished journal of the same job is resumed, otherwise new journal is started.
+	 *
+	 * @param file Journal file
+	 * @param domainName Domain of the job
+	 * @param action Action of the job
+	 * @param input Hash of input files of the job
+	 * @return Journal
+	 * @throws IOException When journal can't be read or written
+	 */
+	public static MutationJournal open(Path file, String domainName, String action, String input) throws IOException {
+
+		if (Files.exists(file)) {
+			Status previous = read(file);
+			ChangePlan.Change header = previous.getHeader();
+			boolean sameJob = Objects.equals(domainName, header.getKey()) && Objects.equals(action, header.getAction())
+					&& Objects.equals(input, header.getInput());
+			int resumes = (header.getResumes() != null) ? header.getResumes() : 0;
+			if (sameJob && previous.isPlanned() && !previous.isFinished() && resumes < MAX_RESUMES) {
+				log.info("Resuming journal {} with {} outstanding changes.", file, previous.outstanding.size());
+				header.setResumes(resumes + 1);
+				previous.done = 0;
+				write(file, previous);
+				return new MutationJournal(file, append(file), previous, true);
+			}
+			if (sameJob && previous.isPlanned() && !previous.isFinished()) {
+				log.warn("Journal {} was resumed {} times and {} changes are still outstanding, planning changes again.", file, resumes, previous.outstanding.size());
+			} else if (!previous.isFinished()) {
+				log.warn("Journal {} of other job ({} {}) was not finished, starting new one.", file, header.getKey(), header.getAction());
+			}
+		}
+
+		Status status = new Status();
+		status.header = new ChangePlan.Change(ChangePlan.Op.JOURNAL, domainName);
+		status.header.setAction(action);
+		status.header.setInput(input);
+		status.header.setCreated(Instant.now().toString());
+		write(file, status);
+		return new MutationJournal(file, append(file), status, false);
+
+	}
+
+	/**
+	 * Return TRUE if journal of interrupted job was resumed, so changes must not be planned again.
+	 *
+	 * @return TRUE = resumed / FALSE = new journal
+	 */
+	public boolean isResumed() {
+		return resumed;
+	}
+
+	/**
+	 * Return content of the journal.
+	 *
+	 * @return Status of the journal
+	 */
+	public Status getStatus() {
+		return status;
+	}
+
+	/**
+	 * Plan change. Can be called by more threads.
+	 *
+	 * @param change Change
+	 * @throws GoogleGroupsIOException When journal can't be written
+	 */
+	@Override
+	public synchronized void add(ChangePlan.Change change) throws GoogleGroupsIOException {
+		if (status.planned) throw new IllegalStateException("Planning of journal " + file + " is already done.");
+		change.setSeq(status.nextSeq++);
+		status.outstanding.put(change.getSeq(), change);
+		writeRecord(change, false);
+	}
+
+	/**
+	 * Mark all changes of the job as planned. Until then, journal can't be resumed.
+	 *
+	 * @throws GoogleGroupsIOException When journal can't be written
+	 */
+	public synchronized void planned() throws GoogleGroupsIOException {
+		status.planned = true;
+		writeRecord(new ChangePlan.Change(ChangePlan.Op.PLANNED, null), true);
+		log.debug("Planned {} changes to journal {}.", status.outstanding.size(), file);
+	}
+
+	/**
+	 * Confirm performed change. Can be called by more threads.
+	 * Failure to write is only logged, since change is already done and might be only performed again on resume.
+	 *
+	 * @param seq Sequence number of the change
+	 */
+	public synchronized void done(long seq) {
+		if (status.outstanding.remove(seq) == null) return;
+		status.done++;
+		try {
+			writeRecord(new ChangePlan.Change(ChangePlan.Op.DONE, null).setSeq(seq), false);
+		} catch (GoogleGroupsIOException ex) {
+			log.error("Unable to confirm change {} in journal, it will be performed again on resume.", seq, ex);
+		}
+	}
+
+	/**
+	 * Mark the job as finished and compact the journal, if no change is outstanding.
+	 *
+	 * @return TRUE = finished / FALSE = some changes are outstanding
+	 * @throws IOException When journal can't be written
+	 */
+	public synchronized boolean finish() throws IOException {
+		if (!status.outstanding.isEmpty()) {
+			sync();
+			return false;
+		}
+		try {
+			status.finished = true;
+			writeRecord(new ChangePlan.Change(ChangePlan.Op.FINISHED, null), true);
+		} catch (GoogleGroupsIOException ex) {
+			throw (IOException) ex.getCause();
+		}
+		compact(file);
+		return true;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		syncer.shutdown();
+		if (channel.isOpen()) {
+			sync();
+			channel.close();
+		}
+	}
+
+	private synchronized void syncConfirmations() {
+		try {
+			sync();
+		} catch (IOException ex) {
+			log.error("Unable to sync journal {}, confirmed changes might be performed again on resume.", file, ex);
+		}
+	}
+
+	private void writeRecord(ChangePlan.Change change, boolean force) throws GoogleGroupsIOException {
+		try {
+			ByteBuffer buffer = ByteBuffer.wrap((JSON_FACTORY.toString(change) + "\n").getBytes(StandardCharsets.UTF_8));
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			dirty = true;
+			if (force) sync();
+		} catch (IOException ex) {
+			throw new GoogleGroupsIOException("Unable to write to journal " + file, ex);
+		}
+	}
+
+	private void sync() throws IOException {
+		if (!dirty || !channel.isOpen()) return;
+		channel.force(false);
+		dirty = false;
+	}
+
+	/**
+	 * Read the journal. Incomplete last line (written when the job was killed) is ignored.
+	 *
+	 * @param file Journal file
+	 * @return Content of the journal
+	 * @throws IOException When file can't be read or is not a journal
+	 */
+	public static Status read(Path file) throws IOException {
+		Status status = new Status();
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line = reader.readLine();
+			ChangePlan.Change header = parse(line);
+			if (header == null || header.getOp() != ChangePlan.Op.JOURNAL) {
+				throw new IOException("File " + file + " is not a journal.");
+			}
+			status.header = header;
+			long lineNumber = 1;
+			String next = reader.readLine();
+			while ((line = next) != null) {
+				lineNumber++;
+				next = reader.readLine();
+				if (line.isEmpty()) continue;
+				ChangePlan.Change change = parse(line);
+				if (change == null) {
+					if (next == null) {
+						log.warn("Ignoring incomplete last line of journal {}.", file);
+						break;
+					}
+					throw new IOException("Journal " + file + " contains invalid record on line " + lineNumber + ".");
+				}
+				switch (change.getOp()) {
+					case PLANNED:
+						status.planned = true;
+						break;
+					case DONE:
+						if (status.outstanding.remove(change.getSeq()) != null) status.done++;
+						break;
+					case FINISHED:
+						status.finished = true;
+						break;
+					default:
+						if (change.getSeq() == null) {
+							throw new IOException("Journal " + file + " contains change without sequence number on line " + lineNumber + ".");
+						}
+						status.outstanding.put(change.getSeq(), change);
+						status.nextSeq = Math.max(status.nextSeq, change.getSeq() + 1);
+				}
+			}
+		}
+		return status;
+	}
+
+	/**
+	 * Rewrite the journal, so it contains only outstanding changes.
+	 *
+	 * @param file Journal file
+	 * @return Content of compacted journal
+	 * @throws IOException When journal can't be read or written
+	 */
+	public static Status compact(Path file) throws IOException {
+		Status status = read(file);
+		status.done = 0;
+		write(file, status);
+		return status;
+	}
+
+	/**
+	 * Return hash of the action and content of input files, which identifies the job.
+	 *
+	 * @param action Action of the job
+	 * @param inputFiles Input files of the job
+	 * @return Hash of the input
+	 * @throws IOException When input file can't be read
+	 */
+	public static String hashInput(String action, List<File> inputFiles) throws IOException {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(action.getBytes(StandardCharsets.UTF_8));
+			byte[] buffer = new byte[64 * 1024];
+			for (File inputFile : inputFiles) {
+				digest.update((byte) '\n');
+				try (InputStream in = Files.newInputStream(inputFile.toPath())) {
+					int read;
+					while ((read = in.read(buffer)) > 0) {
+						digest.update(buffer, 0, read);
+					}
+				}
+			}
+			return HexFormat.of().formatHex(digest.digest());
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException("SHA-256 is not supported.", ex);
+		}
+	}
+
+	private static ChangePlan.Change parse(String line) {
+		if (line == null) return null;
+		try {
+			ChangePlan.Change change = JSON_FACTORY.fromString(line, ChangePlan.Change.class);
+			change.getOp();
+			return change;
+		} catch (IOException | IllegalArgumentException | NullPointerException ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * Write content of the journal to temporary file, sync it and replace the journal.
+	 */
+	private static void write(Path file, Status status) throws IOException {
+		Path parent = file.toAbsolutePath().getParent();
+		Path tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+		try {
+			try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				StringBuilder content = new StringBuilder();
+				content.append(JSON_FACTORY.toString(status.header)).append('\n');
+				for (ChangePlan.Change change : status.outstanding.values()) {
+					content.append(JSON_FACTORY.toString(change)).append('\n');
+				}
+				if (status.planned) content.append(JSON_FACTORY.toString(new ChangePlan.Change(ChangePlan.Op.PLANNED, null))).append('\n');
+				if (status.finished) content.append(JSON_FACTORY.toString(new ChangePlan.Change(ChangePlan.Op.FINISHED, null))).append('\n');
+				ByteBuffer buffer = ByteBuffer.wrap(content.toString().getBytes(StandardCharsets.UTF_8));
+				while (buffer.hasRemaining()) {
+					out.write(buffer);
+				}
+				out.force(false);
+			}
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	private static FileChannel append(Path file) throws IOException {
+		return FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+	}
+
+}
@@ -0,0 +1,170 @@
+package cz.metacentrum.perun.googlegroupconnector;
+
+import cz.metacentrum.perun.googlegroupconnector.exceptions.GoogleGroupsIOException;
+import org.slf4j.MDC;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Iterates over items of paginated G Suite list call.
+ * <p>
+ * First page is requested when paginator is created. Each time a page is received, request for the
+ * next page is sent in background, so the next page is fetched while the current one is being consumed.
+ * Only the current page and the page in flight are kept in memory.
+ *
+ * @param <T> Type of listed items
+ */
+public class Paginator<T> {
+
+	private static final AtomicInteger threadCounter = new AtomicInteger();
+	private static final ExecutorService prefetchPool = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "paginator-" + threadCounter.incrementAndGet());
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * Fetches single page of list call.
+	 *
+	 * @param <P> Type of page
+	 */
+	@FunctionalInterface
+	public interface PageFetcher<P> {
+
+		/**
+		 * Fetch page.
+		 *
+		 * @param pageToken Token of the page or NULL for the first page
+		 * @return Fetched page
+		 * @throws IOException When API call fails.
+		 */
+		P fetch(String pageToken) throws IOException;
+
+	}
+
+	private final String description;
+	private final Function<String, CompletableFuture<Page<T>>> fetcher;
+
+	private CompletableFuture<Page<T>> nextPage;
+	private Iterator<T> current = Collections.emptyIterator();
+
+	private Paginator(String description, Function<String, CompletableFuture<Page<T>>> fetcher) {
+		this.description = description;
+		this.fetcher = fetcher;
+		this.nextPage = fetcher.apply(null);
+	}
+
+	/**
+	 * Create paginator and start fetching of the first page.
+	 *
+	 * @param description Description of listed resource used in error message, e.g. "users from domain x"
+	 * @param fetcher Fetches single page
+	 * @param items Returns items of the page (might be NULL)
+	 * @param nextPageToken Returns token of next page (NULL for the last page)
+	 * @return Paginator over all items
+	 */
+	public static <P, T> Paginator<T> of(String description, PageFetcher<P> fetcher, Function<P, List<T>> items, Function<P, String> nextPageToken) {
+		return new Paginator<>(description, pageToken -> {
+			// keep log tags (e.g. domain and entity) of the consumer
+			Map<String, String> context = MDC.getCopyOfContextMap();
+			return CompletableFuture.supplyAsync(() -> {
+				if (context != null) MDC.setContextMap(context);
+				try {
+					P page = fetcher.fetch(pageToken);
+					List<T> pageItems = items.apply(page);
+					return new Page<>((pageItems != null) ? pageItems : Collections.emptyList(), nextPageToken.apply(page));
+				} catch (IOException ex) {
+					throw new CompletionException(ex);
+				} finally {
+					MDC.clear();
+				}
+			}, prefetchPool);
+		});
+	}
+
+	/**
+	 * Create paginator over already fetched items, e.g. from snapshot of the domain.
+	 *
+	 * @param description Description of listed resource used in error message
+	 * @param items Fetched items
+	 * @return Paginator over the items
+	 */
+	public static <T> Paginator<T> of(String description, List<T> items) {
+		return new Paginator<>(description, pageToken -> CompletableFuture.completedFuture(new Page<>(items, null)));
+	}
+
+	/**
+	 * Return TRUE if there is next item. Waits for the next page if necessary.
+	 *
+	 * @return TRUE = there is next item / FALSE = all items were consumed
+	 * @throws GoogleGroupsIOException When API call fails.
+	 */
+	public boolean hasNext() throws GoogleGroupsIOException {
+		while (!current.hasNext()) {
+			if (nextPage == null) return false;
+			Page<T> page;
+			try {
+				page = nextPage.join();
+			} catch (CompletionException ex) {
+				nextPage = null;
+				throw new GoogleGroupsIOException("Something went wrong while getting " + description + " in Google Groups", ex.getCause());
+			}
+			// prefetch next page, while this one is consumed
+			nextPage = (page.nextPageToken != null) ? fetcher.apply(page.nextPageToken) : null;
+			current = page.items.iterator();
+		}
+		return true;
+	}
+
+	/**
+	 * Return next item. Must be preceded by {@link #hasNext()}.
+	 *
+	 * @return Next item
+	 */
+	public T next() {
+		if (!current.hasNext()) throw new NoSuchElementException("No next item of " + description + " is fetched.");
+		return current.next();
+	}
+
+	/**
+	 * Consume all remaining items to list.
+	 *
+	 * @return List of all remaining items
+	 * @throws GoogleGroupsIOException When API call fails.
+	 */
+	public List<T> toList() throws GoogleGroupsIOException {
+		List<T> result = new ArrayList<>();
+		while (hasNext()) {
+			result.add(next());
+		}
+		return result;
+	}
+
+	/**
+	 * Single fetched page.
+	 */
+	private static class Page<T> {
+
+		private final List<T> items;
+		private final String nextPageToken;
+
+		Page(List<T> items, String nextPageToken) {
+			this.items = items;
+			this.nextPageToken = nextPageToken;
+		}
+
+	}
+
+}
@@ -0,0 +1,93 @@
+package cz.metacentrum.perun.googlegroupconnector;
+
+import com.google.api.services.directory.model.User;
+import com.google.api.services.drive.model.Permission;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Difference between users of TeamDrive from Perun and permissions of TeamDrive in G Suite.
+ * <p>
+ * Both sides are indexed by case-folded email. Permissions are passed one by one
+ * by {@link #addPermission(Permission)}. Every permission, which doesn't belong to user from Perun,
+ * is removed, including permissions without email (e.g. domain or anyone permissions).
+ * Permission of service account user is never removed.
+ */
+public class PermissionsDiff {
+
+	private final String serviceAccountUser;
+
+	// normalized email -> User from Perun
+	private final Map<String, User> perunUsers = new LinkedHashMap<>();
+	// normalized email -> permission in TeamDrive
+	private final Map<String, Permission> permissions = new LinkedHashMap<>();
+	private final List<Permission> toRemove = new ArrayList<>();
+	private boolean serviceAccountMember = false;
+
+	/**
+	 * Create diff for users of TeamDrive from Perun.
+	 *
+	 * @param users Users from Perun
+	 * @param serviceAccountUser Email of user the service account acts on behalf of
+	 */
+	public PermissionsDiff(Collection<User> users, String serviceAccountUser) {
+		this.serviceAccountUser = UsersDiff.normalize(serviceAccountUser);
+		for (User user : users) {
+			perunUsers.putIfAbsent(UsersDiff.normalize(user.getPrimaryEmail()), user);
+		}
+	}
+
+	/**
+	 * Compare single permission of TeamDrive with users from Perun.
+	 *
+	 * @param permission Permission of TeamDrive
+	 */
+	public void addPermission(Permission permission) {
+		String key = UsersDiff.normalize(permission.getEmailAddress());
+		if (key != null) {
+			permissions.putIfAbsent(key, permission);
+			if (key.equals(serviceAccountUser)) serviceAccountMember = true;
+		}
+		// permission without email is not in Perun either
+		if (key == null || (!perunUsers.containsKey(key) && !key.equals(serviceAccountUser))) {
+			toRemove.add(permission);
+		}
+	}
+
+	/**
+	 * Return users from Perun without permission on TeamDrive.
+	 *
+	 * @return Users to have permission created
+	 */
+	public List<User> getToAdd() {
+		List<User> result = new ArrayList<>();
+		for (Map.Entry<String, User> entry : perunUsers.entrySet()) {
+			if (!permissions.containsKey(entry.getKey())) result.add(entry.getValue());
+		}
+		return result;
+	}
+
+	/**
+	 * Return permissions of users missing in Perun.
+	 *
+	 * @return Permissions to be deleted
+	 */
+	public List<Permission> getToRemove() {
+		return toRemove;
+	}
+
+	/**
+	 * Return TRUE if service account user has permission on TeamDrive,
+	 * so changes of TeamDrive are visible to it.
+	 *
+	 * @return TRUE = service account user has permission / FALSE = it hasn't
+	 */
+	public boolean isServiceAccountMember() {
+		return serviceAccountMember;
+	}
+
+}
@@ -0,0 +1,88 @@
+package cz.metacentrum.perun.googlegroupconnector;
+
+/**
+ * Projection of G Suite list calls.
+ * <p>
+ * Defines for each listed resource only fields, which are actually read by reconciliation,
+ * and max page size allowed by API, so domain state is fetched in as few and as small pages as possible.
+ */
+public enum Projection {
+
+	/**
+	 * Users of domain, compared by primary email, name and status.
+	 */
+	USERS("nextPageToken,users(primaryEmail,name(givenName,familyName,fullName),suspended)", 500, ApiQuota.DIRECTORY_READ),
+
+	/**
+	 * Users of domain listed to {@link DomainSnapshot}, aliases are used to check email members of groups.
+	 */
+	SNAPSHOT_USERS("nextPageToken,users(primaryEmail,aliases,name(givenName,familyName,fullName),suspended)", 500, ApiQuota.DIRECTORY_READ),
+
+	/**
+	 * Groups of domain, compared by email and name. ETag is used to detect changes of members.
+	 */
+	GROUPS("nextPageToken,groups(email,name,etag)", 200, ApiQuota.DIRECTORY_READ),
+
+	/**
+	 * Groups of domain listed to {@link DomainSnapshot}, aliases are used to check email members of groups.
+	 */
+	SNAPSHOT_GROUPS("nextPageToken,groups(email,aliases,name,etag)", 200, ApiQuota.DIRECTORY_READ),
+
+	/**
+	 * Members of group, compared by ID or email.
+	 */
+	MEMBERS("nextPageToken,members(id,email)", 200, ApiQuota.DIRECTORY_READ),
+
+	/**
+	 * Shared drives (TeamDrives) of domain, compared by name.
+	 */
+	DRIVES("nextPageToken,drives(id,name)", 100, ApiQuota.DRIVE),
+
+	/**
+	 * Permissions of TeamDrive, compared by email.
+	 */
+	PERMISSIONS("nextPageToken,permissions(id,emailAddress)", 100, ApiQuota.DRIVE),
+
+	/**
+	 * Drive changes since stored start page token, only IDs of changed drives are used.
+	 */
+	CHANGES("nextPageToken,newStartPageToken,changes(changeType,driveId)", 1000, ApiQuota.DRIVE);
+
+	private final String fields;
+	private final int maxPageSize;
+	private final ApiQuota quota;
+
+	Projection(String fields, int maxPageSize, ApiQuota quota) {
+		this.fields = fields;
+		this.maxPageSize = maxPageSize;
+		this.quota = quota;
+	}
+
+	/**
+	 * Return partial response selector for list call.
+	 *
+	 * @return value of "fields" parameter
+	 */
+	public String getFields() {
+		return fields;
+	}
+
+	/**
+	 * Return max page size allowed by API for list call.
+	 *
+	 * @return value of "maxResults" / "pageSize" parameter
+	 */
+	public int getMaxPageSize() {
+		return maxPageSize;
+	}
+
+	/**
+	 * Return quota the list call counts against.
+	 *
+	 * @return quota
+	 */
+	public ApiQuota getQuota() {
+		return quota;
+	}
+
+}
@@ -0,0 +1,62 @@
+package cz.metacentrum.perun.googlegroupconnector;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket limiting rate of API calls.
+ * <p>
+ * Bucket is refilled by configured number of tokens per second and holds at most one second worth of tokens.
+ * Each call takes one token (batch takes one token per request). When there are not enough tokens,
+ * they are reserved in advance and caller sleeps until they are refilled, so callers are served
+ * in order of arrival.
+ */
+public class RateLimiter {
+
+	private final double permitsPerSecond;
+	private final double capacity;
+	private double tokens;
+	private long lastRefill;
+
+	/**
+	 * Create rate limiter.
+	 *
+	 * @param permitsPerSecond Allowed calls per second, zero or less means unlimited
+	 */
+	public RateLimiter(double permitsPerSecond) {
+		this.permitsPerSecond = permitsPerSecond;
+		this.capacity = Math.max(1, permitsPerSecond);
+		this.tokens = capacity;
+		this.lastRefill = System.nanoTime();
+	}
+
+	/**
+	 * Return TRUE if calls are not limited.
+	 *
+	 * @return TRUE = unlimited / FALSE = limited
+	 */
+	public boolean isUnlimited() {
+		return permitsPerSecond <= 0;
+	}
+
+	/**
+	 * Take permits, waits until they are available.
+	 *
+	 * @param permits Number of permits to take
+	 * @return Time spent waiting in milliseconds
+	 * @throws InterruptedException When waiting is interrupted
+	 */
+	public long acquire(int permits) throws InterruptedException {
+		if (isUnlimited()) return 0;
+		long waitNanos;
+		synchronized (this) {
+			long now = System.nanoTime();
+			tokens = Math.min(capacity, tokens + (now - lastRefill) * permitsPerSecond / TimeUnit.SECONDS.toNanos(1));
+			lastRefill = now;
+			tokens -= permits;
+			waitNanos = (tokens < 0) ? (long) (-tokens * TimeUnit.SECONDS.toNanos(1) / permitsPerSecond) : 0;
+		}
+		if (waitNanos > 0) TimeUnit.NANOSECONDS.sleep(waitNanos);
+		return TimeUnit.NANOSECONDS.toMillis(waitNanos);
+	}
+
+}
@@ -0,0 +1,263 @@
+package cz.metacentrum.perun.googlegroupconnector;
+
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides which failures of G Suite API calls are transient and how long to wait before they are retried.
+ * <p>
+ * Retried are 429 and 5xx responses, 403 responses caused by rate limits or exceeded quota and network failures.
+ * Exceeded daily quota doesn't recover in time, such calls fail once attempts or retry budget are spent.
+ * Delay grows exponentially with each attempt and random jitter is added, so parallel callers don't retry
+ * at the same time. When server sends Retry-After header, caller waits at least that long.
+ * <p>
+ * Number of attempts of single call and total number of retries per run are limited.
+ * <p>
+ * Entities created in G Suite are not readable right away. 404 response to request of entity
+ * created in the same run is retried with short exponential backoff, see {@link #nextReadinessDelay(int)}.
+ */
+public class RetryPolicy {
+
+	private final static org.slf4j.Logger log = LoggerFactory.getLogger(RetryPolicy.class);
+
+	// thrown by Apache HTTP transport, which is optional
+	private static final String NO_HTTP_RESPONSE = "org.apache.http.NoHttpResponseException";
+	private static final Set<Integer> RETRYABLE_CODES = Set.of(429, 500, 502, 503, 504);
+	private static final Set<String> RETRYABLE_REASONS = Set.of("rateLimitExceeded", "userRateLimitExceeded", "quotaExceeded", "backendError");
+	private static final Set<String> THROTTLED_REASONS = Set.of("rateLimitExceeded", "userRateLimitExceeded", "quotaExceeded");
+	// don't wait for server which asks for longer delay
+	private static final long MAX_RETRY_AFTER_MS = 300000;
+	// created entity is usually readable within seconds
+	private static final long READINESS_INITIAL_DELAY_MS = 250;
+	private static final long READINESS_MAX_DELAY_MS = 4000;
+	private static final int READINESS_MAX_ATTEMPTS = 7;
+
+	private final int maxAttempts;
+	private final long initialDelay;
+	private final long maxDelay;
+	private final AtomicInteger budget;
+
+	/**
+	 * Create retry policy from domain properties.
+	 *
+	 * @param properties Domain properties
+	 */
+	public RetryPolicy(Properties properties) {
+		this.maxAttempts = Integer.parseInt(properties.getProperty("retry_max_attempts", "5"));
+		this.initialDelay = Long.parseLong(properties.getProperty("retry_initial_delay", "1000"));
+		this.maxDelay = Long.parseLong(properties.getProperty("retry_max_delay", "64000"));
+		this.budget = new AtomicInteger(Integer.parseInt(properties.getProperty("retry_budget", "1000")));
+	}
+
+	/**
+	 * Return TRUE if failed call might succeed when retried.
+	 *
+	 * @param ex Failure of the call
+	 * @return TRUE = retryable / FALSE = permanent failure
+	 */
+	public boolean isRetryable(IOException ex) {
+		if (ex instanceof GoogleJsonResponseException) {
+			GoogleJsonError details = ((GoogleJsonResponseException) ex).getDetails();
+			if (details != null) return isRetryable(details);
+		}
+		if (ex instanceof HttpResponseException) {
+			return RETRYABLE_CODES.contains(((HttpResponseException) ex).getStatusCode());
+		}
+		for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+			if (cause instanceof SocketTimeoutException || cause instanceof SocketException || NO_HTTP_RESPONSE.equals(cause.getClass().getName())) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Return TRUE if failed request of batch might succeed when retried.
+	 *
+	 * @param error Error of the request
+	 * @return TRUE = retryable / FALSE = permanent failure
+	 */
+	public boolean isRetryable(GoogleJsonError error) {
+		if (RETRYABLE_CODES.contains(error.getCode())) return true;
+		if (error.getCode() == 403 && error.getErrors() != null) {
+			for (GoogleJsonError.ErrorInfo info : error.getErrors()) {
+				if (RETRYABLE_REASONS.contains(info.getReason())) return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Return TRUE if call was rejected because of exceeded quota or rate limit.
+	 *
+	 * @param ex Failure of the call
+	 * @return TRUE = throttled / FALSE = other failure
+	 */
+	public boolean isThrottled(IOException ex) {
+		if (ex instanceof GoogleJsonResponseException) {
+			GoogleJsonError details = ((GoogleJsonResponseException) ex).getDetails();
+			if (details != null) return isThrottled(details);
+		}
+		return ex instanceof HttpResponseException && ((HttpResponseException) ex).getStatusCode() == 429;
+	}
+
+	/**
+	 * Return TRUE if request of batch was rejected because of exceeded quota or rate limit.
+	 *
+	 * @param error Error of the request
+	 * @return TRUE = throttled / FALSE = other failure
+	 */
+	public boolean isThrottled(GoogleJsonError error) {
+		if (error.getCode() == 429) return true;
+		if (error.getCode() == 403 && error.getErrors() != null) {
+			for (GoogleJsonError.ErrorInfo info : error.getErrors()) {
+				if (THROTTLED_REASONS.contains(info.getReason())) return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Return TRUE if call failed, because entity was not found.
+	 *
+	 * @param ex Failure of the call
+	 * @return TRUE = not found / FALSE = other failure
+	 */
+	public boolean isNotFound(IOException ex) {
+		return ex instanceof HttpResponseException && ((HttpResponseException) ex).getStatusCode() == 404;
+	}
+
+	/**
+	 * Return TRUE if request of batch failed, because entity was not found.
+	 *
+	 * @param error Error of the request
+	 * @return TRUE = not found / FALSE = other failure
+	 */
+	public boolean isNotFound(GoogleJsonError error) {
+		return error.getCode() == 404;
+	}
+
+	/**
+	 * Return TRUE if call failed, because entity already exists.
+	 *
+	 * @param ex Failure of the call
+	 * @return TRUE = conflict / FALSE = other failure
+	 */
+	public boolean isConflict(IOException ex) {
+		return ex instanceof HttpResponseException && ((HttpResponseException) ex).getStatusCode() == 409;
+	}
+
+	/**
+	 * Return TRUE if request of batch failed, because entity already exists.
+	 *
+	 * @param error Error of the request
+	 * @return TRUE = conflict / FALSE = other failure
+	 */
+	public boolean isConflict(GoogleJsonError error) {
+		return error.getCode() == 409;
+	}
+
+	/**
+	 * Return TRUE if sent again write failed, because its change was already done by previous attempt,
+	 * whose response was lost. Such insert fails with 409 (already exists) and delete with 404 (not found).
+	 *
+	 * @param ex Failure of the call
+	 * @param delete TRUE if the call is delete
+	 * @return TRUE = change is done / FALSE = other failure
+	 */
+	public boolean isAlreadyDone(IOException ex, boolean delete) {
+		return delete ? isNotFound(ex) : isConflict(ex);
+	}
+
+	/**
+	 * Return TRUE if sent again request of batch failed, because its change was already done by previous attempt,
+	 * whose response was lost. Such insert fails with 409 (already exists) and delete with 404 (not found).
+	 *
+	 * @param error Error of the request
+	 * @param delete TRUE if the request is delete
+	 * @return TRUE = change is done / FALSE = other failure
+	 */
+	public boolean isAlreadyDone(GoogleJsonError error, boolean delete) {
+		return delete ? isNotFound(error) : isConflict(error);
+	}
+
+	/**
+	 * Return delay requested by server in Retry-After header of failed call.
+	 *
+	 * @param ex Failure of the call
+	 * @return Delay in milliseconds or NULL if not requested
+	 */
+	public Long getRetryAfter(IOException ex) {
+		if (ex instanceof HttpResponseException) return getRetryAfter(((HttpResponseException) ex).getHeaders());
+		return null;
+	}
+
+	/**
+	 * Return delay requested by server in Retry-After header.
+	 *
+	 * @param headers Response headers
+	 * @return Delay in milliseconds or NULL if not requested
+	 */
+	public Long getRetryAfter(HttpHeaders headers) {
+		String value = (headers != null) ? headers.getRetryAfter() : null;
+		if (value == null || value.isEmpty()) return null;
+		try {
+			return Long.parseLong(value.trim()) * 1000;
+		} catch (NumberFormatException ex) {
+			try {
+				ZonedDateTime date = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+				return Math.max(0, Duration.between(ZonedDateTime.now(), date).toMillis());
+			} catch (DateTimeParseException ex2) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Return delay before next attempt of failed call or NULL if it must not be retried,
+	 * because max number of attempts or retry budget of the run was reached.
+	 * Each returned delay takes one retry from the budget.
+	 *
+	 * @param attempt Number of failed attempt (starting from 1)
+	 * @param retryAfter Delay requested by server in milliseconds or NULL
+	 * @return Delay in milliseconds or NULL
+	 */
+	public Long nextDelay(int attempt, Long retryAfter) {
+		if (attempt >= maxAttempts) return null;
+		if (retryAfter != null && retryAfter > MAX_RETRY_AFTER_MS) return null;
+		if (budget.getAndUpdate(left -> Math.max(0, left - 1)) <= 0) {
+			log.warn("Retry budget of the run is exhausted, failures are not retried anymore.");
+			return null;
+		}
+		// exponential backoff with "equal jitter" - half of the delay is random
+		long delay = Math.min(maxDelay, initialDelay << Math.min(attempt - 1, 30));
+		delay = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+		return (retryAfter != null) ? Math.max(delay, retryAfter) : delay;
+	}
+
+	/**
+	 * Return delay before next attempt of call, which didn't find entity created in the same run,
+	 * or NULL if entity is not readable in time. These attempts don't take from retry budget.
+	 *
+	 * @param attempt Number of failed attempt (starting from 1)
+	 * @return Delay in milliseconds or NULL
+	 */
+	public Long nextReadinessDelay(int attempt) {
+		if (attempt >= READINESS_MAX_ATTEMPTS) return null;
+		return Math.min(READINESS_MAX_DELAY_MS, READINESS_INITIAL_DELAY_MS << Math.min(attempt - 1, 30));
+	}
+
+}
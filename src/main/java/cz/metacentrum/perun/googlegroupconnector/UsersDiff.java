@@ -0,0 +1,158 @@
+package cz.metacentrum.perun.googlegroupconnector;
+
+import com.google.api.services.directory.model.User;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Difference between Users from Perun and Users in G Suite domain.
+ * <p>
+ * Both sides are indexed by normalized primary email, so the state is compared
+ * in a single linear pass instead of searching lists for each User.
+ * Domain Users are passed one by one by {@link #addDomainUser(User)}, result is then
+ * available as explicit insert / update / suspend / delete sets.
+ */
+public class UsersDiff {
+
+	private final boolean allowDelete;
+
+	// normalized email -> User from Perun
+	private final Map<String, User> perunUsers = new LinkedHashMap<>();
+	// normalized email -> User from domain
+	private final Map<String, User> domainUsers = new LinkedHashMap<>();
+
+	private final List<User> toUpdate = new ArrayList<>();
+	private final List<User> toSuspend = new ArrayList<>();
+	private final List<User> toDelete = new ArrayList<>();
+	private final List<User> unchanged = new ArrayList<>();
+
+	/**
+	 * Create diff for Users from Perun.
+	 *
+	 * @param users Users from Perun
+	 * @param allowDelete TRUE = domain users missing in Perun are deleted / FALSE = suspended
+	 */
+	public UsersDiff(List<User> users, boolean allowDelete) {
+		this.allowDelete = allowDelete;
+		for (User user : users) {
+			// first occurrence wins
+			perunUsers.putIfAbsent(normalize(user.getPrimaryEmail()), user);
+		}
+	}
+
+	/**
+	 * Compare single User from domain with Users from Perun.
+	 *
+	 * @param domainUser User from G Suite domain
+	 */
+	public void addDomainUser(User domainUser) {
+
+		String key = normalize(domainUser.getPrimaryEmail());
+		if (domainUsers.putIfAbsent(key, domainUser) != null) return;
+
+		User user = perunUsers.get(key);
+		if (user != null) {
+
+			// already in domain - update name and status if changed
+			if (!Objects.equals(user.getName().getFamilyName(), domainUser.getName().getFamilyName()) ||
+					!Objects.equals(user.getName().getGivenName(), domainUser.getName().getGivenName()) ||
+					!Objects.equals(user.getSuspended(), domainUser.getSuspended())) {
+				toUpdate.add(user);
+			} else {
+				unchanged.add(user);
+			}
+
+		} else if (allowDelete) {
+			toDelete.add(domainUser);
+		} else if (!Boolean.TRUE.equals(domainUser.getSuspended())) {
+			// deletion of domain users is disabled - suspend instead
+			toSuspend.add(domainUser);
+		}
+
+	}
+
+	/**
+	 * Return Users from Perun missing in domain, which are not suspended.
+	 *
+	 * @return Users to be created in domain
+	 */
+	public List<User> getToInsert() {
+		List<User> result = new ArrayList<>();
+		for (Map.Entry<String, User> entry : perunUsers.entrySet()) {
+			if (!domainUsers.containsKey(entry.getKey()) && !entry.getValue().getSuspended()) {
+				result.add(entry.getValue());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Return Users from Perun missing in domain, which are in suspended state and
+	 * therefore are not created.
+	 *
+	 * @return Suspended Users missing in domain
+	 */
+	public List<User> getSkippedSuspended() {
+		List<User> result = new ArrayList<>();
+		for (Map.Entry<String, User> entry : perunUsers.entrySet()) {
+			if (!domainUsers.containsKey(entry.getKey()) && entry.getValue().getSuspended()) {
+				result.add(entry.getValue());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Return Users from Perun with changed name or status.
+	 *
+	 * @return Users to be updated in domain
+	 */
+	public List<User> getToUpdate() {
+		return Collections.unmodifiableList(toUpdate);
+	}
+
+	/**
+	 * Return domain Users missing in Perun, which are not yet suspended.
+	 * Always empty, when deletion is allowed.
+	 *
+	 * @return Domain Users to be suspended
+	 */
+	public List<User> getToSuspend() {
+		return Collections.unmodifiableList(toSuspend);
+	}
+
+	/**
+	 * Return domain Users missing in Perun.
+	 * Always empty, when deletion is not allowed.
+	 *
+	 * @return Domain Users to be deleted
+	 */
+	public List<User> getToDelete() {
+		return Collections.unmodifiableList(toDelete);
+	}
+
+	/**
+	 * Return Users from Perun, which are same in domain.
+	 *
+	 * @return Unchanged Users
+	 */
+	public List<User> getUnchanged() {
+		return Collections.unmodifiableList(unchanged);
+	}
+
+	/**
+	 * Normalize email for comparison, since Google is case insensitive.
+	 *
+	 * @param email Email to normalize
+	 * @return Normalized email
+	 */
+	static String normalize(String email) {
+		return (email == null) ? null : email.trim().toLowerCase();
+	}
+
+}
@@ -0,0 +1,172 @@
+package cz.metacentrum.perun.googlegroupconnector;
+
+import com.google.api.services.directory.Directory;
+import com.google.api.services.directory.model.Member;
+import com.google.api.services.directory.model.User;
+import com.google.api.services.directory.model.UserName;
+import cz.metacentrum.perun.googlegroupconnector.exceptions.GoogleGroupsIOException;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BatchQueueTest {
+
+	private final MockApi api = new MockApi();
+	private final Directory directory = api.directory();
+	private final List<String> done = Collections.synchronizedList(new ArrayList<>());
+
+	@Test
+	public void requestsAreSplitToBatches() throws Exception {
+		BatchQueue queue = queue(new ApiCallExecutor(properties()), 2);
+		for (int i = 1; i <= 5; i++) {
+			delete(queue, "user" + i + "@domain.cz");
+		}
+		queue.flush();
+
+		assertEquals(List.of(2, 2, 1), api.getCalls().stream().map(List::size).toList());
+		assertEquals(5, done.size());
+	}
+
+	@Test
+	public void entityIsChangedOnlyOnceInBatch() throws Exception {
+		BatchQueue queue = queue(new ApiCallExecutor(properties()), 10);
+		delete(queue, "user1@domain.cz");
+		delete(queue, "user2@domain.cz");
+		delete(queue, "user1@domain.cz");
+		queue.flush();
+
+		assertEquals(List.of(List.of(delete("user1@domain.cz"), delete("user2@domain.cz")), List.of(delete("user1@domain.cz"))), api.getCalls());
+	}
+
+	@Test
+	public void retriedBatchSkipsDoneRequests() throws Exception {
+		api.respond(delete("user2@domain.cz"), 503);
+		BatchQueue queue = queue(new ApiCallExecutor(properties()), 10);
+		delete(queue, "user1@domain.cz");
+		delete(queue, "user2@domain.cz");
+		queue.flush();
+
+		assertEquals(List.of(List.of(delete("user1@domain.cz"), delete("user2@domain.cz")), List.of(delete("user2@domain.cz"))), api.getCalls());
+		assertEquals(List.of("user1@domain.cz", "user2@domain.cz"), done);
+	}
+
+	@Test
+	public void resentInsertFailingWithConflictIsDone() throws Exception {
+		// first response was lost, but user was created
+		api.respond("POST /admin/directory/v1/users", 503, 409);
+		BatchQueue queue = queue(new ApiCallExecutor(properties()), 10);
+		User user = new User().setPrimaryEmail("user@domain.cz").setPassword("secret").setName(new UserName().setGivenName("Jan").setFamilyName("Novák"));
+		queue.queue(user.getPrimaryEmail(), directory.users().insert(user), "inserting user", () -> done.add(user.getPrimaryEmail()));
+		queue.flush();
+
+		assertEquals(2, api.getCalls().size());
+		assertEquals(List.of("user@domain.cz"), done);
+	}
+
+	@Test
+	public void resentDeleteFailingWithNotFoundIsDone() throws Exception {
+		api.respond(delete("user@domain.cz"), 503, 404);
+		BatchQueue queue = queue(new ApiCallExecutor(properties()), 10);
+		delete(queue, "user@domain.cz");
+		queue.flush();
+
+		assertEquals(2, api.getCalls().size());
+		assertEquals(List.of("user@domain.cz"), done);
+	}
+
+	@Test
+	public void singleDeleteRetriedAfterLostResponseIsDone() throws Exception {
+		api.respond(delete("user@domain.cz"), 503, 404);
+		BatchQueue queue = queue(new ApiCallExecutor(properties()), 1);
+		delete(queue, "user@domain.cz");
+		queue.flush();
+
+		assertEquals(2, api.getCalls().size());
+		assertEquals(List.of("user@domain.cz"), done);
+	}
+
+	@Test
+	public void deleteOfMissingEntityFails() throws Exception {
+		api.respond(delete("user@domain.cz"), 404);
+		BatchQueue queue = queue(new ApiCallExecutor(properties()), 10);
+		delete(queue, "user@domain.cz");
+
+		assertThrows(GoogleGroupsIOException.class, queue::flush);
+		assertTrue(done.isEmpty());
+	}
+
+	@Test
+	public void memberOfCreatedGroupIsInsertedOnceGroupIsReadable() throws Exception {
+		// created group is not readable right away
+		api.respond("POST /admin/directory/v1/groups/group@domain.cz/members", 404, 404);
+		ApiCallExecutor apiCalls = new ApiCallExecutor(properties());
+		BatchQueue queue = queue(apiCalls, 10);
+		delete(queue, "user@domain.cz");
+		queue.queue("member:group@domain.cz/user@domain.cz", directory.members().insert("group@domain.cz", new Member().setEmail("user@domain.cz")),
+				"inserting member", true, () -> done.add("member"));
+		queue.flush();
+
+		assertEquals(List.of(2, 1, 1), api.getCalls().stream().map(List::size).toList());
+		assertEquals(List.of("user@domain.cz", "member"), done);
+		assertEquals(750, apiCalls.getReadinessMillis());
+	}
+
+	@Test
+	public void replayedDeleteFailingWithNotFoundIsDone() throws Exception {
+		api.respond(delete("user@domain.cz"), 404);
+		ApiCallExecutor apiCalls = new ApiCallExecutor(properties());
+		apiCalls.setReplaying(true);
+		BatchQueue queue = queue(apiCalls, 10);
+		delete(queue, "user@domain.cz");
+		queue.flush();
+
+		assertEquals(List.of("user@domain.cz"), done);
+	}
+
+	@Test
+	public void failedRequestIsStoredToDeadLetterQueue() throws Exception {
+		api.respond(delete("user2@domain.cz"), 400);
+		DeadLetterQueue deadLetters = new DeadLetterQueue();
+		BatchQueue queue = new BatchQueue("test", directory, new MutationExecutor(1, deadLetters), new ApiCallExecutor(properties()), ApiQuota.DIRECTORY_WRITE, 10, 1000);
+		delete(queue, "user1@domain.cz");
+		delete(queue, "user2@domain.cz");
+		queue.flush();
+
+		assertEquals(List.of("user1@domain.cz"), done);
+		assertEquals(List.of("user2@domain.cz"), deadLetters.getEntries().stream().map(DeadLetterQueue.Entry::getEntityKey).toList());
+		// retry from the queue sends the request on its own
+		for (DeadLetterQueue.Entry entry : deadLetters.drain()) {
+			entry.getRetry().execute();
+		}
+		assertTrue(deadLetters.isEmpty());
+		assertEquals(List.of("user1@domain.cz", "user2@domain.cz"), done);
+		assertEquals(List.of(delete("user2@domain.cz")), api.getCalls().get(1));
+	}
+
+	private BatchQueue queue(ApiCallExecutor apiCalls, int batchSize) {
+		return new BatchQueue("test", directory, new MutationExecutor(1), apiCalls, ApiQuota.DIRECTORY_WRITE, batchSize, 1000);
+	}
+
+	private void delete(BatchQueue queue, String email) throws Exception {
+		queue.queue(email, directory.users().delete(email), "deleting user " + email, () -> done.add(email));
+	}
+
+	private static String delete(String email) {
+		return "DELETE /admin/directory/v1/users/" + email;
+	}
+
+	private static Properties properties() {
+		Properties properties = new Properties();
+		properties.setProperty("retry_initial_delay", "10");
+		properties.setProperty("retry_max_delay", "20");
+		return properties;
+	}
+
+}
@@ -0,0 +1,70 @@
+package cz.metacentrum.perun.googlegroupconnector;
+
+import com.google.api.services.directory.model.Group;
+import com.google.api.services.directory.model.Member;
+import com.google.api.services.directory.model.User;
+import com.google.api.services.directory.model.UserName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ChangePlanTest {
+
+	@TempDir
+	Path dir;
+
+	@Test
+	public void changesAreReadInPlannedOrder() throws Exception {
+		Path file = dir.resolve("plan.jsonl");
+		ChangePlan plan = ChangePlan.create(file, "domain.cz", "all");
+		plan.add(new ChangePlan.Change(ChangePlan.Op.INSERT_USER, "user@domain.cz").setUser(new User().setPrimaryEmail("user@domain.cz")
+				.setName(new UserName().setGivenName("Žofie").setFamilyName("Nováková")).setSuspended(false)));
+		plan.add(new ChangePlan.Change(ChangePlan.Op.INSERT_MEMBER, "user@domain.cz").setGroup(new Group().setEmail("g@domain.cz"))
+				.setMember(new Member().setEmail("user@domain.cz").setRole("MEMBER")));
+		plan.add(new ChangePlan.Change(ChangePlan.Op.CREATE_DRIVE, "drive").setUsers(List.of("user@domain.cz")));
+		plan.close();
+
+		List<ChangePlan.Change> changes = new ArrayList<>();
+		ChangePlan.Change header = ChangePlan.read(file, "domain.cz", changes::add);
+
+		assertEquals("all", header.getAction());
+		assertEquals(3, changes.size());
+		assertEquals(ChangePlan.Op.INSERT_USER, changes.get(0).getOp());
+		assertEquals("Žofie", changes.get(0).getUser().getName().getGivenName());
+		assertEquals(false, changes.get(0).getUser().getSuspended());
+		assertEquals("g@domain.cz", changes.get(1).getGroup().getEmail());
+		assertEquals("MEMBER", changes.get(1).getMember().getRole());
+		assertEquals(List.of("user@domain.cz"), changes.get(2).getUsers());
+	}
+
+	@Test
+	public void planOfOtherDomainIsRejected() throws Exception {
+		Path file = dir.resolve("plan.jsonl");
+		ChangePlan.create(file, "domain.cz", "users").close();
+
+		assertThrows(IOException.class, () -> ChangePlan.read(file, "other.cz", change -> {}));
+	}
+
+	@Test
+	public void discardedPlanIsNotSaved() throws Exception {
+		Path file = dir.resolve("plan.jsonl");
+		ChangePlan plan = ChangePlan.create(file, "domain.cz", "users");
+		plan.add(new ChangePlan.Change(ChangePlan.Op.DELETE_USER, "user@domain.cz"));
+		plan.discard();
+
+		assertFalse(Files.exists(file));
+		try (var files = Files.list(dir)) {
+			assertEquals(0, files.count());
+		}
+	}
+
+}
@@ -0,0 +1,97 @@
+package cz.metacentrum.perun.googlegroupconnector;
+
+import com.opencsv.CSVParserBuilder;
+import com.opencsv.CSVReader;
+import com.opencsv.CSVReaderBuilder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ChunkedCsvParserTest {
+
+	private static final String[] PIECES = { "a", "bc", ";", ";", ",", "\n", "\r\n", "\r", " ", "ž", "x@domain.cz", "" };
+
+	@TempDir
+	Path dir;
+
+	@Test
+	public void smallFilesAreParsedSameAsRowByRow() throws Exception {
+		Random random = new Random(1);
+		for (int i = 0; i < 200; i++) {
+			assertSameAsRowByRow(write(randomContent(random, random.nextInt(300))));
+		}
+	}
+
+	@Test
+	public void fileOfMoreChunksIsParsedSameAsRowByRow() throws Exception {
+		assertSameAsRowByRow(write(randomContent(new Random(2), 20 * 1024 * 1024)));
+	}
+
+	@Test
+	public void fileWithQuotesIsNotParsed() throws Exception {
+		List<String> rows = new ArrayList<>();
+		long result = new ChunkedCsvParser(4, ';', StandardCharsets.UTF_8).parse(write("a;b\n\"c;d\";e\n"), (line, lineNumber) -> line[0], rows::add);
+
+		assertEquals(-1, result);
+		assertTrue(rows.isEmpty());
+	}
+
+	@Test
+	public void rowsBeforeFailedRowAreHandled() throws Exception {
+		List<String> rows = new ArrayList<>();
+		Path file = write("a;1\nb;2\nc;3\nbad\ne;5\n");
+
+		IllegalArgumentException ex = assertThrows(IllegalArgumentException.class, () -> new ChunkedCsvParser(4, ';', StandardCharsets.UTF_8).parse(file, (line, lineNumber) -> {
+			if (line.length < 2) throw new IllegalArgumentException("Row with less than 2 columns on line " + lineNumber);
+			return line[0];
+		}, rows::add));
+
+		assertEquals("Row with less than 2 columns on line 4", ex.getMessage());
+		assertEquals(List.of("a", "b", "c"), rows);
+	}
+
+	private void assertSameAsRowByRow(Path file) throws Exception {
+		List<String> expected = new ArrayList<>();
+		try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			CSVReader csvReader = new CSVReaderBuilder(reader).withCSVParser(new CSVParserBuilder().withSeparator(';').build()).build();
+			long lineNumber = csvReader.getLinesRead() + 1;
+			String[] line;
+			while ((line = csvReader.readNext()) != null) {
+				expected.add(lineNumber + ":" + Arrays.toString(line));
+				lineNumber = csvReader.getLinesRead() + 1;
+			}
+		}
+		List<String> actual = new ArrayList<>();
+		long rows = new ChunkedCsvParser(4, ';', StandardCharsets.UTF_8).parse(file, (line, lineNumber) -> lineNumber + ":" + Arrays.toString(line), actual::add);
+
+		assertEquals(expected.size(), rows);
+		assertEquals(expected, actual);
+	}
+
+	private static String randomContent(Random random, int length) {
+		StringBuilder content = new StringBuilder();
+		while (content.length() < length) {
+			content.append(PIECES[random.nextInt(PIECES.length)]);
+		}
+		return content.toString();
+	}
+
+	private Path write(String content) throws Exception {
+		Path file = Files.createTempFile(dir, "input", ".csv");
+		Files.writeString(file, content, StandardCharsets.UTF_8);
+		return file;
+	}
+
+}
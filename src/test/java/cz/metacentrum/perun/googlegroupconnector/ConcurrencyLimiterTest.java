@@ -0,0 +1,52 @@
+package cz.metacentrum.perun.googlegroupconnector;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ConcurrencyLimiterTest {
+
+	@Test
+	public void limitGrowsWhileLatencyIsHealthy() {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 1, 8, 2);
+		for (int i = 0; i < 100; i++) {
+			limiter.onSuccess(TimeUnit.MILLISECONDS.toNanos(100), 1);
+		}
+		assertEquals(8, limiter.getLimit());
+	}
+
+	@Test
+	public void throttlingCutsLimitInHalf() {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 1, 8, 8);
+		limiter.onThrottled("429");
+		assertEquals(4, limiter.getLimit());
+		// burst of failures counts once
+		limiter.onThrottled("429");
+		assertEquals(4, limiter.getLimit());
+	}
+
+	@Test
+	public void batchesDontDegradeSingleCalls() {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 1, 8, 4);
+		// batch of 100 requests takes 2 s, i.e. 20 ms per request
+		limiter.onSuccess(TimeUnit.SECONDS.toNanos(2), 100);
+		// single call is much slower than 20 ms, but healthy
+		for (int i = 0; i < 20; i++) {
+			limiter.onSuccess(TimeUnit.MILLISECONDS.toNanos(300), 1);
+			limiter.onSuccess(TimeUnit.MILLISECONDS.toNanos(2100), 100);
+		}
+		assertTrue(limiter.getLimit() > 4, "limit " + limiter.getLimit());
+	}
+
+	@Test
+	public void slowCallsLowerLimit() {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 1, 8, 8);
+		limiter.onSuccess(TimeUnit.MILLISECONDS.toNanos(100), 1);
+		limiter.onSuccess(TimeUnit.MILLISECONDS.toNanos(1000), 1);
+		assertEquals(7, limiter.getLimit());
+	}
+
+}
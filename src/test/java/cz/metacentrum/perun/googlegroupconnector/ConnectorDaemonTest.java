@@ -0,0 +1,71 @@
+package cz.metacentrum.perun.googlegroupconnector;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ConnectorDaemonTest {
+
+	@TempDir
+	Path dir;
+
+	@Test
+	public void secretReadableByOthersIsRejected() throws Exception {
+		Path secret = secret("rw-r--r--");
+
+		assertThrows(IOException.class, () -> new ConnectorDaemon(0, properties(secret, dir)));
+	}
+
+	@Test
+	public void jobRequiresSecret() throws Exception {
+		ConnectorDaemon daemon = new ConnectorDaemon(0, properties(secret("rw-------"), dir));
+
+		assertTrue(daemon.isAuthorized("Bearer s3cret"));
+		assertFalse(daemon.isAuthorized("Bearer other"));
+		assertFalse(daemon.isAuthorized("s3cret"));
+		assertFalse(daemon.isAuthorized(null));
+	}
+
+	@Test
+	public void jobFilesMustBeInJobDirs() throws Exception {
+		Path jobs = Files.createDirectory(dir.resolve("jobs"));
+		Path other = Files.createDirectory(dir.resolve("other"));
+		Files.createSymbolicLink(jobs.resolve("link"), other.resolve("users.csv"));
+		Files.createSymbolicLink(dir.resolve("jobs-link"), jobs);
+		ConnectorDaemon daemon = new ConnectorDaemon(0, properties(secret("rw-------"), jobs));
+
+		assertEquals(jobs.toRealPath().resolve("users.csv").toFile(), daemon.resolve(jobs + "/users.csv"));
+		// plan might not exist yet
+		assertEquals(jobs.toRealPath().resolve("plan.jsonl").toFile(), daemon.resolve(dir + "/jobs-link/plan.jsonl"));
+		assertNull(daemon.resolve(jobs + "/../other/users.csv"));
+		assertNull(daemon.resolve(jobs + "/link"));
+		assertNull(daemon.resolve(jobs.toString()));
+		assertNull(daemon.resolve(jobs + "/missing/users.csv"));
+	}
+
+	private Path secret(String permissions) throws IOException {
+		Path secret = dir.resolve("secret");
+		Files.writeString(secret, "s3cret\n");
+		Files.setPosixFilePermissions(secret, PosixFilePermissions.fromString(permissions));
+		return secret;
+	}
+
+	private static Properties properties(Path secret, Path jobDir) {
+		Properties properties = new Properties();
+		properties.setProperty("secret_file", secret.toString());
+		properties.setProperty("job_dirs", jobDir.toString());
+		return properties;
+	}
+
+}
@@ -0,0 +1,41 @@
+package cz.metacentrum.perun.googlegroupconnector;
+
+import cz.metacentrum.perun.googlegroupconnector.exceptions.GoogleGroupsIOException;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DeadLetterQueueTest {
+
+	@Test
+	public void failuresAreDrainedInOrder() throws Exception {
+		DeadLetterQueue deadLetters = new DeadLetterQueue();
+		List<String> retried = new ArrayList<>();
+		deadLetters.add("a", new GoogleGroupsIOException("first"), () -> retried.add("a"));
+		deadLetters.add("b", new GoogleGroupsIOException("second"), () -> retried.add("b"));
+		assertFalse(deadLetters.isEmpty());
+
+		List<DeadLetterQueue.Entry> entries = deadLetters.drain();
+		assertTrue(deadLetters.isEmpty());
+		for (DeadLetterQueue.Entry entry : entries) {
+			entry.getRetry().execute();
+		}
+		assertEquals(List.of("a", "b"), retried);
+		assertEquals("first", entries.get(0).getFailure().getMessage());
+	}
+
+	@Test
+	public void descriptionContainsFirstLineOfCause() {
+		GoogleGroupsIOException failure = new GoogleGroupsIOException("Something went wrong", new IOException("404 Not Found\n{\"error\": {}}"));
+
+		assertEquals("Something went wrong: 404 Not Found", DeadLetterQueue.describe(failure));
+		assertEquals("failed", DeadLetterQueue.describe(new GoogleGroupsIOException("failed")));
+	}
+
+}
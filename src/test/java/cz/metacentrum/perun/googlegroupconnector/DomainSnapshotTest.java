@@ -0,0 +1,43 @@
+package cz.metacentrum.perun.googlegroupconnector;
+
+import com.google.api.services.directory.model.Group;
+import com.google.api.services.directory.model.User;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DomainSnapshotTest {
+
+	@Test
+	public void emailsAndAliasesAreKnown() {
+		DomainSnapshot snapshot = new DomainSnapshot(List.of(new User().setPrimaryEmail("User@domain.cz").setAliases(List.of("alias@domain.cz"))),
+				List.of(new Group().setEmail("g@domain.cz")), List.of(), null);
+
+		assertTrue(snapshot.isKnownEmail("user@domain.cz"));
+		assertTrue(snapshot.isKnownEmail("ALIAS@domain.cz"));
+		assertTrue(snapshot.isKnownEmail("g@domain.cz"));
+		assertFalse(snapshot.isKnownEmail("other@domain.cz"));
+		assertFalse(snapshot.isKnownEmail(null));
+	}
+
+	@Test
+	public void emailsOfCreatedAndDeletedEntitiesAreUpdated() {
+		User user = new User().setPrimaryEmail("user@domain.cz").setAliases(List.of("alias@domain.cz"));
+		Group group = new Group().setEmail("g@domain.cz").setAliases(List.of("g-alias@domain.cz"));
+		DomainSnapshot snapshot = new DomainSnapshot(List.of(user), List.of(group), List.of(), null);
+
+		snapshot.addEmail("new@domain.cz");
+		snapshot.removeUser(user);
+		snapshot.removeGroup(group);
+
+		assertTrue(snapshot.isKnownEmail("new@domain.cz"));
+		assertFalse(snapshot.isKnownEmail("user@domain.cz"));
+		assertFalse(snapshot.isKnownEmail("alias@domain.cz"));
+		assertFalse(snapshot.isKnownEmail("g@domain.cz"));
+		assertFalse(snapshot.isKnownEmail("g-alias@domain.cz"));
+	}
+
+}
@@ -0,0 +1,75 @@
+package cz.metacentrum.perun.googlegroupconnector;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DriveStateTest {
+
+	@TempDir
+	Path dir;
+
+	@Test
+	public void stateIsSavedAndLoaded() throws Exception {
+		Path file = dir.resolve("drives.properties");
+		DriveState state = DriveState.load(file);
+		assertNull(state.getStartPageToken());
+		state.setStartPageToken("123");
+		state.put("drive1", "hash1");
+		state.put("drive2", "hash2");
+		state.remove("drive2");
+		state.save();
+
+		DriveState loaded = DriveState.load(file);
+		assertEquals("123", loaded.getStartPageToken());
+		assertTrue(loaded.isUnchanged("drive1", "hash1"));
+		assertFalse(loaded.isUnchanged("drive1", "other"));
+		assertFalse(loaded.isUnchanged("drive2", "hash2"));
+	}
+
+	@Test
+	public void deletedDrivesAreForgotten() throws Exception {
+		DriveState state = DriveState.load(dir.resolve("drives.properties"));
+		state.put("drive1", "hash1");
+		state.put("drive2", "hash2");
+		state.retainAll(List.of("drive2"));
+
+		assertFalse(state.isUnchanged("drive1", "hash1"));
+		assertTrue(state.isUnchanged("drive2", "hash2"));
+	}
+
+	@Test
+	public void unreadableStateIsEmpty() throws Exception {
+		Path file = dir.resolve("drives.properties");
+		Files.writeString(file, "startPageToken=123\ndrive.drive1=\\u00zz");
+
+		DriveState state = DriveState.load(file);
+		assertNull(state.getStartPageToken());
+		assertFalse(state.isUnchanged("drive1", "hash1"));
+	}
+
+	@Test
+	public void savedStateIsCurrentUntilChanged() throws Exception {
+		Path file = dir.resolve("drives.properties");
+		DriveState state = DriveState.load(file);
+		assertTrue(state.isCurrent(file));
+
+		state.setStartPageToken("123");
+		assertFalse(state.isCurrent(file));
+		state.save();
+		assertTrue(state.isCurrent(file));
+
+		Files.setLastModifiedTime(file, FileTime.fromMillis(0));
+		assertFalse(state.isCurrent(file));
+	}
+
+}
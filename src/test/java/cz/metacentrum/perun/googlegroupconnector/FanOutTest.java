@@ -0,0 +1,89 @@
+package cz.metacentrum.perun.googlegroupconnector;
+
+import cz.metacentrum.perun.googlegroupconnector.exceptions.GoogleGroupsIOException;
+import org.junit.jupiter.api.Test;
+import org.slf4j.MDC;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FanOutTest {
+
+	@Test
+	public void parallelismIsBounded() throws Exception {
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxRunning = new AtomicInteger();
+		try (FanOut fanOut = new FanOut("test", 3)) {
+			for (int i = 0; i < 30; i++) {
+				fanOut.submit("group" + i, () -> {
+					maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+					sleep(5);
+					running.decrementAndGet();
+				});
+			}
+			fanOut.awaitAll();
+		}
+
+		assertTrue(maxRunning.get() <= 3, "max running " + maxRunning.get());
+		assertEquals(0, running.get());
+	}
+
+	@Test
+	public void tasksKeepLoggingContext() throws Exception {
+		List<String> contexts = Collections.synchronizedList(new ArrayList<>());
+		MDC.put(MultiDomainRunner.MDC_DOMAIN, "[domain.cz] ");
+		try (FanOut fanOut = new FanOut("test", 2)) {
+			fanOut.submit("g1@domain.cz", () -> contexts.add(MDC.get(MultiDomainRunner.MDC_DOMAIN) + MDC.get(FanOut.MDC_ENTITY)));
+			fanOut.awaitAll();
+		} finally {
+			MDC.remove(MultiDomainRunner.MDC_DOMAIN);
+		}
+
+		assertEquals(List.of("[domain.cz] [g1@domain.cz] "), contexts);
+	}
+
+	@Test
+	public void failureStopsRemainingTasks() throws Exception {
+		try (FanOut fanOut = new FanOut("test", 2)) {
+			fanOut.submit("g1", () -> {
+				throw new GoogleGroupsIOException("failed");
+			});
+			assertThrows(GoogleGroupsIOException.class, fanOut::awaitAll);
+			assertThrows(GoogleGroupsIOException.class, () -> fanOut.submit("g2", () -> {}));
+		}
+	}
+
+	@Test
+	public void failuresAreStoredToDeadLetterQueue() throws Exception {
+		DeadLetterQueue deadLetters = new DeadLetterQueue();
+		AtomicInteger done = new AtomicInteger();
+		try (FanOut fanOut = new FanOut("groups", 2, deadLetters)) {
+			for (int i = 0; i < 4; i++) {
+				int index = i;
+				fanOut.submit("g" + i, () -> {
+					if (index == 1) throw new GoogleGroupsIOException("failed");
+					done.incrementAndGet();
+				});
+			}
+			fanOut.awaitAll();
+		}
+
+		assertEquals(3, done.get());
+		assertEquals(List.of("groups:g1"), deadLetters.getEntries().stream().map(DeadLetterQueue.Entry::getEntityKey).toList());
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
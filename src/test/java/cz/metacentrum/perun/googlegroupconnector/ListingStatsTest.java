@@ -0,0 +1,52 @@
+package cz.metacentrum.perun.googlegroupconnector;
+
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.services.directory.model.Users;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ListingStatsTest {
+
+	@Test
+	public void bytesOfPageAreCountedWhileParsed() throws Exception {
+		byte[] page = "{\"nextPageToken\":\"next\",\"users\":[{\"primaryEmail\":\"user@domain.cz\",\"suspended\":false}]}".getBytes(StandardCharsets.UTF_8);
+		ListingStats stats = new ListingStats();
+
+		InputStream content = stats.countPage(Projection.USERS, new ByteArrayInputStream(page));
+		Users users = GsonFactory.getDefaultInstance().createJsonParser(content, StandardCharsets.UTF_8).parseAndClose(Users.class);
+		content.close();
+
+		assertEquals("user@domain.cz", users.getUsers().get(0).getPrimaryEmail());
+		assertEquals(1, stats.getPages(Projection.USERS));
+		assertEquals(page.length, stats.getBytes(Projection.USERS));
+		assertEquals(0, stats.getPages(Projection.GROUPS));
+	}
+
+	@Test
+	public void pagesAreCountedByProjection() {
+		ListingStats stats = new ListingStats();
+		stats.addPage(Projection.MEMBERS, 100);
+		stats.addPage(Projection.MEMBERS, 50);
+		stats.addPage(Projection.PERMISSIONS, 10);
+
+		assertEquals(2, stats.getPages(Projection.MEMBERS));
+		assertEquals(150, stats.getBytes(Projection.MEMBERS));
+		assertEquals(10, stats.getBytes(Projection.PERMISSIONS));
+	}
+
+	@Test
+	public void onlySnapshotListsAliases() {
+		assertFalse(Projection.USERS.getFields().contains("aliases"));
+		assertFalse(Projection.GROUPS.getFields().contains("aliases"));
+		assertTrue(Projection.SNAPSHOT_USERS.getFields().contains("aliases"));
+		assertTrue(Projection.SNAPSHOT_GROUPS.getFields().contains("aliases"));
+	}
+
+}
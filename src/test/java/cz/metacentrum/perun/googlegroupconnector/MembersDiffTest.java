@@ -0,0 +1,48 @@
+package cz.metacentrum.perun.googlegroupconnector;
+
+import com.google.api.services.directory.model.Member;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MembersDiffTest {
+
+	@Test
+	public void membersAreComparedById() {
+		MembersDiff diff = new MembersDiff(List.of("1", "2", "3"), "id");
+		diff.addDomainMember(new Member().setId("2").setEmail("two@domain.cz"));
+		diff.addDomainMember(new Member().setId("4").setEmail("four@domain.cz"));
+
+		assertEquals(List.of("1", "3"), new ArrayList<>(diff.getAdded()));
+		assertEquals(List.of("4"), new ArrayList<>(diff.getRemoved()));
+		assertTrue(diff.isChanged());
+	}
+
+	@Test
+	public void emailsAreComparedCaseInsensitive() {
+		MembersDiff diff = new MembersDiff(List.of("One@Domain.cz", "two@domain.cz"), "email");
+		diff.addDomainMember(new Member().setId("1").setEmail("one@domain.cz"));
+		diff.addDomainMember(new Member().setId("3").setEmail("Three@Domain.cz"));
+
+		assertEquals(List.of("two@domain.cz"), new ArrayList<>(diff.getAdded()));
+		// removed members are identified as returned by G Suite
+		assertEquals(List.of("Three@Domain.cz"), new ArrayList<>(diff.getRemoved()));
+	}
+
+	@Test
+	public void membersWithoutIdentifierAreIgnored() {
+		MembersDiff diff = new MembersDiff(List.of("one@domain.cz"), "email");
+		diff.addDomainMember(new Member().setId("1").setEmail("one@domain.cz"));
+		// e.g. whole customer
+		diff.addDomainMember(new Member().setId("C01").setType("CUSTOMER"));
+
+		assertTrue(diff.getRemoved().isEmpty());
+		assertFalse(diff.isChanged());
+	}
+
+}
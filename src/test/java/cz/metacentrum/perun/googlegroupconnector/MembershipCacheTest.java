@@ -0,0 +1,70 @@
+package cz.metacentrum.perun.googlegroupconnector;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MembershipCacheTest {
+
+	@TempDir
+	Path dir;
+
+	@Test
+	public void groupIsUnchangedWithSameMembersAndEtag() throws Exception {
+		Path file = dir.resolve("cache.properties");
+		MembershipCache cache = MembershipCache.load(file);
+		String hash = MembershipCache.hash(List.of("1", "2"), "id");
+		cache.put("g@domain.cz", hash, "etag1");
+		cache.put("other@domain.cz", hash, null);
+		cache.save();
+
+		MembershipCache loaded = MembershipCache.load(file);
+		assertTrue(loaded.isUnchanged("g@domain.cz", hash, "etag1"));
+		assertFalse(loaded.isUnchanged("g@domain.cz", hash, "etag2"));
+		assertFalse(loaded.isUnchanged("g@domain.cz", MembershipCache.hash(List.of("1"), "id"), "etag1"));
+		assertFalse(loaded.isUnchanged("g@domain.cz", hash, null));
+		assertFalse(loaded.isUnchanged("other@domain.cz", hash, null));
+	}
+
+	@Test
+	public void hashIgnoresOrderAndCaseOfEmails() {
+		assertEquals(MembershipCache.hash(List.of("A@domain.cz", "b@domain.cz"), "email"), MembershipCache.hash(List.of("b@domain.cz", "a@domain.cz", "a@domain.cz"), "email"));
+		assertNotEquals(MembershipCache.hash(List.of("1"), "id"), MembershipCache.hash(List.of("1"), "email"));
+	}
+
+	@Test
+	public void unreadableCacheIsEmpty() throws Exception {
+		Path file = dir.resolve("cache.properties");
+		Files.writeString(file, "g@domain.cz=\\u00zz");
+
+		assertFalse(MembershipCache.load(file).isUnchanged("g@domain.cz", "hash", "etag"));
+	}
+
+	@Test
+	public void savedCacheIsCurrentUntilChanged() throws Exception {
+		Path file = dir.resolve("cache.properties");
+		MembershipCache cache = MembershipCache.load(file);
+		assertTrue(cache.isCurrent(file));
+		assertFalse(cache.isCurrent(dir.resolve("other.properties")));
+
+		cache.put("g@domain.cz", "hash", "etag");
+		// changes of job, which wasn't saved (e.g. dry run), must not be used by the next one
+		assertFalse(cache.isCurrent(file));
+		cache.save();
+		assertTrue(cache.isCurrent(file));
+
+		// file replaced by someone else
+		Files.setLastModifiedTime(file, FileTime.fromMillis(0));
+		assertFalse(cache.isCurrent(file));
+	}
+
+}
@@ -0,0 +1,109 @@
+package cz.metacentrum.perun.googlegroupconnector;
+
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.services.directory.Directory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Mock of G Suite API answering single and batch requests with configured status codes.
+ * Requests are identified as "METHOD /path", requests without configured status succeed.
+ */
+class MockApi extends MockHttpTransport {
+
+	private static final Pattern REQUEST_LINE = Pattern.compile("^(GET|POST|PUT|PATCH|DELETE) (\\S+) HTTP/1.1$", Pattern.MULTILINE);
+	private static final String BOUNDARY = "mock_batch";
+
+	// request -> status codes of its next attempts
+	private final Map<String, Deque<Integer>> statuses = new ConcurrentHashMap<>();
+	// requests of each HTTP call, single request is call of its own
+	private final List<List<String>> calls = Collections.synchronizedList(new ArrayList<>());
+
+	/**
+	 * Set status codes returned to the next attempts of the request.
+	 */
+	MockApi respond(String request, Integer... codes) {
+		statuses.computeIfAbsent(request, key -> new ArrayDeque<>()).addAll(List.of(codes));
+		return this;
+	}
+
+	/**
+	 * Return requests of each HTTP call in order they were sent.
+	 */
+	List<List<String>> getCalls() {
+		synchronized (calls) {
+			return new ArrayList<>(calls);
+		}
+	}
+
+	/**
+	 * Return Directory client sending requests to this mock.
+	 */
+	Directory directory() {
+		return new Directory.Builder(this, GsonFactory.getDefaultInstance(), null).setApplicationName("test").build();
+	}
+
+	@Override
+	public LowLevelHttpRequest buildRequest(String method, String url) {
+		return new MockLowLevelHttpRequest(url) {
+			@Override
+			public LowLevelHttpResponse execute() throws IOException {
+				if (getContentType() != null && getContentType().startsWith("multipart/mixed")) {
+					return executeBatch(getContentAsString());
+				}
+				String request = method + " " + URI.create(url).getPath();
+				calls.add(List.of(request));
+				int code = nextStatus(request);
+				return new MockLowLevelHttpResponse().setStatusCode(code).setContentType("application/json; charset=UTF-8").setContent(body(code));
+			}
+		};
+	}
+
+	private LowLevelHttpResponse executeBatch(String content) {
+		List<String> requests = new ArrayList<>();
+		StringBuilder response = new StringBuilder();
+		Matcher matcher = REQUEST_LINE.matcher(content);
+		while (matcher.find()) {
+			String request = matcher.group(1) + " " + URI.create(matcher.group(2)).getPath();
+			requests.add(request);
+			int code = nextStatus(request);
+			response.append("--").append(BOUNDARY).append("\r\n")
+					.append("Content-Type: application/http\r\n")
+					.append("Content-ID: response-").append(requests.size()).append("\r\n\r\n")
+					.append("HTTP/1.1 ").append(code).append(" Status\r\n")
+					.append("Content-Type: application/json; charset=UTF-8\r\n\r\n")
+					.append(body(code)).append("\r\n");
+		}
+		response.append("--").append(BOUNDARY).append("--\r\n");
+		calls.add(requests);
+		return new MockLowLevelHttpResponse().setStatusCode(200).setContentType("multipart/mixed; boundary=" + BOUNDARY).setContent(response.toString());
+	}
+
+	private int nextStatus(String request) {
+		Deque<Integer> codes = statuses.get(request);
+		Integer code = (codes != null) ? codes.poll() : null;
+		return (code != null) ? code : 200;
+	}
+
+	private static String body(int code) {
+		if (code < 300) return "{}";
+		String reason = (code == 404) ? "notFound" : (code == 409) ? "duplicate" : (code >= 500) ? "backendError" : "invalid";
+		return "{\"error\":{\"code\":" + code + ",\"message\":\"Status " + code + "\",\"errors\":[{\"reason\":\"" + reason + "\"}]}}";
+	}
+
+}
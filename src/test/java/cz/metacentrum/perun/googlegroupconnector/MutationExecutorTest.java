@@ -0,0 +1,123 @@
+package cz.metacentrum.perun.googlegroupconnector;
+
+import cz.metacentrum.perun.googlegroupconnector.exceptions.GoogleGroupsIOException;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MutationExecutorTest {
+
+	@Test
+	public void mutationsOfEntityAreExecutedInOrder() throws Exception {
+		Map<String, List<Integer>> executed = new ConcurrentHashMap<>();
+		try (MutationExecutor executor = new MutationExecutor(4)) {
+			for (int i = 0; i < 100; i++) {
+				int seq = i;
+				String key = "group" + (i % 3);
+				executor.submit(key, () -> {
+					sleep(1);
+					executed.computeIfAbsent(key, k -> Collections.synchronizedList(new ArrayList<>())).add(seq);
+				});
+			}
+			executor.flush();
+		}
+
+		for (List<Integer> seqs : executed.values()) {
+			List<Integer> sorted = new ArrayList<>(seqs);
+			Collections.sort(sorted);
+			assertEquals(sorted, seqs);
+		}
+		assertEquals(100, executed.values().stream().mapToInt(List::size).sum());
+	}
+
+	@Test
+	public void mutationOfMoreEntitiesWaitsForEachOfThem() throws Exception {
+		List<String> executed = Collections.synchronizedList(new ArrayList<>());
+		CountDownLatch release = new CountDownLatch(1);
+		try (MutationExecutor executor = new MutationExecutor(4)) {
+			executor.submit("a", () -> {
+				await(release);
+				executed.add("a");
+			});
+			executor.submit("b", () -> executed.add("b"));
+			executor.submit("batch", List.of("a", "b"), () -> executed.add("batch"));
+			executor.submit("b", () -> executed.add("b2"));
+			release.countDown();
+			executor.flush();
+		}
+
+		assertTrue(executed.indexOf("a") < executed.indexOf("batch"));
+		assertTrue(executed.indexOf("b") < executed.indexOf("batch"));
+		assertTrue(executed.indexOf("batch") < executed.indexOf("b2"));
+	}
+
+	@Test
+	public void failureIsThrownToCaller() throws Exception {
+		GoogleGroupsIOException failure = new GoogleGroupsIOException("failed");
+		try (MutationExecutor executor = new MutationExecutor(2)) {
+			executor.submit("a", () -> {
+				throw failure;
+			});
+			GoogleGroupsIOException thrown = assertThrows(GoogleGroupsIOException.class, executor::flush);
+			assertSame(failure, thrown);
+			assertThrows(GoogleGroupsIOException.class, () -> executor.submit("b", () -> {}));
+		}
+	}
+
+	@Test
+	public void failureIsThrownToCallerOfSingleThread() throws Exception {
+		MutationExecutor executor = new MutationExecutor(1);
+		List<String> executed = new ArrayList<>();
+		executor.submit("a", () -> executed.add(Thread.currentThread().getName()));
+		assertEquals(List.of(Thread.currentThread().getName()), executed);
+
+		assertThrows(GoogleGroupsIOException.class, () -> executor.submit("b", () -> {
+			throw new GoogleGroupsIOException("failed");
+		}));
+	}
+
+	@Test
+	public void failuresAreStoredToDeadLetterQueue() throws Exception {
+		DeadLetterQueue deadLetters = new DeadLetterQueue();
+		List<String> executed = Collections.synchronizedList(new ArrayList<>());
+		try (MutationExecutor executor = new MutationExecutor(2, deadLetters)) {
+			executor.submit("a", () -> {
+				throw new GoogleGroupsIOException("failed");
+			});
+			executor.submit("b", () -> executed.add("b"));
+			executor.flush();
+		}
+
+		assertEquals(List.of("b"), executed);
+		assertEquals(List.of("a"), deadLetters.getEntries().stream().map(DeadLetterQueue.Entry::getEntityKey).toList());
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void await(CountDownLatch latch) throws GoogleGroupsIOException {
+		try {
+			if (!latch.await(10, TimeUnit.SECONDS)) throw new GoogleGroupsIOException("Not released in time.");
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new GoogleGroupsIOException("Interrupted", ex);
+		}
+	}
+
+}
@@ -0,0 +1,151 @@
+package cz.metacentrum.perun.googlegroupconnector;
+
+import com.google.api.services.directory.model.Group;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MutationJournalTest {
+
+	@TempDir
+	Path dir;
+
+	@Test
+	public void interruptedJobIsResumedWithOutstandingChanges() throws Exception {
+		Path file = dir.resolve("journal.jsonl");
+		try (MutationJournal journal = MutationJournal.open(file, "domain.cz", "groups", "hash")) {
+			assertFalse(journal.isResumed());
+			for (int i = 0; i < 5; i++) {
+				journal.add(member("user" + i + "@domain.cz"));
+			}
+			journal.planned();
+			// changes are numbered from 1
+			journal.done(1);
+			journal.done(3);
+		}
+		// job was killed while writing
+		Files.writeString(file, "{\"op\":\"done\",\"se", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+		try (MutationJournal journal = MutationJournal.open(file, "domain.cz", "groups", "hash")) {
+			assertTrue(journal.isResumed());
+			List<ChangePlan.Change> outstanding = journal.getStatus().getOutstanding();
+			assertEquals(List.of("user1@domain.cz", "user3@domain.cz", "user4@domain.cz"), outstanding.stream().map(ChangePlan.Change::getKey).collect(Collectors.toList()));
+			assertEquals(ChangePlan.Op.INSERT_MEMBER, outstanding.get(0).getOp());
+			assertEquals("g@domain.cz", outstanding.get(0).getGroup().getEmail());
+			for (ChangePlan.Change change : outstanding) {
+				journal.done(change.getSeq());
+			}
+			assertTrue(journal.finish());
+		}
+
+		MutationJournal.Status status = MutationJournal.read(file);
+		assertTrue(status.isFinished());
+		assertTrue(status.getOutstanding().isEmpty());
+		try (MutationJournal journal = MutationJournal.open(file, "domain.cz", "groups", "hash")) {
+			assertFalse(journal.isResumed());
+		}
+	}
+
+	@Test
+	public void journalOfOtherJobIsNotResumed() throws Exception {
+		Path file = dir.resolve("journal.jsonl");
+		planned(file, "hash");
+
+		try (MutationJournal journal = MutationJournal.open(file, "domain.cz", "groups", "other")) {
+			assertFalse(journal.isResumed());
+			assertTrue(journal.getStatus().getOutstanding().isEmpty());
+		}
+	}
+
+	@Test
+	public void journalNotPlannedCompletelyIsNotResumed() throws Exception {
+		Path file = dir.resolve("journal.jsonl");
+		try (MutationJournal journal = MutationJournal.open(file, "domain.cz", "groups", "hash")) {
+			journal.add(member("user@domain.cz"));
+		}
+
+		try (MutationJournal journal = MutationJournal.open(file, "domain.cz", "groups", "hash")) {
+			assertFalse(journal.isResumed());
+		}
+	}
+
+	@Test
+	public void staleJournalIsPlannedAgain() throws Exception {
+		Path file = dir.resolve("journal.jsonl");
+		planned(file, "hash");
+
+		for (int i = 1; i <= MutationJournal.MAX_RESUMES; i++) {
+			try (MutationJournal journal = MutationJournal.open(file, "domain.cz", "groups", "hash")) {
+				assertTrue(journal.isResumed());
+				assertEquals(Integer.valueOf(i), journal.getStatus().getHeader().getResumes());
+			}
+		}
+		try (MutationJournal journal = MutationJournal.open(file, "domain.cz", "groups", "hash")) {
+			assertFalse(journal.isResumed());
+		}
+	}
+
+	@Test
+	public void compactionKeepsOutstandingChanges() throws Exception {
+		Path file = dir.resolve("journal.jsonl");
+		try (MutationJournal journal = MutationJournal.open(file, "domain.cz", "groups", "hash")) {
+			journal.add(member("user1@domain.cz"));
+			journal.add(member("user2@domain.cz"));
+			journal.planned();
+			journal.done(1);
+		}
+
+		MutationJournal.Status status = MutationJournal.compact(file);
+
+		assertTrue(status.isPlanned());
+		assertEquals(List.of("user2@domain.cz"), status.getOutstanding().stream().map(ChangePlan.Change::getKey).collect(Collectors.toList()));
+		assertEquals(status.getOutstanding().size(), MutationJournal.read(file).getOutstanding().size());
+	}
+
+	@Test
+	public void resumedDeleteAlreadyAppliedIsDone() throws Exception {
+		Path file = dir.resolve("journal.jsonl");
+		try (MutationJournal journal = MutationJournal.open(file, "domain.cz", "users", "hash")) {
+			journal.add(new ChangePlan.Change(ChangePlan.Op.DELETE_USER, "user@domain.cz"));
+			journal.planned();
+			// user was deleted, but job was killed before its confirmation
+		}
+
+		MockApi api = new MockApi().respond("DELETE /admin/directory/v1/users/user@domain.cz", 404);
+		try (MutationJournal journal = MutationJournal.open(file, "domain.cz", "users", "hash")) {
+			assertTrue(journal.isResumed());
+			ApiCallExecutor apiCalls = new ApiCallExecutor(new Properties());
+			apiCalls.setReplaying(journal.isResumed());
+			BatchQueue queue = new BatchQueue("users", api.directory(), new MutationExecutor(1), apiCalls, ApiQuota.DIRECTORY_WRITE, 10, 1000);
+			for (ChangePlan.Change change : journal.getStatus().getOutstanding()) {
+				queue.queue(change.getKey(), api.directory().users().delete(change.getKey()), "deleting user " + change.getKey(), () -> journal.done(change.getSeq()));
+			}
+			queue.flush();
+			assertTrue(journal.finish());
+		}
+		assertTrue(MutationJournal.read(file).isFinished());
+	}
+
+	private static void planned(Path file, String input) throws Exception {
+		try (MutationJournal journal = MutationJournal.open(file, "domain.cz", "groups", input)) {
+			journal.add(member("user@domain.cz"));
+			journal.planned();
+		}
+	}
+
+	private static ChangePlan.Change member(String email) {
+		return new ChangePlan.Change(ChangePlan.Op.INSERT_MEMBER, email).setGroup(new Group().setEmail("g@domain.cz"));
+	}
+
+}
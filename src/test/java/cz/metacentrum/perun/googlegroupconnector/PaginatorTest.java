@@ -0,0 +1,70 @@
+package cz.metacentrum.perun.googlegroupconnector;
+
+import cz.metacentrum.perun.googlegroupconnector.exceptions.GoogleGroupsIOException;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PaginatorTest {
+
+	@Test
+	public void allPagesAreListed() throws Exception {
+		Paginator<String> paginator = Paginator.of("items", this::fetch, page -> page, PaginatorTest::nextToken);
+
+		assertEquals(List.of("1a", "1b", "2a", "2b", "3a", "3b"), paginator.toList());
+	}
+
+	@Test
+	public void nextPageIsFetchedWhileCurrentIsConsumed() throws Exception {
+		List<String> fetched = Collections.synchronizedList(new ArrayList<>());
+		CountDownLatch secondFetched = new CountDownLatch(1);
+		Paginator<String> paginator = Paginator.of("items", token -> {
+			fetched.add(String.valueOf(token));
+			if ("2".equals(token)) secondFetched.countDown();
+			return fetch(token);
+		}, page -> page, PaginatorTest::nextToken);
+
+		assertTrue(paginator.hasNext());
+		assertEquals("1a", paginator.next());
+		// second page is requested before the first one is consumed
+		assertTrue(secondFetched.await(10, TimeUnit.SECONDS));
+		assertEquals(List.of("null", "2"), fetched);
+		// only one page is fetched ahead
+		Thread.sleep(50);
+		assertEquals(List.of("null", "2"), fetched);
+	}
+
+	@Test
+	public void failureOfPageIsThrownToConsumer() throws Exception {
+		Paginator<String> paginator = Paginator.of("items", token -> {
+			if ("2".equals(token)) throw new IOException("failed");
+			return fetch(token);
+		}, page -> page, PaginatorTest::nextToken);
+
+		assertTrue(paginator.hasNext());
+		paginator.next();
+		paginator.next();
+		GoogleGroupsIOException ex = assertThrows(GoogleGroupsIOException.class, paginator::hasNext);
+		assertEquals("failed", ex.getCause().getMessage());
+	}
+
+	private List<String> fetch(String token) {
+		String page = (token == null) ? "1" : token;
+		return List.of(page + "a", page + "b");
+	}
+
+	private static String nextToken(List<String> page) {
+		int number = Integer.parseInt(page.get(0).substring(0, 1));
+		return (number < 3) ? String.valueOf(number + 1) : null;
+	}
+
+}
@@ -0,0 +1,59 @@
+package cz.metacentrum.perun.googlegroupconnector;
+
+import com.google.api.services.directory.model.User;
+import com.google.api.services.drive.model.Permission;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PermissionsDiffTest {
+
+	@Test
+	public void permissionsAreAddedAndRemoved() {
+		PermissionsDiff diff = new PermissionsDiff(List.of(user("kept@domain.cz"), user("new@domain.cz")), "admin@domain.cz");
+		diff.addPermission(permission("p1", "Kept@Domain.cz"));
+		diff.addPermission(permission("p2", "gone@domain.cz"));
+
+		assertEquals(List.of("new@domain.cz"), diff.getToAdd().stream().map(User::getPrimaryEmail).collect(Collectors.toList()));
+		assertEquals(List.of("p2"), diff.getToRemove().stream().map(Permission::getId).collect(Collectors.toList()));
+		assertFalse(diff.isServiceAccountMember());
+	}
+
+	@Test
+	public void serviceAccountUserIsNeverRemoved() {
+		PermissionsDiff diff = new PermissionsDiff(List.of(), "admin@domain.cz");
+		diff.addPermission(permission("p1", "ADMIN@domain.cz"));
+
+		assertTrue(diff.getToRemove().isEmpty());
+		assertTrue(diff.isServiceAccountMember());
+	}
+
+	@Test
+	public void permissionsWithoutEmailAreRemoved() {
+		PermissionsDiff diff = new PermissionsDiff(List.of(user("user@domain.cz")), "admin@domain.cz");
+		diff.addPermission(new Permission().setId("p1").setType("domain").setDomain("domain.cz"));
+		diff.addPermission(permission("p2", "user@domain.cz"));
+		// duplicate permission of the same user is not removed
+		diff.addPermission(permission("p3", "user@domain.cz"));
+		// all permissions of user missing in Perun are removed
+		diff.addPermission(permission("p4", "gone@domain.cz"));
+		diff.addPermission(permission("p5", "gone@domain.cz"));
+
+		assertTrue(diff.getToAdd().isEmpty());
+		assertEquals(List.of("p1", "p4", "p5"), diff.getToRemove().stream().map(Permission::getId).collect(Collectors.toList()));
+	}
+
+	private static User user(String email) {
+		return new User().setPrimaryEmail(email);
+	}
+
+	private static Permission permission(String id, String email) {
+		return new Permission().setId(id).setType("user").setEmailAddress(email);
+	}
+
+}
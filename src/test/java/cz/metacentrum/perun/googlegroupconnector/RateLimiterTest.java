@@ -0,0 +1,46 @@
+package cz.metacentrum.perun.googlegroupconnector;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RateLimiterTest {
+
+	@Test
+	public void zeroRateIsUnlimited() throws Exception {
+		RateLimiter limiter = new RateLimiter(0);
+
+		assertTrue(limiter.isUnlimited());
+		assertEquals(0, limiter.acquire(1000));
+	}
+
+	@Test
+	public void callsOverRateWait() throws Exception {
+		RateLimiter limiter = new RateLimiter(100);
+		assertFalse(limiter.isUnlimited());
+
+		long start = System.nanoTime();
+		long waited = 0;
+		// burst of 100 permits is available at once, next 20 take 200 ms
+		for (int i = 0; i < 120; i++) {
+			waited += limiter.acquire(1);
+		}
+		long elapsed = (System.nanoTime() - start) / 1000000;
+
+		assertTrue(elapsed >= 150, "elapsed " + elapsed);
+		assertTrue(waited >= 150 && waited <= elapsed + 10, "waited " + waited);
+	}
+
+	@Test
+	public void batchReservesPermitsInAdvance() throws Exception {
+		RateLimiter limiter = new RateLimiter(10);
+		limiter.acquire(10);
+
+		// batch of 5 requests must wait until 5 permits are refilled
+		long waited = limiter.acquire(5);
+		assertTrue(waited >= 400 && waited <= 500, "waited " + waited);
+	}
+
+}
@@ -0,0 +1,120 @@
+package cz.metacentrum.perun.googlegroupconnector;
+
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RetryPolicyTest {
+
+	private final RetryPolicy policy = new RetryPolicy(new Properties());
+
+	@Test
+	public void transientFailuresAreRetryable() {
+		assertTrue(policy.isRetryable(response(503)));
+		assertTrue(policy.isRetryable(response(429)));
+		assertTrue(policy.isRetryable(new SocketTimeoutException("timeout")));
+		assertTrue(policy.isRetryable(new IOException("wrapped", new SocketTimeoutException("timeout"))));
+		assertFalse(policy.isRetryable(response(400)));
+		assertFalse(policy.isRetryable(response(404)));
+		assertFalse(policy.isRetryable(new IOException("other")));
+	}
+
+	@Test
+	public void rateLimitErrorsAreRetryableAndThrottled() {
+		GoogleJsonError rateLimited = error(403, "userRateLimitExceeded");
+		GoogleJsonError forbidden = error(403, "forbidden");
+
+		assertTrue(policy.isRetryable(rateLimited));
+		assertTrue(policy.isThrottled(rateLimited));
+		assertFalse(policy.isRetryable(forbidden));
+		assertFalse(policy.isThrottled(forbidden));
+		assertTrue(policy.isNotFound(error(404, "notFound")));
+		assertTrue(policy.isConflict(error(409, "duplicate")));
+		// quota might be refilled before attempts are spent
+		assertTrue(policy.isRetryable(error(403, "quotaExceeded")));
+		assertTrue(policy.isThrottled(error(403, "quotaExceeded")));
+	}
+
+	@Test
+	public void writeSentAgainIsDoneByMethod() {
+		assertTrue(policy.isAlreadyDone(error(409, "duplicate"), false));
+		assertFalse(policy.isAlreadyDone(error(404, "notFound"), false));
+		assertTrue(policy.isAlreadyDone(error(404, "notFound"), true));
+		assertFalse(policy.isAlreadyDone(error(409, "duplicate"), true));
+		assertTrue(policy.isAlreadyDone(response(404), true));
+		assertFalse(policy.isAlreadyDone(response(503), true));
+	}
+
+	@Test
+	public void retryAfterIsRespected() {
+		assertEquals(Long.valueOf(30000), policy.getRetryAfter(new HttpHeaders().setRetryAfter("30")));
+		assertNull(policy.getRetryAfter(new HttpHeaders()));
+		assertTrue(policy.nextDelay(1, 30000L) >= 30000);
+		// server asks for too long delay
+		assertNull(policy.nextDelay(1, 3600000L));
+	}
+
+	@Test
+	public void delayGrowsUntilAttemptsAreSpent() {
+		Properties properties = new Properties();
+		properties.setProperty("retry_max_attempts", "4");
+		properties.setProperty("retry_initial_delay", "100");
+		properties.setProperty("retry_max_delay", "300");
+		RetryPolicy limited = new RetryPolicy(properties);
+
+		long first = limited.nextDelay(1, null);
+		long third = limited.nextDelay(3, null);
+		assertTrue(first >= 50 && first <= 100, "first delay " + first);
+		assertTrue(third >= 150 && third <= 300, "third delay " + third);
+		assertNull(limited.nextDelay(4, null));
+	}
+
+	@Test
+	public void retriesAreLimitedByBudget() {
+		Properties properties = new Properties();
+		properties.setProperty("retry_budget", "2");
+		RetryPolicy limited = new RetryPolicy(properties);
+
+		limited.nextDelay(1, null);
+		limited.nextDelay(1, null);
+		assertNull(limited.nextDelay(1, null));
+		// waiting for created entity doesn't take from the budget
+		assertEquals(Long.valueOf(250), limited.nextReadinessDelay(1));
+	}
+
+	@Test
+	public void readinessDelayIsBounded() {
+		long total = 0;
+		int attempt = 1;
+		for (Long delay = policy.nextReadinessDelay(attempt); delay != null; delay = policy.nextReadinessDelay(++attempt)) {
+			assertTrue(delay <= 4000);
+			total += delay;
+		}
+		assertTrue(total > 0 && total < 15000, "total delay " + total);
+	}
+
+	private static HttpResponseException response(int code) {
+		return new HttpResponseException.Builder(code, null, new HttpHeaders()).build();
+	}
+
+	private static GoogleJsonError error(int code, String reason) {
+		GoogleJsonError error = new GoogleJsonError();
+		error.setCode(code);
+		GoogleJsonError.ErrorInfo info = new GoogleJsonError.ErrorInfo();
+		info.setReason(reason);
+		error.setErrors(List.of(info));
+		return error;
+	}
+
+}
@@ -0,0 +1,78 @@
+package cz.metacentrum.perun.googlegroupconnector;
+
+import com.google.api.services.directory.model.User;
+import com.google.api.services.directory.model.UserName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class UsersDiffTest {
+
+	@Test
+	public void usersAreSortedToInsertUpdateAndUnchanged() {
+		UsersDiff diff = new UsersDiff(List.of(
+				user("new@domain.cz", "New", false),
+				user("renamed@domain.cz", "Renamed", false),
+				user("same@domain.cz", "Same", false),
+				user("blocked@domain.cz", "Blocked", true)), false);
+		diff.addDomainUser(user("renamed@domain.cz", "Original", false));
+		diff.addDomainUser(user("same@domain.cz", "Same", false));
+
+		assertEquals(List.of("new@domain.cz"), emails(diff.getToInsert()));
+		assertEquals(List.of("blocked@domain.cz"), emails(diff.getSkippedSuspended()));
+		assertEquals(List.of("renamed@domain.cz"), emails(diff.getToUpdate()));
+		assertEquals(List.of("same@domain.cz"), emails(diff.getUnchanged()));
+	}
+
+	@Test
+	public void suspensionIsUpdate() {
+		UsersDiff diff = new UsersDiff(List.of(user("user@domain.cz", "User", true)), false);
+		diff.addDomainUser(user("user@domain.cz", "User", false));
+
+		assertEquals(List.of("user@domain.cz"), emails(diff.getToUpdate()));
+		assertTrue(diff.getToInsert().isEmpty());
+	}
+
+	@Test
+	public void missingUsersAreSuspendedUnlessDeleteIsAllowed() {
+		UsersDiff suspending = new UsersDiff(List.of(), false);
+		suspending.addDomainUser(user("gone@domain.cz", "Gone", false));
+		suspending.addDomainUser(user("suspended@domain.cz", "Suspended", true));
+
+		assertEquals(List.of("gone@domain.cz"), emails(suspending.getToSuspend()));
+		assertTrue(suspending.getToDelete().isEmpty());
+
+		UsersDiff deleting = new UsersDiff(List.of(), true);
+		deleting.addDomainUser(user("gone@domain.cz", "Gone", false));
+		deleting.addDomainUser(user("suspended@domain.cz", "Suspended", true));
+
+		assertEquals(List.of("gone@domain.cz", "suspended@domain.cz"), emails(deleting.getToDelete()));
+		assertTrue(deleting.getToSuspend().isEmpty());
+	}
+
+	@Test
+	public void emailsAreComparedCaseInsensitive() {
+		UsersDiff diff = new UsersDiff(List.of(user("User@Domain.cz", "User", false)), true);
+		diff.addDomainUser(user("user@domain.cz ", "User", false));
+		// duplicate of domain user is ignored
+		diff.addDomainUser(user("USER@DOMAIN.CZ", "Other", false));
+
+		assertTrue(diff.getToInsert().isEmpty());
+		assertTrue(diff.getToDelete().isEmpty());
+		assertTrue(diff.getToUpdate().isEmpty());
+		assertEquals(List.of("User@Domain.cz"), emails(diff.getUnchanged()));
+	}
+
+	private static User user(String email, String familyName, boolean suspended) {
+		return new User().setPrimaryEmail(email).setName(new UserName().setGivenName("Given").setFamilyName(familyName)).setSuspended(suspended);
+	}
+
+	private static List<String> emails(List<User> users) {
+		return users.stream().map(User::getPrimaryEmail).collect(Collectors.toList());
+	}
+
+}